@@ -0,0 +1,294 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * Command line router for batch jobs, with no JavaFX. Loads a road file, or the
+ * checkpoint and journal in a journal directory, reads pairs of towns one per
+ * line as from;to, and writes the route of each pair in the order read, as text
+ * in the format of getPath or as CSV. Pairs are read in blocks that are routed in
+ * parallel and written before the next block is read, so output streams out and
+ * memory stays flat however many pairs there are. The number of routes, the
+ * throughput and the latency percentiles go to standard error at the end; the
+ * latencies are counted in a fixed histogram, so the percentiles are good to
+ * about 3% and take no more memory for more pairs.
+ * <pre>
+ * java BatchRouter [--pairs file] [--out file] [--format text|csv] [--threads n] roadFile|journalDir
+ * </pre>
+ * Pairs are read from standard input and routes written to standard output unless
+ * files are given.
+ * @author Ha T Dao
+ */
+public class BatchRouter {
+
+    /**
+     * Pairs routed together before their results are written
+     */
+    private static final int BLOCK = 4096;
+
+    private final TownGraphManager manager;
+    private final boolean csv;
+    private final ForkJoinPool pool;
+
+    /**
+     * Time taken by each route of the current block, in nanoseconds
+     */
+    private final long[] latencies = new long[BLOCK];
+
+    /**
+     * Times taken by every route so far
+     */
+    private final LatencyHistogram histogram = new LatencyHistogram();
+    private int routed;
+
+    /**
+     * Creates a router
+     * @param manager the graph to route on
+     * @param csv true for CSV output, false for text
+     * @param pool the pool the routes of a block are spread over
+     */
+    BatchRouter(TownGraphManager manager, boolean csv, ForkJoinPool pool) {
+        this.manager = manager;
+        this.csv = csv;
+        this.pool = pool;
+    }
+
+    /**
+     * Runs a batch job
+     * @param args options and the road file or journal directory
+     * @throws IOException if a file cannot be read or written
+     */
+    public static void main(String[] args) throws IOException {
+        String pairs = null;
+        String out = null;
+        String format = "text";
+        int threads = 0;
+        String source = null;
+        boolean usage = false;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                case "--pairs":
+                    pairs = args[++i];
+                    break;
+                case "--out":
+                    out = args[++i];
+                    break;
+                case "--format":
+                    format = args[++i];
+                    break;
+                case "--threads":
+                    threads = Integer.parseInt(args[++i]);
+                    break;
+                default:
+                    if (args[i].startsWith("--")) {
+                        usage = true; // not an option we know, and not a path either
+                    } else {
+                        source = args[i];
+                    }
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+            usage = true;
+        }
+        if (usage || source == null || !(format.equals("text") || format.equals("csv"))) {
+            System.err.println("Usage: java BatchRouter [--pairs file] [--out file] "
+                    + "[--format text|csv] [--threads n] roadFile|journalDir");
+            System.exit(2);
+        }
+
+        TownGraphManager manager = new TownGraphManager();
+        File roads = new File(source);
+        if (roads.isDirectory()) {
+            manager.openJournal(roads);
+            manager.closeJournal();
+        } else {
+            manager.populateTownGraph(roads);
+        }
+        ForkJoinPool pool = threads > 0 ? new ForkJoinPool(threads) : ForkJoinPool.commonPool();
+        BatchRouter router = new BatchRouter(manager, format.equals("csv"), pool);
+        try (BufferedReader in = new BufferedReader(pairs == null
+                    ? new InputStreamReader(System.in) : new FileReader(pairs));
+                Writer output = new BufferedWriter(out == null
+                    ? new OutputStreamWriter(System.out) : new FileWriter(out), 1 << 16)) {
+            long start = System.nanoTime();
+            router.run(in, output);
+            output.flush();
+            System.err.println(router.report(System.nanoTime() - start));
+        }
+    }
+
+    /**
+     * Routes every pair read and writes the results
+     * @param in pairs, one from;to per line; blank lines are skipped
+     * @param out where the routes go
+     * @throws IOException if reading or writing fails, or a line has no ';'
+     */
+    void run(BufferedReader in, Writer out) throws IOException {
+        if (csv) {
+            out.write("from,to,miles,route\n");
+        }
+        List<String[]> block = new ArrayList<>(BLOCK);
+        String line;
+        while ((line = in.readLine()) != null) {
+            if (line.trim().isEmpty()) {
+                continue;
+            }
+            int semi = line.indexOf(';');
+            if (semi < 0) {
+                throw new IOException("Expected from;to but read: " + line);
+            }
+            block.add(new String[] {line.substring(0, semi).trim(), line.substring(semi + 1).trim()});
+            if (block.size() == BLOCK) {
+                route(block, out);
+                block.clear();
+            }
+        }
+        route(block, out);
+    }
+
+    /**
+     * Routes a block of pairs in parallel and writes them in order
+     */
+    private void route(List<String[]> block, Writer out) throws IOException {
+        List<List<String>> paths = new ArrayList<>(block.size());
+        for (int i = 0; i < block.size(); i++) {
+            paths.add(null);
+        }
+        try {
+            pool.submit(() -> IntStream.range(0, block.size()).parallel().forEach(i -> {
+                long start = System.nanoTime();
+                paths.set(i, manager.getPath(block.get(i)[0], block.get(i)[1]));
+                latencies[i] = System.nanoTime() - start;
+            })).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while routing", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Routing failed", e.getCause());
+        }
+        for (int i = 0; i < block.size(); i++) {
+            histogram.record(latencies[i]);
+        }
+        routed += block.size();
+        for (int i = 0; i < block.size(); i++) {
+            write(block.get(i)[0], block.get(i)[1], paths.get(i), out);
+        }
+    }
+
+    private void write(String from, String to, List<String> path, Writer out) throws IOException {
+        if (csv) {
+            int miles = TownGraphManager.totalMiles(path);
+            out.write(csvField(from) + "," + csvField(to) + "," + (miles < 0 ? "" : miles) + ","
+                    + csvField(String.join(" | ", path.subList(0, Math.max(0, path.size() - 1)))) + "\n");
+        } else {
+            out.write(from + " to " + to + "\n");
+            if (path.isEmpty()) {
+                out.write("No route\n");
+            }
+            for (String line : path) {
+                out.write(line + "\n");
+            }
+            out.write("\n");
+        }
+    }
+
+    private static String csvField(String value) {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+
+    /**
+     * Summarizes the routes so far
+     * @param elapsedNanos wall time of the whole job
+     * @return the number of routes, routes per second and latency percentiles
+     */
+    String report(long elapsedNanos) {
+        return String.format("%d routes in %.1f ms, %.0f routes/s; latency p50 %s p90 %s p99 %s max %s",
+                routed, elapsedNanos / 1e6, routed / Math.max(elapsedNanos / 1e9, 1e-9),
+                micros(histogram.percentile(50)), micros(histogram.percentile(90)),
+                micros(histogram.percentile(99)), micros(histogram.percentile(100)));
+    }
+
+    private static String micros(long nanos) {
+        return nanos < 0 ? "-" : String.format("%.1f us", nanos / 1e3);
+    }
+
+    /**
+     * Counts of values in buckets of fixed relative width: values below 32 each
+     * have a bucket, and every power of two above is split into 32, so a bucket
+     * is never wider than 1/32 of the values in it. The largest value is kept exactly.
+     */
+    static final class LatencyHistogram {
+
+        private static final int SUB_BITS = 5;
+        private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+        private final long[] counts = new long[(64 - SUB_BITS) * SUB_BUCKETS];
+        private long total;
+        private long max = -1;
+
+        /**
+         * Counts a value
+         * @param value the value, at least 0
+         */
+        void record(long value) {
+            counts[bucket(Math.max(value, 0))]++;
+            total++;
+            max = Math.max(max, value);
+        }
+
+        /**
+         * Returns a percentile of the values counted
+         * @param p the percentile, 0 to 100; 100 is the largest value
+         * @return the middle of the bucket holding the percentile, or -1 if nothing was counted
+         */
+        long percentile(int p) {
+            if (total == 0) {
+                return -1;
+            }
+            if (p >= 100) {
+                return max;
+            }
+            long rank = Math.max(1, (long) Math.ceil(total * p / 100.0));
+            long seen = 0;
+            for (int b = 0; b < counts.length; b++) {
+                seen += counts[b];
+                if (seen >= rank) {
+                    return Math.min(max, lowest(b) + (lowest(b + 1) - lowest(b) - 1) / 2);
+                }
+            }
+            return max;
+        }
+
+        private static int bucket(long value) {
+            if (value < SUB_BUCKETS) {
+                return (int) value;
+            }
+            int exponent = 63 - Long.numberOfLeadingZeros(value);
+            int shift = exponent - SUB_BITS;
+            return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) - SUB_BUCKETS);
+        }
+
+        private static long lowest(int bucket) {
+            if (bucket < SUB_BUCKETS) {
+                return bucket;
+            }
+            int shift = bucket / SUB_BUCKETS - 1;
+            return (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+        }
+    }
+}
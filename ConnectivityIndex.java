@@ -0,0 +1,118 @@
+import java.util.Arrays;
+
+/**
+ * Union-find over the towns of a Graph that tells whether two towns are connected
+ * without searching. Adding towns and roads only merges components, so those are
+ * applied as they happen; removals can split a component, which union-find cannot
+ * undo, so they just mark the index stale and it is rebuilt from the edge store on
+ * the next question.
+ * @author Ha T Dao
+ */
+class ConnectivityIndex {
+
+    /**
+     * Parent of each town in its component's tree; a root is its own parent
+     */
+    private int[] parent = new int[0];
+
+    /**
+     * Number of towns under each root
+     */
+    private int[] size = new int[0];
+
+    /**
+     * Set when a removal may have split a component
+     */
+    private boolean stale;
+
+    /**
+     * Makes every new town index its own component
+     * @param towns number of town indexes in use
+     */
+    synchronized void ensureTowns(int towns) {
+        if (towns > parent.length) {
+            int old = parent.length;
+            int capacity = Math.max(towns, old * 2);
+            parent = Arrays.copyOf(parent, capacity);
+            size = Arrays.copyOf(size, capacity);
+            for (int t = old; t < capacity; t++) {
+                parent[t] = t;
+                size[t] = 1;
+            }
+        }
+    }
+
+    /**
+     * Records a road between two towns
+     * @param a index of one town
+     * @param b index of the other town
+     */
+    synchronized void roadAdded(int a, int b) {
+        if (!stale) {
+            union(a, b);
+        }
+    }
+
+    /**
+     * Records that a road or town was removed
+     */
+    synchronized void removed() {
+        stale = true;
+    }
+
+    /**
+     * Checks whether two towns are in the same component
+     * @param edges the graph's roads, used to rebuild a stale index
+     * @param a index of one town
+     * @param b index of the other town
+     * @return true if a road route joins them
+     */
+    synchronized boolean connected(EdgeStore edges, int a, int b) {
+        if (stale) {
+            rebuild(edges);
+        }
+        return find(a) == find(b);
+    }
+
+    private void rebuild(EdgeStore edges) {
+        for (int t = 0; t < parent.length; t++) {
+            parent[t] = t;
+            size[t] = 1;
+        }
+        for (int e = 0; e < edges.capacity(); e++) {
+            if (edges.isLive(e)) {
+                union(edges.source(e), edges.destination(e));
+            }
+        }
+        stale = false;
+    }
+
+    /**
+     * Returns the root of a town's component, halving the path on the way
+     */
+    private int find(int t) {
+        while (parent[t] != t) {
+            parent[t] = parent[parent[t]];
+            t = parent[t];
+        }
+        return t;
+    }
+
+    /**
+     * Merges two components, hanging the smaller under the larger
+     */
+    private void union(int a, int b) {
+        int ra = find(a);
+        int rb = find(b);
+        if (ra == rb) {
+            return;
+        }
+        if (size[ra] < size[rb]) {
+            int swap = ra;
+            ra = rb;
+            rb = swap;
+        }
+        parent[rb] = ra;
+        size[ra] += size[rb];
+    }
+}
@@ -0,0 +1,192 @@
+import java.util.BitSet;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Parallel single-source shortest path distances by delta-stepping (Meyer and Sanders).
+ * Towns are kept in buckets of width delta by tentative distance. The lowest bucket
+ * is emptied in rounds: all of its towns relax their light roads (at most delta
+ * long) at once, which may refill the bucket, and once it stays empty the towns
+ * settled in it relax their heavy roads. Each round's frontier is split across a
+ * ForkJoinPool, whose work stealing keeps the cores busy on uneven road lists, and
+ * distances are lowered with compare-and-set so no locks are needed.
+ * <p>
+ * Road lengths are small whole miles, so a delta near the mean road length keeps
+ * the buckets full enough to share out while the light roads rarely need relaxing twice.
+ * @author Ha T Dao
+ */
+class DeltaStepping {
+
+    /**
+     * Frontier towns handled by one task before it splits
+     */
+    private static final int SPLIT = 256;
+
+    private final RoutingIndex index;
+    private final int delta;
+    private final ForkJoinPool pool;
+
+    /**
+     * Tentative distance of each town
+     */
+    private final AtomicIntegerArray distance;
+
+    /**
+     * Towns by bucket number; a town may be listed in a bucket it has since left
+     */
+    private final TreeMap<Integer, IntArrayList> buckets = new TreeMap<>();
+
+    /**
+     * Sets up a search
+     * @param index the roads to search
+     * @param delta bucket width in miles, at least 1
+     * @param pool the pool that runs the relaxations
+     */
+    DeltaStepping(RoutingIndex index, int delta, ForkJoinPool pool) {
+        this.index = index;
+        this.delta = delta;
+        this.pool = pool;
+        distance = new AtomicIntegerArray(index.size);
+    }
+
+    /**
+     * Computes the distance from a town to every town
+     * @param index the roads to search
+     * @param source index of the source town
+     * @return the distance to each town by index, ShortestPathTree.UNREACHABLE for
+     * towns that cannot be reached
+     */
+    static int[] distancesFrom(RoutingIndex index, int source) {
+        return new DeltaStepping(index, Math.max(1, index.meanWeight), ForkJoinPool.commonPool()).run(source);
+    }
+
+    /**
+     * Runs the search
+     * @param source index of the source town
+     * @return the distance to each town by index
+     */
+    int[] run(int source) {
+        for (int t = 0; t < index.size; t++) {
+            distance.set(t, ShortestPathTree.UNREACHABLE);
+        }
+        distance.set(source, 0);
+        bucket(0).add(source);
+
+        int[] inFrontier = new int[index.size];
+        int round = 0;
+        BitSet settledHere = new BitSet(index.size);
+        while (!buckets.isEmpty()) {
+            Map.Entry<Integer, IntArrayList> lowest = buckets.pollFirstEntry();
+            int b = lowest.getKey();
+            IntArrayList pending = lowest.getValue();
+            IntArrayList settled = new IntArrayList();
+            while (pending != null) {
+                round++;
+                IntArrayList frontier = new IntArrayList();
+                for (int i = 0; i < pending.size(); i++) {
+                    int t = pending.get(i);
+                    // skip towns that moved to a lower bucket or are listed twice
+                    if (distance.get(t) / delta == b && inFrontier[t] != round) {
+                        inFrontier[t] = round;
+                        frontier.add(t);
+                        if (!settledHere.get(t)) {
+                            settledHere.set(t);
+                            settled.add(t);
+                        }
+                    }
+                }
+                place(pool.invoke(new Relax(frontier, 0, frontier.size(), true)));
+                pending = buckets.remove(b);
+            }
+            place(pool.invoke(new Relax(settled, 0, settled.size(), false)));
+            for (int i = 0; i < settled.size(); i++) {
+                settledHere.clear(settled.get(i));
+            }
+        }
+
+        int[] result = new int[index.size];
+        for (int t = 0; t < result.length; t++) {
+            result[t] = distance.get(t);
+        }
+        return result;
+    }
+
+    /**
+     * Files towns whose distance was lowered under the bucket of their new distance
+     * @param improved the towns
+     */
+    private void place(IntArrayList improved) {
+        for (int i = 0; i < improved.size(); i++) {
+            int t = improved.get(i);
+            bucket(distance.get(t) / delta).add(t);
+        }
+    }
+
+    private IntArrayList bucket(int b) {
+        return buckets.computeIfAbsent(b, k -> new IntArrayList());
+    }
+
+    /**
+     * Lowers a town's tentative distance if the new one is shorter
+     * @return true if this call lowered it
+     */
+    private boolean lower(int town, int dist) {
+        int current;
+        while (dist < (current = distance.get(town))) {
+            if (distance.compareAndSet(town, current, dist)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Relaxes the light or heavy roads of a slice of a frontier, splitting large
+     * slices in two; returns the towns whose distance it lowered
+     */
+    private class Relax extends RecursiveTask<IntArrayList> {
+        private static final long serialVersionUID = 1L;
+
+        private final IntArrayList frontier;
+        private final int from;
+        private final int to;
+        private final boolean light;
+
+        Relax(IntArrayList frontier, int from, int to, boolean light) {
+            this.frontier = frontier;
+            this.from = from;
+            this.to = to;
+            this.light = light;
+        }
+
+        @Override
+        protected IntArrayList compute() {
+            if (to - from > SPLIT) {
+                int middle = (from + to) >>> 1;
+                Relax left = new Relax(frontier, from, middle, light);
+                left.fork();
+                IntArrayList improved = new Relax(frontier, middle, to, light).compute();
+                improved.addAll(left.join());
+                return improved;
+            }
+            IntArrayList improved = new IntArrayList();
+            for (int i = from; i < to; i++) {
+                int t = frontier.get(i);
+                int d = distance.get(t);
+                for (int e = index.firstRoad[t]; e < index.firstRoad[t + 1]; e++) {
+                    int w = index.weight.get(e);
+                    if ((w <= delta) == light) {
+                        int next = index.target.get(e);
+                        if (lower(next, d + w)) {
+                            improved.add(next);
+                        }
+                    }
+                }
+            }
+            return improved;
+        }
+    }
+}
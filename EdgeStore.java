@@ -0,0 +1,425 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+/**
+ * Struct-of-arrays storage for the roads of a Graph, kept outside the Java heap
+ * in direct buffers. Each road is an int id; its columns (towns, a weight per
+ * WeightProfile, name reference, the links that chain it into the road lists of its two towns and
+ * of its name, and which profiles it is the lightest road of its pair of towns in) are ints in a chunk of 16,384 roads, stored column after column.
+ * Chunks are added as roads are added, so nothing is ever copied, and the only heap
+ * data is one list head per town and per road name. Heap usage and garbage
+ * collection work therefore do not grow with the number of roads.
+ * <p>
+ * Removed road ids are chained into a free list and reused. Each id carries a
+ * generation that moves on whenever the id is freed, so a Road view taken before
+ * can tell that its road is gone even once the id holds another road.
+ * @author Ha T Dao
+ */
+class EdgeStore {
+
+    private static final int CHUNK_BITS = 14;
+    static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    // columns
+    private static final int SOURCE = 0;
+    private static final int DESTINATION = 1;
+    private static final int WEIGHT = 2;
+    private static final int NAME = 3;
+    private static final int NEXT_FROM_SOURCE = 4;
+    private static final int NEXT_FROM_DESTINATION = 5;
+    private static final int NEXT_SAME_NAME = 6;
+    private static final int TIME = 7;
+    private static final int TOLL = 8;
+    private static final int GENERATION = 9;
+    private static final int SHADOWED = 10;
+    private static final int COLUMNS = 11;
+
+    /**
+     * Weight column of each profile, by ordinal
+     */
+    private static final int[] PROFILE_COLUMN = {WEIGHT, TIME, TOLL};
+
+    /**
+     * Source value of a road id that is not in use
+     */
+    private static final int FREE = -1;
+
+    private IntBuffer[] chunks = new IntBuffer[0];
+
+    /**
+     * First road of each town's road list, -1 for none
+     */
+    private int[] head = new int[0];
+
+    /**
+     * First road of each name's road list, by name reference
+     */
+    private final IntIntHashMap nameHead = new IntIntHashMap(-1);
+
+    /**
+     * Number of road ids handed out, live or free
+     */
+    private int capacity;
+
+    /**
+     * Number of live roads
+     */
+    private int size;
+
+    /**
+     * First free road id, -1 for none; the free list is chained through NEXT_FROM_SOURCE
+     */
+    private int freeList = -1;
+
+    /**
+     * True while shadow flags are left stale for refreshAllPairs to set at once
+     */
+    private boolean deferShadows;
+
+    /**
+     * Makes room for towns up to a number of town indexes
+     * @param towns number of town indexes in use
+     */
+    void ensureTowns(int towns) {
+        if (towns > head.length) {
+            int old = head.length;
+            head = Arrays.copyOf(head, Math.max(towns, old * 2));
+            Arrays.fill(head, old, head.length, -1);
+        }
+    }
+
+    /**
+     * Adds a road and links it into the road lists of its towns and its name
+     * @return the id of the new road
+     */
+    int add(int source, int destination, int weight, int nameRef) {
+        int e;
+        if (freeList >= 0) {
+            e = freeList;
+            freeList = get(e, NEXT_FROM_SOURCE);
+        } else {
+            if (capacity == chunks.length << CHUNK_BITS) {
+                chunks = Arrays.copyOf(chunks, chunks.length + 1);
+                chunks[chunks.length - 1] = ByteBuffer.allocateDirect(COLUMNS * CHUNK_SIZE * 4)
+                        .order(ByteOrder.nativeOrder()).asIntBuffer();
+            }
+            e = capacity++;
+        }
+        set(e, SOURCE, source);
+        set(e, DESTINATION, destination);
+        set(e, WEIGHT, weight);
+        set(e, TIME, WeightProfile.TIME.initialWeight(weight));
+        set(e, TOLL, WeightProfile.TOLL.initialWeight(weight));
+        set(e, NEXT_FROM_SOURCE, head[source]);
+        head[source] = e;
+        if (destination != source) {
+            set(e, NEXT_FROM_DESTINATION, head[destination]);
+            head[destination] = e;
+        } else {
+            set(e, NEXT_FROM_DESTINATION, -1);
+        }
+        linkName(e, nameRef);
+        size++;
+        refreshPair(source, destination);
+        return e;
+    }
+
+    /**
+     * Takes a road out of the road lists of its towns and its name. Its columns stay
+     * readable until free is called.
+     * @param e id of a live road
+     */
+    void unlink(int e) {
+        unlinkFrom(e, source(e));
+        if (destination(e) != source(e)) {
+            unlinkFrom(e, destination(e));
+        }
+        unlinkName(e);
+        size--;
+        refreshPair(source(e), destination(e));
+    }
+
+    /**
+     * Returns the id of an unlinked road to the free list
+     * @param e id of a road already unlinked
+     */
+    void free(int e) {
+        set(e, SOURCE, FREE);
+        set(e, GENERATION, get(e, GENERATION) + 1);
+        set(e, NEXT_FROM_SOURCE, freeList);
+        freeList = e;
+    }
+
+    /**
+     * Checks whether an id is a road in the store
+     * @param e the id
+     * @return true if the road exists and was not removed
+     */
+    boolean isLive(int e) {
+        return e >= 0 && e < capacity && get(e, SOURCE) != FREE;
+    }
+
+    /**
+     * Returns the generation of a road id, which changes each time the id is freed
+     * @param e the id
+     * @return the generation
+     */
+    int generation(int e) {
+        return get(e, GENERATION);
+    }
+
+    int source(int e) {
+        return get(e, SOURCE);
+    }
+
+    int destination(int e) {
+        return get(e, DESTINATION);
+    }
+
+    int weight(int e) {
+        return get(e, WEIGHT);
+    }
+
+    int nameRef(int e) {
+        return get(e, NAME);
+    }
+
+    void setWeight(int e, int weight) {
+        set(e, WEIGHT, weight);
+        refreshPair(source(e), destination(e), WeightProfile.DISTANCE);
+    }
+
+    /**
+     * Returns a road's weight in a profile
+     * @param e the road
+     * @param profile the profile
+     * @return the weight
+     */
+    int weight(int e, WeightProfile profile) {
+        return get(e, PROFILE_COLUMN[profile.ordinal()]);
+    }
+
+    /**
+     * Sets a road's weight in a profile
+     * @param e the road
+     * @param profile the profile
+     * @param weight the new weight
+     */
+    void setWeight(int e, WeightProfile profile, int weight) {
+        set(e, PROFILE_COLUMN[profile.ordinal()], weight);
+        refreshPair(source(e), destination(e), profile);
+    }
+
+    /**
+     * Checks whether a road is the one searches take between its two towns in a
+     * profile: the lightest, the first added among equally light ones
+     * @param e the road
+     * @param profile the profile
+     * @return false if a parallel road is lighter
+     */
+    boolean isLightest(int e, WeightProfile profile) {
+        return (get(e, SHADOWED) & 1 << profile.ordinal()) == 0;
+    }
+
+    /**
+     * Renames a road, moving it to the road list of its new name
+     */
+    void setNameRef(int e, int nameRef) {
+        unlinkName(e);
+        linkName(e, nameRef);
+    }
+
+    /**
+     * Returns the town at the other end of a road
+     * @param e the road
+     * @param town index of one of its towns
+     * @return index of the other town
+     */
+    int other(int e, int town) {
+        int source = get(e, SOURCE);
+        return source == town ? get(e, DESTINATION) : source;
+    }
+
+    /**
+     * Returns the first road of a town's road list
+     * @param town index of the town
+     * @return a road id, -1 if the town has no roads
+     */
+    int first(int town) {
+        return town < head.length ? head[town] : -1;
+    }
+
+    /**
+     * Returns the road after a road in a town's road list
+     * @param e the current road
+     * @param town index of the town whose list is walked
+     * @return the next road id, -1 at the end of the list
+     */
+    int next(int e, int town) {
+        return get(e, SOURCE) == town ? get(e, NEXT_FROM_SOURCE) : get(e, NEXT_FROM_DESTINATION);
+    }
+
+    /**
+     * Returns the first road with a name
+     * @param nameRef string pool reference of the name
+     * @return a road id, -1 if no road has the name
+     */
+    int firstNamed(int nameRef) {
+        return nameHead.get(nameRef);
+    }
+
+    /**
+     * Returns the next road with the same name
+     * @param e the current road
+     * @return the next road id, -1 at the end
+     */
+    int nextNamed(int e) {
+        return get(e, NEXT_SAME_NAME);
+    }
+
+    /**
+     * Returns the number of live roads
+     * @return the road count
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Returns one more than the highest road id handed out
+     * @return the id range
+     */
+    int capacity() {
+        return capacity;
+    }
+
+    /**
+     * Stops keeping shadow flags up to date road by road, for a bulk load that
+     * ends with refreshAllPairs
+     */
+    void deferShadows() {
+        deferShadows = true;
+    }
+
+    /**
+     * Sets the shadow flags of every road in one pass over the road lists and goes
+     * back to keeping them up to date road by road
+     */
+    void refreshAllPairs() {
+        deferShadows = false;
+        WeightProfile[] profiles = WeightProfile.values();
+        // seenFrom[n] is one more than the last town found next to n, lightest[p][n] the road there
+        int[] seenFrom = new int[head.length];
+        int[][] lightest = new int[profiles.length][head.length];
+        for (int t = 0; t < head.length; t++) {
+            for (int e = head[t]; e >= 0; e = next(e, t)) {
+                int n = other(e, t);
+                if (n < t) {
+                    continue; // done from the lower town
+                }
+                boolean first = seenFrom[n] != t + 1;
+                seenFrom[n] = t + 1;
+                for (WeightProfile p : profiles) {
+                    int column = PROFILE_COLUMN[p.ordinal()];
+                    int[] best = lightest[p.ordinal()];
+                    if (first || get(e, column) <= get(best[n], column)) {
+                        best[n] = e;
+                    }
+                }
+            }
+            for (int e = head[t]; e >= 0; e = next(e, t)) {
+                int n = other(e, t);
+                if (n >= t) {
+                    int shadowed = 0;
+                    for (WeightProfile p : profiles) {
+                        if (lightest[p.ordinal()][n] != e) {
+                            shadowed |= 1 << p.ordinal();
+                        }
+                    }
+                    set(e, SHADOWED, shadowed);
+                }
+            }
+        }
+    }
+
+    private void refreshPair(int a, int b) {
+        for (WeightProfile p : WeightProfile.values()) {
+            refreshPair(a, b, p);
+        }
+    }
+
+    /**
+     * Marks every road between two towns but the lightest in a profile as shadowed,
+     * so searches relax one road per pair without a snapshot to rebuild
+     */
+    private void refreshPair(int a, int b, WeightProfile profile) {
+        if (deferShadows) {
+            return;
+        }
+        int column = PROFILE_COLUMN[profile.ordinal()];
+        int bit = 1 << profile.ordinal();
+        int lightest = -1;
+        for (int e = first(a); e >= 0; e = next(e, a)) {
+            if (other(e, a) == b) {
+                set(e, SHADOWED, get(e, SHADOWED) | bit);
+                if (lightest < 0 || get(e, column) <= get(lightest, column)) {
+                    lightest = e; // lists run newest first, so ties end on the oldest
+                }
+            }
+        }
+        if (lightest >= 0) {
+            set(lightest, SHADOWED, get(lightest, SHADOWED) & ~bit);
+        }
+    }
+
+    private void linkName(int e, int nameRef) {
+        set(e, NAME, nameRef);
+        set(e, NEXT_SAME_NAME, nameHead.put(nameRef, e));
+    }
+
+    private void unlinkName(int e) {
+        int nameRef = nameRef(e);
+        int first = nameHead.get(nameRef);
+        if (first == e) {
+            int next = get(e, NEXT_SAME_NAME);
+            if (next < 0) {
+                nameHead.remove(nameRef);
+            } else {
+                nameHead.put(nameRef, next);
+            }
+        } else {
+            int prev = first;
+            while (get(prev, NEXT_SAME_NAME) != e) {
+                prev = get(prev, NEXT_SAME_NAME);
+            }
+            set(prev, NEXT_SAME_NAME, get(e, NEXT_SAME_NAME));
+        }
+    }
+
+    /**
+     * Removes a road from one town's road list
+     */
+    private void unlinkFrom(int e, int town) {
+        int next = next(e, town);
+        if (head[town] == e) {
+            head[town] = next;
+            return;
+        }
+        int prev = head[town];
+        while (next(prev, town) != e) {
+            prev = next(prev, town);
+        }
+        set(prev, get(prev, SOURCE) == town ? NEXT_FROM_SOURCE : NEXT_FROM_DESTINATION, next);
+    }
+
+    private int get(int e, int column) {
+        return chunks[e >>> CHUNK_BITS].get(column << CHUNK_BITS | (e & CHUNK_MASK));
+    }
+
+    private void set(int e, int column, int value) {
+        chunks[e >>> CHUNK_BITS].put(column << CHUNK_BITS | (e & CHUNK_MASK), value);
+    }
+}
@@ -3,15 +3,20 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 
 import javafx.application.Platform;
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
 import javafx.geometry.Insets;
 import javafx.geometry.Pos;
 import javafx.scene.control.Alert;
 import javafx.scene.control.Button;
 import javafx.scene.control.ComboBox;
 import javafx.scene.control.Label;
+import javafx.scene.control.ListView;
 import javafx.scene.control.TextArea;
 import javafx.scene.control.TextField;
 import javafx.scene.control.Alert.AlertType;
@@ -26,13 +31,22 @@ public class FXMainPane extends VBox {
 	Button addTownButton, addRoadButton, findConnectionButton, readFileButton, exitButton;
 	Button displayTownsButton, displayRoadsButton;
 	TextField addTownTextField, addRoadTextField, specifyDistanceTextField;
-	TextArea findConnectionTextArea, displayTowns, displayRoads;
+	TextArea findConnectionTextArea;
+	ListView<String> displayTowns, displayRoads;
 	ComboBox<String> addSourceTownComboBox, addDestTownComboBox, sourceConnectionComboBox, destConnectionComboBox; 
 	Insets inset, inset2, inset3;
 
 	TownGraphManager graph;
 	private Alert alert = new Alert(AlertType.INFORMATION);
 	
+	//sorted town and road names shared by every list and combo box; kept current with deltas from the manager
+	private ObservableList<String> townNames = FXCollections.observableArrayList();
+	private ObservableList<String> roadNames = FXCollections.observableArrayList();
+	//while a file is being read, deltas are collected here and merged in once
+	private boolean loading;
+	private List<String> pendingTowns = new ArrayList<>();
+	private List<String> pendingRoads = new ArrayList<>();
+	
 	
 	FXMainPane() {
 		//TownGraphManager object
@@ -49,7 +63,7 @@ public class FXMainPane extends VBox {
 		addTownTextField = new TextField();
 		addTownTextField.setPrefColumnCount(10);
 		
-		displayTowns = new TextArea();
+		displayTowns = new ListView<String>();
 		
 		addTownButton = new Button("Add Town");
 		displayTownsButton = new Button("Display Towns");
@@ -93,7 +107,7 @@ public class FXMainPane extends VBox {
 		selectTownsForRoadLabel = new Label("Select Towns the Road Connects");
 		distLabel = new Label("Distance");
 		
-		displayRoads = new TextArea();
+		displayRoads = new ListView<String>();
 
 		//ComboBoxes of all towns
 		addSourceTownComboBox = new ComboBox<String>();
@@ -208,24 +222,39 @@ public class FXMainPane extends VBox {
 
 		getChildren().addAll(addTown, addRoad, findConnectionVBox, bottomHBox);
 		
+		//all four combo boxes render the same list through their (virtualized) popup list cells
+		addSourceTownComboBox.setItems(townNames);
+		addDestTownComboBox.setItems(townNames);
+		sourceConnectionComboBox.setItems(townNames);
+		destConnectionComboBox.setItems(townNames);
+		
+		graph.addTownGraphListener(new TownGraphListener() {
+			@Override
+			public void townAdded(String name) {
+				if (loading) pendingTowns.add(name);
+				else insertSorted(townNames, name);
+			}
+			@Override
+			public void townRemoved(String name) {
+				removeSorted(townNames, name);
+			}
+			@Override
+			public void roadAdded(String roadName) {
+				if (loading) pendingRoads.add(roadName);
+				else insertSorted(roadNames, roadName);
+			}
+			@Override
+			public void roadRemoved(String roadName) {
+				removeSorted(roadNames, roadName);
+			}
+		});
+		
 		//event handling for buttons
 		displayTownsButton.setOnAction(event -> {
-			ArrayList<String> towns = graph.allTowns();
-			String result = "";
-			for(String element : towns)
-			{
-				result += element+"\n";
-			}
-			displayTowns.setText(result);
+			displayTowns.setItems(townNames);
 		});
 		displayRoadsButton.setOnAction(event -> {
-			ArrayList<String> roads = graph.allRoads();
-			String result = "";
-			for(String element : roads)
-			{
-				result += element+"\n";
-			}
-			displayRoads.setText(result);
+			displayRoads.setItems(roadNames);
 		});
 		addRoadButton.setOnAction(event -> {
 			Town town1;
@@ -276,7 +305,6 @@ public class FXMainPane extends VBox {
 				alert.showAndWait();
 			}
 			else if (graph.addTown(townName)){
-				updateComboBoxes();
 				addTownTextField.setText("");
 			}
 			else {
@@ -296,14 +324,14 @@ public class FXMainPane extends VBox {
 				town1 = town2 = null;
 			}
 			findConnectionTextArea.setText("");
-			ArrayList<String> path = graph.getPath(town1.getName(), town2.getName());
 			if (town1.equals(town2)){
 				findConnectionTextArea.appendText("Select two different towns");
 			}
-			else if (path.isEmpty()){
+			else if (!graph.isReachable(town1.getName(), town2.getName())){
 				findConnectionTextArea.appendText("You can't get there from here");
 			}
 			else {
+				ArrayList<String> path = graph.getPath(town1.getName(), town2.getName());
 				for (String s : path){
 					result+=s+"\n";
 					//findConnectionTextArea.appendText(s);
@@ -324,21 +352,38 @@ public class FXMainPane extends VBox {
 		});
 			
 	}
-	//update the ComboBoxes that contain the town names
+	//resynchronize the shared town and road lists with the manager in a single change each
 	public void updateComboBoxes() {
-		ArrayList<String> townList = graph.allTowns();
-		for (String town : townList){
-			addDestTownComboBox.getItems().clear();
-			sourceConnectionComboBox.getItems().clear();
-			destConnectionComboBox.getItems().clear();
-			addSourceTownComboBox.getItems().clear();
+		townNames.setAll(graph.allTowns());
+		roadNames.setAll(graph.allRoads());
+	}
+	
+	//insert a name at its sorted position (binary search) so no re-sort is needed
+	private static void insertSorted(ObservableList<String> list, String name) {
+		int idx = Collections.binarySearch(list, name);
+		list.add(idx < 0 ? -idx - 1 : idx, name);
+	}
+	
+	//remove one occurrence of a name found by binary search
+	private static void removeSorted(ObservableList<String> list, String name) {
+		int idx = Collections.binarySearch(list, name);
+		if (idx >= 0) list.remove(idx);
+	}
+	
+	//merge a batch of new names into a sorted list, firing a single change
+	private static void mergeSorted(ObservableList<String> list, List<String> added) {
+		if (added.isEmpty()) return;
+		Collections.sort(added);
+		ArrayList<String> merged = new ArrayList<>(list.size() + added.size());
+		int i = 0, j = 0;
+		while (i < list.size() || j < added.size()) {
+			if (j == added.size() || (i < list.size() && list.get(i).compareTo(added.get(j)) <= 0))
+				merged.add(list.get(i++));
+			else
+				merged.add(added.get(j++));
 		}
-		for (String town : townList){
-			addDestTownComboBox.getItems().addAll(town);
-			sourceConnectionComboBox.getItems().addAll(town);
-			destConnectionComboBox.getItems().addAll(town);
-			addSourceTownComboBox.getItems().addAll(town); 
-		}	
+		added.clear();
+		list.setAll(merged);
 	}
 	
 	//Select the file to read the Towns and Roads from
@@ -348,9 +393,9 @@ public class FXMainPane extends VBox {
 		try {
 			selectedFile = chooser.showOpenDialog(null);
 			if(selectedFile != null) {
+				loading = true;
 				graph.populateTownGraph(selectedFile);
 				}
-			updateComboBoxes();
 		} catch (FileNotFoundException e) {
 			alert.setTitle("File Error");
 			alert.setHeaderText("File not found");
@@ -361,5 +406,10 @@ public class FXMainPane extends VBox {
 			alert.setHeaderText("Input error");
 			alert.showAndWait();
 		}
+		finally {
+			loading = false;
+			mergeSorted(townNames, pendingTowns);
+			mergeSorted(roadNames, pendingRoads);
+		}
 	}
 }
\ No newline at end of file
@@ -1,57 +1,209 @@
 
+import java.util.AbstractSet;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * This data structure class represents of the graph
- * that represents a map with towns and roads connecting these towns. 
+ * that represents a map with towns and roads connecting these towns.
  * @author Ha T Dao
  */
 public class Graph implements GraphInterface<Town, Road> {
 
-    private Town destination;
-    
-    private int endTown;
+    /**
+     * Most shortest path trees kept at once, least recently used are dropped first
+     */
+    private static final int MAX_CACHED_TREES = 64;
+
+    /**
+     * Mean radius of the earth in miles, for great-circle distances between towns
+     */
+    static final double EARTH_RADIUS_MILES = 3958.8;
+
+    /**
+     * Fewest towns for which routes are found over a RouteOverlay
+     */
+    static final int OVERLAY_MIN_TOWNS = 50_000;
+
     /**
      * Towns in the graph
      */
     private Set<Town> towns = new HashSet<>();
-    
+
+    /**
+     * Read-only view of the towns, returned by vertexSet
+     */
+    private final Set<Town> townView = Collections.unmodifiableSet(towns);
+
+    /**
+     * Index of each town, used to address the arrays below, by the reference of
+     * the town's name in the string pool
+     */
+    private final IntIntHashMap townIds = new IntIntHashMap(-1);
+
+    /**
+     * Towns by index, null where a town was removed
+     */
+    private ArrayList<Town> townsById = new ArrayList<>();
+
+    /**
+     * Names of the towns and roads of the graph
+     */
+    private final StringPool names;
+
+    /**
+     * Roads in the graph, kept off the heap; the Road objects handed out are views of it
+     */
+    private final EdgeStore edges = new EdgeStore();
+
+    /**
+     * Live view of all roads, returned by edgeSet
+     */
+    private final Set<Road> roadView = new AllRoads();
+
+    /**
+     * Which towns are connected, so unreachable pairs are answered without a search
+     */
+    private final ConnectivityIndex components = new ConnectivityIndex();
+
+    /**
+     * Incremented by every change to the graph, so derived data can tell if it is current
+     */
+    private long epoch;
+
+    /**
+     * Compressed snapshot of the roads for bulk searches, rebuilt when the epoch moves on
+     */
+    private RoutingIndex routingIndex;
+
+    /**
+     * Search state reused by the bounded searches of each thread
+     */
+    private final ThreadLocal<SearchWorkspace> workspaces = ThreadLocal.withInitial(SearchWorkspace::new);
+
     /**
-     * Roads in the graph based on the towns
+     * Unit vector of each located town's position, three entries per town index;
+     * NaN for towns whose location is not known
      */
-    private Set<Road> roads = new HashSet<>();
-    
+    private double[] position = new double[0];
+
     /**
-     * List of shortest path from town A to town B
-     */    
-    private ArrayList<String> shortestPath = new ArrayList<>();
-    
-    
+     * Number of towns of the graph with a known location
+     */
+    private int locatedTowns;
+
+    /**
+     * Least weight per great-circle mile over all roads, by profile ordinal, for
+     * the epoch in boundEpoch; 0 where no A* bound can be used
+     */
+    private double[] boundScale;
+    private long boundEpoch = -1;
+
+    /**
+     * The located towns by position
+     */
+    private final SpatialIndex spatialIndex = new SpatialIndex();
+
+    /**
+     * Cells and their tables for routing on large graphs, built when first needed;
+     * dropped whenever a town or road is added or removed
+     */
+    private RouteOverlay overlay;
+
+    /**
+     * Shortest path trees, repaired as roads change; null in unused slots. Also
+     * the lock for the tree fields below.
+     */
+    private final ShortestPathTree[] pathTrees = new ShortestPathTree[MAX_CACHED_TREES];
+
+    /**
+     * Slot in pathTrees of the tree rooted at each town index
+     */
+    private final IntIntHashMap treeSlots = new IntIntHashMap(-1);
+
+    /**
+     * Root town index of the tree in each slot, and when it was last used, so the
+     * least recently used tree is dropped when every slot is taken
+     */
+    private final int[] treeRoots = new int[MAX_CACHED_TREES];
+    private final long[] treeUsed = new long[MAX_CACHED_TREES];
+    private long treeClock;
+
+    /**
+     * Creates an empty graph with a string pool of its own
+     */
+    public Graph() {
+        this(new StringPool());
+    }
+
+    /**
+     * Creates an empty graph keeping its names in a given pool, for GraphBuilder
+     * @param names the pool
+     */
+    Graph(StringPool names) {
+        this.names = names;
+    }
+
     /**
      * Returns an edge connecting source vertex to target vertex if such
      * vertices and such edge exist in this graph. Otherwise returns
-     * null. 
+     * null. Where several roads join the two towns, the shortest is
+     * returned, the first added among equally short ones.
      * @param sourceVertex source vertex of the edge.
      * @param destinationVertex target vertex of the edge.
      * @return an edge connecting source vertex to target vertex.
      */
     @Override
-	public Road getEdge(Town sourceVertex, Town destinationVertex) {
-		if (sourceVertex == null || destinationVertex == null)
-			return null;
+    public Road getEdge(Town sourceVertex, Town destinationVertex) {
+        if (sourceVertex == null || destinationVertex == null)
+            return null;
 
-		if (!containsVertex(sourceVertex) || !containsVertex(destinationVertex))
-			return null;
+        int source = townId(sourceVertex);
+        int dest = townId(destinationVertex);
+        if (source < 0 || dest < 0)
+            return null;
 
-		for (Road r : edgesOf(sourceVertex)) {
-			if (r.getDestination().equals(destinationVertex))
-				return r;
-		} // look through adjacent vertices
+        for (int e = edges.first(source); e >= 0; e = edges.next(e, source)) {
+            if (edges.other(e, source) == dest && edges.isLightest(e, WeightProfile.DISTANCE))
+                return new Road(this, e);
+        } // look through adjacent vertices
 
-		return null;
-	}//getEdge
+        return null;
+    }//getEdge
+
+    /**
+     * Streams every road joining two towns, in either direction; real road maps
+     * often have several, such as a highway and a local road.
+     * @param sourceVertex one town
+     * @param destinationVertex the other town
+     * @return the roads between them, none if either town is not in the graph
+     * @throws NullPointerException if either town is null
+     */
+    public Stream<Road> roadsBetween(Town sourceVertex, Town destinationVertex) {
+        if (sourceVertex == null || destinationVertex == null) {
+            throw new NullPointerException();
+        }
+        int source = townId(sourceVertex);
+        int dest = townId(destinationVertex);
+        if (source < 0 || dest < 0) {
+            return Stream.empty();
+        }
+        return roadsOf(sourceVertex).filter(r -> edges.other(r.edge, source) == dest);
+    }
 
     /**
 	 * Add a road between two existing towns in the graph.
@@ -63,21 +215,31 @@ public class Graph implements GraphInterface<Town, Road> {
 	 * @throws IllegalArgumentException if either town does not exist in the graph
      */
     @Override
-    public Road addEdge(Town sourceVertex, Town destinationVertex, 
+    public Road addEdge(Town sourceVertex, Town destinationVertex,
             int weight, String description) {
-        
+
         if (sourceVertex == null || destinationVertex == null) {
             throw new NullPointerException();
         }
-        
-        if (!towns.contains(sourceVertex) || !towns.contains(destinationVertex)) { 
+
+        int source = townId(sourceVertex);
+        int dest = townId(destinationVertex);
+        if (source < 0 || dest < 0) {
             throw new IllegalArgumentException();
         }
-        
-        Road road = new Road(sourceVertex, destinationVertex, weight, description);
-        roads.add(road);
-        
-        return road;
+
+        int nameRef = description == null ? -1 : names.intern(description);
+        int road = edges.add(source, dest, weight, nameRef);
+        components.roadAdded(source, dest);
+        epoch++;
+        overlay = null;
+        for (ShortestPathTree tree : pathTrees) {
+            if (tree != null) {
+                tree.roadShortened(this, road);
+            }
+        }
+
+        return new Road(this, road);
     }
 
     /**
@@ -87,19 +249,82 @@ public class Graph implements GraphInterface<Town, Road> {
 	 */
     @Override
     public boolean addVertex(Town t) {
-        
+
         if (t == null) {
             throw new NullPointerException();
         }
-        
+
         if (!towns.contains(t)) {
+            // the graph keeps its own copy, with the name in the string pool
+            t = t.pooled(names);
             towns.add(t);
+            townIds.put(t.nameRefIn(names), townsById.size());
+            townsById.add(t);
+            edges.ensureTowns(townsById.size());
+            components.ensureTowns(townsById.size());
+            place(townsById.size() - 1, t);
+            if (t.hasLocation()) {
+                spatialIndex.add(townsById.size() - 1, t.getLatitude(), t.getLongitude());
+            }
+            epoch++;
+            overlay = null;
             return true;
         }
-        
+
         return false;
     }
 
+    /**
+     * Sets or moves the location of a town of the graph. Routes are the same
+     * either way, but once every town is located they are found with A*.
+     * @param t the town
+     * @param latitude degrees north, -90 to 90
+     * @param longitude degrees east, -180 to 180
+     * @return true if the town is in the graph
+     * @throws IllegalArgumentException if the location is out of range
+     */
+    public boolean setLocation(Town t, double latitude, double longitude) {
+        int id = townId(t);
+        if (id < 0) {
+            return false;
+        }
+        Town located = new Town(townsById.get(id).getName(), latitude, longitude).pooled(names);
+        // an equal key would not be replaced, so take the old town out first
+        towns.remove(located);
+        towns.add(located);
+        townsById.set(id, located);
+        place(id, located);
+        spatialIndex.add(id, latitude, longitude);
+        epoch++;
+        return true;
+    }
+
+    /**
+     * Finds the located town nearest a point, by great-circle distance
+     * @param latitude degrees north
+     * @param longitude degrees east
+     * @return the town, null if no town of the graph has a location
+     */
+    public Town nearestTown(double latitude, double longitude) {
+        int id = spatialIndex.nearest(latitude, longitude);
+        return id < 0 ? null : townsById.get(id);
+    }
+
+    /**
+     * Finds the located towns inside a latitude/longitude box, edges included. A
+     * box whose west edge is east of its east edge crosses the 180th meridian.
+     * @param south least latitude
+     * @param west least longitude
+     * @param north greatest latitude
+     * @param east greatest longitude
+     * @return the towns, in no particular order
+     */
+    public ArrayList<Town> townsInBox(double south, double west, double north, double east) {
+        ArrayList<Town> found = new ArrayList<>();
+        spatialIndex.inBox(south, west, north, east, id -> found.add(townsById.get(id)));
+        return found;
+    }
+
     /**
 	 * Check if a road exists between two towns.
 	 * @param sourceVertex the source town
@@ -108,12 +333,7 @@ public class Graph implements GraphInterface<Town, Road> {
 	 */
     @Override
     public boolean containsEdge(Town sourceVertex, Town destinationVertex) {
-        for (Road r : roads) {
-            if (r.contains(sourceVertex) && r.contains(destinationVertex)) {
-                return true;
-            }
-        }
-        return false;
+        return getEdge(sourceVertex, destinationVertex) != null;
     }
 
     /**
@@ -128,11 +348,11 @@ public class Graph implements GraphInterface<Town, Road> {
 
     /**
 	 * Return the set of roads in the graph.
-	 * @return roads
+	 * @return roads, a live view backed by the graph
 	 */
     @Override
     public Set<Road> edgeSet() {
-        return roads;
+        return roadView;
     }
 
     /**
@@ -143,178 +363,1055 @@ public class Graph implements GraphInterface<Town, Road> {
      */
     @Override
     public Set<Road> edgesOf(Town vertex) {
-        Set<Road> edges = new HashSet<>();
-        for (Road r : roads) {
-            if (r.contains(vertex)) {
-                edges.add(r);
+        if (vertex == null) {
+            throw new NullPointerException();
+        }
+        int id = townId(vertex);
+        if (id < 0) {
+            return new HashSet<>();
+        }
+        int[] ids = new int[8];
+        int count = 0;
+        for (int e = edges.first(id); e >= 0; e = edges.next(e, id)) {
+            if (count == ids.length) {
+                ids = Arrays.copyOf(ids, count * 2);
             }
+            ids[count++] = e;
         }
-        return edges;
+        return new RoadSnapshot(Arrays.copyOf(ids, count));
     }
 
     @Override
-    public Road removeEdge(Town sourceVertex, Town destinationVertex, 
+    public Road removeEdge(Town sourceVertex, Town destinationVertex,
             int weight, String description) {
-        
+
         if (sourceVertex == null || destinationVertex == null || description == null) {
             throw new NullPointerException();
         }
-        
-        if (!towns.contains(sourceVertex) || !towns.contains(destinationVertex)) { 
+
+        int source = townId(sourceVertex);
+        int dest = townId(destinationVertex);
+        if (source < 0 || dest < 0) {
             throw new IllegalArgumentException();
         }
-        
-        Road road = null;
-        for (Road r : roads) {
-            if (r.contains(sourceVertex) && r.contains(destinationVertex) &&
-                    r.getWeight() == weight && r.getName().equals(description)) {
-                road = r;
+
+        int nameRef = names.find(description);
+        if (nameRef < 0) {
+            return null; // no road has ever had this name
+        }
+        int road = -1;
+        for (int e = edges.first(source); e >= 0; e = edges.next(e, source)) {
+            if (edges.other(e, source) == dest &&
+                    edges.weight(e) == weight && edges.nameRef(e) == nameRef) {
+                road = e;
+            }
+        }
+        return road < 0 ? null : remove(road);
+    }
+
+    /**
+     * Removes a road of the graph, named or not
+     * @param road a view handed out by this graph, or a road equal to one of its roads
+     * @return the removed road, or null if the graph has no such road
+     */
+    Road removeEdge(Road road) {
+        int e = edgeOf(road);
+        return e < 0 ? null : remove(e);
+    }
+
+    /**
+     * Unlinks a road and frees its id
+     * @param road the road id
+     * @return the road, detached from the graph
+     */
+    private Road remove(int road) {
+        // the road is handed back detached from the graph, as a plain copy
+        Road removed = new Road(new Road(this, road));
+        edges.unlink(road);
+        components.removed();
+        epoch++;
+        overlay = null;
+        for (ShortestPathTree tree : pathTrees) {
+            if (tree != null) {
+                tree.roadLengthened(this, road);
             }
         }
-        return roads.remove(road) ? road : null;
+        edges.free(road);
+        return removed;
     }
 
     @Override
     public boolean removeVertex(Town t) {
-        return towns.remove(t);
+        int id = townId(t);
+        if (id < 0) {
+            return false;
+        }
+        townIds.remove(t.nameRefIn(names));
+        for (int e = edges.first(id); e >= 0; e = edges.first(id)) {
+            edges.unlink(e);
+            edges.free(e);
+        }
+        components.removed();
+        towns.remove(t);
+        townsById.set(id, null);
+        place(id, null);
+        spatialIndex.remove(id);
+        epoch++;
+        overlay = null;
+        clearPathTrees();
+        return true;
     }
 
     @Override
     public Set<Town> vertexSet() {
-        return towns;
+        return townView;
+    }
+
+    /**
+     * Streams the towns straight from the town index, without copying them. The
+     * stream splits evenly for parallel use; it is lazy, so the graph must not
+     * change until it is consumed.
+     * @return the towns of the graph
+     */
+    public Stream<Town> towns() {
+        return StreamSupport.stream(townSpliterator(), false);
+    }
+
+    /**
+     * Streams the roads straight from the edge store, one view per road, without
+     * copying them. Parallel streams split on whole storage chunks; the stream is
+     * lazy, so the graph must not change until it is consumed.
+     * @return the roads of the graph
+     */
+    public Stream<Road> roads() {
+        return StreamSupport.stream(roadSpliterator(), false);
+    }
+
+    /**
+     * Streams the roads of a town by walking its adjacency list, without building
+     * a set of them. The stream is lazy, so the graph must not change until it is
+     * consumed.
+     * @param vertex the town
+     * @return the roads leading out of it, none if the town is not in the graph
+     * @throws NullPointerException if vertex is null
+     */
+    public Stream<Road> roadsOf(Town vertex) {
+        if (vertex == null) {
+            throw new NullPointerException();
+        }
+        int id = townId(vertex);
+        if (id < 0) {
+            return Stream.empty();
+        }
+        int town = id;
+        Spliterator<Road> roads = new Spliterators.AbstractSpliterator<Road>(Long.MAX_VALUE,
+                Spliterator.NONNULL | Spliterator.DISTINCT) {
+            private int next = edges.first(town);
+
+            @Override
+            public boolean tryAdvance(Consumer<? super Road> action) {
+                if (next < 0) {
+                    return false;
+                }
+                action.accept(new Road(Graph.this, next));
+                next = edges.next(next, town);
+                return true;
+            }
+        };
+        return StreamSupport.stream(roads, false);
+    }
+
+    private Spliterator<Town> townSpliterator() {
+        return new IdRangeSpliterator<>(t -> townsById.get(t) != null, townsById::get,
+                0, townsById.size(), 1, towns.size() == townsById.size());
+    }
+
+    private Spliterator<Road> roadSpliterator() {
+        return new IdRangeSpliterator<>(edges::isLive, e -> new Road(this, e),
+                0, edges.capacity(), EdgeStore.CHUNK_SIZE, edges.size() == edges.capacity());
+    }
+
+    /**
+     * Changes the weight of a road in the graph and repairs the cached shortest
+     * path trees incrementally: a shorter road only touches the towns it now
+     * brings closer, a longer one only the subtree that used to hang below it.
+     * @param road a road of this graph
+     * @param newWeight the new length of the road in miles
+     * @throws IllegalArgumentException if the road is not in the graph or the weight is negative
+     */
+    public void updateWeight(Road road, int newWeight) {
+        if (road == null) {
+            throw new NullPointerException();
+        }
+        int e = edgeOf(road);
+        if (e < 0 || newWeight < 0) {
+            throw new IllegalArgumentException();
+        }
+        int oldWeight = edges.weight(e);
+        edges.setWeight(e, newWeight);
+        epoch++;
+        weightChanged(e, WeightProfile.DISTANCE);
+        for (ShortestPathTree tree : pathTrees) {
+            if (tree == null) {
+                continue;
+            }
+            if (newWeight < oldWeight) {
+                tree.roadShortened(this, e);
+            } else if (newWeight > oldWeight) {
+                tree.roadLengthened(this, e);
+            }
+        }
+    }
+
+    /**
+     * Changes the weights of many roads as one update: all weights are checked
+     * before any is changed, the graph moves to a single new epoch, and the
+     * cached shortest path trees are dropped once instead of being repaired road by road.
+     * @param changes the new weight of each road
+     * @throws IllegalArgumentException if a road is not in the graph or a weight is negative
+     */
+    public void updateWeights(Map<Road, Integer> changes) {
+        int[] ids = new int[changes.size()];
+        int[] weights = new int[changes.size()];
+        int i = 0;
+        for (Map.Entry<Road, Integer> change : changes.entrySet()) {
+            ids[i] = edgeOf(change.getKey());
+            weights[i] = change.getValue();
+            if (ids[i] < 0 || weights[i] < 0) {
+                throw new IllegalArgumentException();
+            }
+            i++;
+        }
+        for (i = 0; i < ids.length; i++) {
+            edges.setWeight(ids[i], weights[i]);
+            weightChanged(ids[i], WeightProfile.DISTANCE);
+        }
+        epoch++;
+        clearPathTrees();
+    }
+
+    /**
+     * Changes the weight of a road in one profile. Distance changes repair the
+     * cached shortest path trees as updateWeight(Road, int) does; the trees only
+     * follow distance, so other profiles just move the graph to a new epoch.
+     * @param road a road of this graph
+     * @param profile the profile to change
+     * @param newWeight the road's new weight in that profile
+     * @throws IllegalArgumentException if the road is not in the graph or the weight is negative
+     */
+    public void updateWeight(Road road, WeightProfile profile, int newWeight) {
+        if (profile == WeightProfile.DISTANCE) {
+            updateWeight(road, newWeight);
+            return;
+        }
+        if (road == null) {
+            throw new NullPointerException();
+        }
+        int e = edgeOf(road);
+        if (e < 0 || newWeight < 0) {
+            throw new IllegalArgumentException();
+        }
+        edges.setWeight(e, profile, newWeight);
+        epoch++;
+        weightChanged(e, profile);
+    }
+
+    /**
+     * Changes the weights of many roads in one profile as one update, checking
+     * them all before any is changed
+     * @param changes the new weight of each road
+     * @param profile the profile to change
+     * @throws IllegalArgumentException if a road is not in the graph or a weight is negative
+     */
+    public void updateWeights(Map<Road, Integer> changes, WeightProfile profile) {
+        if (profile == WeightProfile.DISTANCE) {
+            updateWeights(changes);
+            return;
+        }
+        int[] ids = new int[changes.size()];
+        int[] weights = new int[changes.size()];
+        int i = 0;
+        for (Map.Entry<Road, Integer> change : changes.entrySet()) {
+            ids[i] = edgeOf(change.getKey());
+            weights[i] = change.getValue();
+            if (ids[i] < 0 || weights[i] < 0) {
+                throw new IllegalArgumentException();
+            }
+            i++;
+        }
+        for (i = 0; i < ids.length; i++) {
+            edges.setWeight(ids[i], profile, weights[i]);
+            weightChanged(ids[i], profile);
+        }
+        epoch++;
+    }
+
+    /**
+     * Returns the roads with a given name
+     * @param name the road name
+     * @return the roads, empty if there is none
+     */
+    public List<Road> roadsNamed(String name) {
+        ArrayList<Road> named = new ArrayList<>();
+        int nameRef = names.find(name);
+        if (nameRef >= 0) {
+            for (int e = edges.firstNamed(nameRef); e >= 0; e = edges.nextNamed(e)) {
+                named.add(new Road(this, e));
+            }
+        }
+        return named;
+    }
+
+    /**
+     * Returns the current epoch, which changes whenever the graph changes
+     * @return the epoch
+     */
+    public long getEpoch() {
+        return epoch;
     }
 
     /**
 	 * Gets the shortest path between two points by calculating the shortest path to all point from
-	 * the source vertex using dijstrka's algorithm.
+	 * the source vertex using dijstrka's algorithm. Once every town has a location the
+	 * search is A*, guided by great-circle distance to the destination.
 	 * @param sourceVertex the source of the path
 	 * @param destinationVertex the end of the path
-	 * @return history the traversal order of towns in arraylist form
+	 * @return history the traversal order of towns in arraylist form, empty if
+	 * there is no path between the towns
 	 */
     @Override
     public ArrayList<String> shortestPath(Town sourceVertex, Town destinationVertex) {
-        destination = destinationVertex;
-        dijkstraShortestPath(sourceVertex);
-        String shortPath = "";
+        ArrayList<String> shortestPath = new ArrayList<>();
+        int source = townId(sourceVertex);
+        int dest = townId(destinationVertex);
+        if (source < 0 || dest < 0 || !components.connected(edges, source, dest)) {
+            return shortestPath;
+        }
+        int[] path = route(source, dest);
+        if (path == null) {
+            return shortestPath;
+        }
+        return describe(source, path);
+    }
+
+    /**
+     * Gets the path between two towns with the least total weight in a profile.
+     * All profiles route over the same towns and roads; only the weight added up
+     * differs, and the lines still give each road's length in miles.
+     * @param sourceVertex the source of the path
+     * @param destinationVertex the end of the path
+     * @param profile what the path minimizes
+     * @return the path in the format of shortestPath(Town, Town), empty if there
+     * is no path between the towns
+     */
+    public ArrayList<String> shortestPath(Town sourceVertex, Town destinationVertex, WeightProfile profile) {
+        if (profile == WeightProfile.DISTANCE) {
+            return shortestPath(sourceVertex, destinationVertex);
+        }
+        int source = townId(sourceVertex);
+        int dest = townId(destinationVertex);
+        if (source < 0 || dest < 0 || !components.connected(edges, source, dest)) {
+            return new ArrayList<>();
+        }
+        int[] path = route(source, dest, profile);
+        if (path == null) {
+            return new ArrayList<>();
+        }
+        return describe(source, path);
+    }
+
+    /**
+     * Checks whether a route joins two towns, without searching for it. The
+     * connectivity index follows added roads as they come and is rebuilt once after
+     * removals, so the answer usually costs a few array lookups.
+     * @param sourceVertex one town
+     * @param destinationVertex the other town
+     * @return true if both towns are in the graph and connected by roads
+     */
+    public boolean isReachable(Town sourceVertex, Town destinationVertex) {
+        int source = townId(sourceVertex);
+        int dest = townId(destinationVertex);
+        return source >= 0 && dest >= 0 && components.connected(edges, source, dest);
+    }
+
+    /**
+     * Finds up to k shortest loopless paths between two towns with Yen's algorithm,
+     * shortest first. The shortest path tree of the destination is shared by all the
+     * spur searches, which use it as an exact A* estimate or skip the search entirely
+     * when the tree route is still open.
+     * @param sourceVertex the source of the paths
+     * @param destinationVertex the end of the paths
+     * @param k the number of paths wanted
+     * @return each path in the format of shortestPath; fewer than k if there are not
+     * that many, empty if the towns are not connected
+     * @throws IllegalArgumentException if k is less than 1
+     */
+    public ArrayList<ArrayList<String>> kShortestPaths(Town sourceVertex, Town destinationVertex, int k) {
+        if (k < 1) {
+            throw new IllegalArgumentException();
+        }
+        ArrayList<ArrayList<String>> paths = new ArrayList<>();
+        int source = townId(sourceVertex);
+        int dest = townId(destinationVertex);
+        if (source < 0 || dest < 0 || !components.connected(edges, source, dest)) {
+            return paths;
+        }
+        KShortestPaths yen = new KShortestPaths(this, source, dest, k, pathTree(dest));
+        for (int[] path : yen.run()) {
+            paths.add(describe(source, path));
+        }
+        return paths;
+    }
+
+    /**
+     * Computes the road distance from every source town to every target town.
+     * Each source is one Dijkstra search over the compressed routing index that stops
+     * once all targets are settled; the searches run in parallel on all cores and no
+     * path is ever written out.
+     * @param sources the towns to measure from
+     * @param targets the towns to measure to
+     * @return distances, [source][target]; Integer.MAX_VALUE where there is no path
+     * @throws IllegalArgumentException if a town is not in the graph
+     */
+    public int[][] distanceMatrix(List<Town> sources, List<Town> targets) {
+        return distanceMatrix(sources, targets, WeightProfile.DISTANCE);
+    }
+
+    /**
+     * Computes the least total weight in a profile from every source town to every
+     * target town, as distanceMatrix(List, List) does for distance
+     * @param sources the towns to measure from
+     * @param targets the towns to measure to
+     * @param profile the weights to add up
+     * @return total weights, [source][target]; Integer.MAX_VALUE where there is no path
+     * @throws IllegalArgumentException if a town is not in the graph
+     */
+    public int[][] distanceMatrix(List<Town> sources, List<Town> targets, WeightProfile profile) {
+        int[] sourceIds = RoutingIndex.idsOf(this, sources);
+        int[] targetIds = RoutingIndex.idsOf(this, targets);
+        RoutingIndex index = routingIndex();
+        int[][] matrix = new int[sourceIds.length][];
+        IntStream.range(0, sourceIds.length).parallel()
+                .forEach(i -> matrix[i] = index.distancesTo(sourceIds[i], targetIds, profile, workspaces.get()));
+        return matrix;
+    }
+
+    /**
+     * Computes the road distance from a town to every town it can reach, using
+     * parallel delta-stepping over the routing index on the common fork/join pool.
+     * For one-to-all questions such as coverage reports on large graphs; no paths
+     * are kept.
+     * @param sourceVertex the town to measure from
+     * @return the distance to each reachable town, including the source itself at 0;
+     * empty if the source is not in the graph
+     */
+    public Map<Town, Integer> distancesFrom(Town sourceVertex) {
+        Map<Town, Integer> distances = new HashMap<>();
+        int source = townId(sourceVertex);
+        if (source < 0) {
+            return distances;
+        }
+        int[] distance = DeltaStepping.distancesFrom(routingIndex(), source);
+        for (int t = 0; t < distance.length; t++) {
+            if (distance[t] != ShortestPathTree.UNREACHABLE && townsById.get(t) != null) {
+                distances.put(townsById.get(t), distance[t]);
+            }
+        }
+        return distances;
+    }
+
+    /**
+     * Finds the towns within a road distance of a town, closest first. The search
+     * stops at the radius, so it only touches the towns around the source.
+     * @param sourceVertex the town to measure from
+     * @param maxMiles the largest distance to include
+     * @return the towns other than the source within maxMiles, closest first
+     */
+    public ArrayList<Town> townsWithin(Town sourceVertex, int maxMiles) {
+        return boundedSearch(sourceVertex, maxMiles, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Finds the k towns closest to a town by road. The search stops once the k-th
+     * town is settled, so it only touches the towns around the source.
+     * @param sourceVertex the town to measure from
+     * @param k the number of towns wanted
+     * @return up to k towns other than the source, closest first
+     * @throws IllegalArgumentException if k is negative
+     */
+    public ArrayList<Town> nearestTowns(Town sourceVertex, int k) {
+        if (k < 0) {
+            throw new IllegalArgumentException();
+        }
+        return boundedSearch(sourceVertex, Integer.MAX_VALUE - 1, k);
+    }
+
+    /**
+     * Dijkstra's algorithm from a town that stops at a radius or after a number of towns
+     * @param sourceVertex the town to search from
+     * @param maxMiles distance beyond which towns are not explored
+     * @param limit most towns to return
+     * @return the settled towns other than the source, closest first
+     */
+    private ArrayList<Town> boundedSearch(Town sourceVertex, int maxMiles, int limit) {
+        ArrayList<Town> found = new ArrayList<>();
+        int source = townId(sourceVertex);
+        if (source < 0 || maxMiles < 0) {
+            return found;
+        }
+        SearchWorkspace ws = workspaces.get();
+        ws.begin(townsById.size());
+        ws.offer(source, 0, -1);
+        for (int at = ws.poll(); at >= 0 && found.size() < limit; at = ws.poll()) {
+            if (at != source) {
+                found.add(townsById.get(at));
+                if (found.size() == limit) {
+                    break;
+                }
+            }
+            int dist = ws.distance(at);
+            for (int e = edges.first(at); e >= 0; e = edges.next(e, at)) {
+                long candidate = (long) dist + edges.weight(e);
+                if (candidate <= maxMiles && edges.isLightest(e, WeightProfile.DISTANCE)) {
+                    ws.offer(edges.other(e, at), (int) candidate, e);
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Finds the roads of the shortest path between two towns
+     * @param sourceVertex the source of the path
+     * @param destinationVertex the end of the path
+     * @return the road ids in travel order, or null if there is no path
+     */
+    int[] shortestRoute(Town sourceVertex, Town destinationVertex) {
+        int source = townId(sourceVertex);
+        int dest = townId(destinationVertex);
+        if (source < 0 || dest < 0 || !components.connected(edges, source, dest)) {
+            return null;
+        }
+        return route(source, dest);
+    }
+
+    /**
+     * Finds the roads of the shortest path between two towns. A cached tree rooted
+     * at the source answers directly; otherwise a search runs in this thread's
+     * workspace and stops at the destination, so the only allocation is the
+     * returned path.
+     * @param source index of the first town
+     * @param dest index of the last town
+     * @return the road ids in travel order, or null if there is no path
+     */
+    private int[] route(int source, int dest) {
+        ShortestPathTree tree;
+        synchronized (pathTrees) {
+            int slot = treeSlots.get(source);
+            tree = slot < 0 ? null : pathTrees[slot];
+        }
+        if (tree != null) {
+            return tree.pathTo(this, dest);
+        }
+        return route(source, dest, WeightProfile.DISTANCE);
+    }
+
+    /**
+     * Finds the roads of the path with the least total weight in a profile: over
+     * the route overlay on large graphs, otherwise in this thread's workspace,
+     * stopping at the destination, with A* once every town is located and with
+     * Dijkstra's algorithm before that. Of parallel roads only the lightest in the
+     * profile is followed.
+     * @param source index of the first town
+     * @param dest index of the last town
+     * @param profile the weights to add up
+     * @return the road ids in travel order, or null if there is no path
+     */
+    private int[] route(int source, int dest, WeightProfile profile) {
+        RouteOverlay cells = overlay();
+        if (cells != null) {
+            return cells.route(source, dest, profile);
+        }
+        double scale = boundScale(profile);
+        if (scale > 0) {
+            return aStarRoute(source, dest, profile, scale);
+        }
+        SearchWorkspace ws = workspaces.get();
+        ws.begin(townsById.size());
+        ws.offer(source, 0, -1);
+        for (int at = ws.poll(); at >= 0; at = ws.poll()) {
+            if (at == dest) {
+                return ws.pathTo(edges, dest);
+            }
+            int dist = ws.distance(at);
+            for (int e = edges.first(at); e >= 0; e = edges.next(e, at)) {
+                if (edges.isLightest(e, profile)) {
+                    ws.offer(edges.other(e, at), dist + edges.weight(e, profile), e);
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * A* search for the path with the least total weight in a profile. A town is
+     * queued by its weight so far plus scale times its great-circle distance to
+     * the destination, a bound no road route can beat, so the search settles the
+     * corridor towards the destination instead of a circle around the source.
+     * @param source index of the first town
+     * @param dest index of the last town
+     * @param profile the weights to add up
+     * @param scale least weight per great-circle mile of any road in the profile
+     * @return the road ids in travel order, or null if there is no path
+     */
+    private int[] aStarRoute(int source, int dest, WeightProfile profile, double scale) {
+        SearchWorkspace ws = workspaces.get();
+        ws.begin(townsById.size());
+        ws.offer(source, 0, lowerBound(source, dest, scale), -1);
+        for (int at = ws.poll(); at >= 0; at = ws.poll()) {
+            if (at == dest) {
+                return ws.pathTo(edges, dest);
+            }
+            int dist = ws.distance(at);
+            for (int e = edges.first(at); e >= 0; e = edges.next(e, at)) {
+                if (!edges.isLightest(e, profile)) {
+                    continue;
+                }
+                int next = edges.other(e, at);
+                int candidate = dist + edges.weight(e, profile);
+                if (candidate < ws.distance(next)) {
+                    ws.offer(next, candidate, (long) candidate + lowerBound(next, dest, scale), e);
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns a lower bound on the weight of any route between two located towns
+     */
+    private int lowerBound(int from, int to, double scale) {
+        return (int) (scale * greatCircleMiles(from, to));
+    }
+
+    /**
+     * Returns the great-circle distance between two located towns
+     * @param a index of one town
+     * @param b index of the other town
+     * @return the distance in miles, NaN if a town has no location
+     */
+    double greatCircleMiles(int a, int b) {
+        double dx = position[3 * a] - position[3 * b];
+        double dy = position[3 * a + 1] - position[3 * b + 1];
+        double dz = position[3 * a + 2] - position[3 * b + 2];
+        double chord = Math.sqrt(dx * dx + dy * dy + dz * dz);
+        return 2 * EARTH_RADIUS_MILES * Math.asin(Math.min(1, chord / 2));
+    }
+
+    /**
+     * Returns the scale that turns great-circle miles into a lower bound on weight
+     * in a profile: the least weight per great-circle mile of any road. Worked out
+     * once per epoch; 0, meaning plain Dijkstra, unless every town is located.
+     * @param profile the profile
+     * @return the scale, 0 if no bound can be used
+     */
+    private synchronized double boundScale(WeightProfile profile) {
+        if (boundEpoch != epoch) {
+            WeightProfile[] profiles = WeightProfile.values();
+            boundScale = new double[profiles.length];
+            if (locatedTowns > 0 && locatedTowns == towns.size()) {
+                Arrays.fill(boundScale, Double.POSITIVE_INFINITY);
+                for (int e = 0; e < edges.capacity(); e++) {
+                    if (!edges.isLive(e)) {
+                        continue;
+                    }
+                    double miles = greatCircleMiles(edges.source(e), edges.destination(e));
+                    if (miles > 0) {
+                        for (WeightProfile p : profiles) {
+                            boundScale[p.ordinal()] = Math.min(boundScale[p.ordinal()], edges.weight(e, p) / miles);
+                        }
+                    }
+                }
+                for (int p = 0; p < boundScale.length; p++) {
+                    // a little under the least ratio, so rounding never makes the bound too high
+                    boundScale[p] = Double.isInfinite(boundScale[p]) ? 0 : boundScale[p] * (1 - 1e-9);
+                }
+            }
+            boundEpoch = epoch;
+        }
+        return boundScale[profile.ordinal()];
+    }
+
+    /**
+     * Records the position of a town index, or clears it
+     * @param id index of the town
+     * @param t the town now at that index, null if it was removed
+     */
+    private void place(int id, Town t) {
+        if (position.length < 3 * (id + 1)) {
+            int old = position.length;
+            position = Arrays.copyOf(position, Math.max(3 * (id + 1), old * 2));
+            Arrays.fill(position, old, position.length, Double.NaN);
+        }
+        boolean wasLocated = !Double.isNaN(position[3 * id]);
+        if (t != null && t.hasLocation()) {
+            double lat = Math.toRadians(t.getLatitude());
+            double lon = Math.toRadians(t.getLongitude());
+            position[3 * id] = Math.cos(lat) * Math.cos(lon);
+            position[3 * id + 1] = Math.cos(lat) * Math.sin(lon);
+            position[3 * id + 2] = Math.sin(lat);
+            if (!wasLocated) {
+                locatedTowns++;
+            }
+        } else {
+            position[3 * id] = position[3 * id + 1] = position[3 * id + 2] = Double.NaN;
+            if (wasLocated) {
+                locatedTowns--;
+            }
+        }
+    }
+
+    /**
+     * Writes out a path in the format of shortestPath
+     * @param start the town the path starts at
+     * @param path the road ids of the path in travel order, null for no path
+     * @return the path description, empty if there is no path
+     */
+    ArrayList<String> describe(Town start, int[] path) {
+        int source = townId(start);
+        if (path == null || source < 0) {
+            return new ArrayList<>();
+        }
+        return describe(source, path);
+    }
+
+    /**
+     * Writes out a path one road per line followed by its total length
+     * @param source index of the town the path starts at
+     * @param path the road ids of the path in travel order
+     * @return the path description
+     */
+    private ArrayList<String> describe(int source, int[] path) {
+        ArrayList<String> shortestPath = new ArrayList<>(path.length + 1);
+        StringBuilder line = new StringBuilder(64);
         int totalMiles = 0;
-        for (int idx = 0; idx < shortestPath.size() - 1; idx++) {
-            Town source = new Town(shortestPath.get(idx));
-            Town dest = new Town(shortestPath.get(idx + 1));
-            Road road = getEdge(source, dest);
-            totalMiles += road.getWeight();
-            shortPath += source + " via " + road.getName() + " to " + dest 
-                    + " " + road.getWeight() + " miles;";
-        }
-        shortestPath.clear();
-        for (String step : shortPath.split(";")) {
-            shortestPath.add(step);
+        int at = source;
+        for (int road : path) {
+            int next = edges.other(road, at);
+            int weight = edges.weight(road);
+            totalMiles += weight;
+            int nameRef = edges.nameRef(road);
+            line.setLength(0);
+            line.append(townsById.get(at)).append(" via ")
+                    .append(nameRef < 0 ? null : names.get(nameRef)).append(" to ")
+                    .append(townsById.get(next)).append(' ').append(weight).append(" miles");
+            shortestPath.add(line.toString());
+            at = next;
         }
         shortestPath.add("Total miles: " + totalMiles + " miles");
         return shortestPath;
     }
 
-    
+
     /**
 	 * Fill the preset dijstrka fields to paths according to dijstrka's shortest path algorithm.
+	 * The resulting shortest path tree is cached and kept up to date as roads change.
 	 * @param startVertex the startpoint of the algorithm
 	 */
     @Override
     public void dijkstraShortestPath(Town sourceVertex) {
-        shortestPath.clear();
-        Town[] size_all_town = new Town[towns.size()];
-        int s = 0;
-        for (Town t : towns) {
-            size_all_town[s] = new Town(t);
-            s++;
-        }        
-        int[][] adjacencyMatrix = new int[towns.size()][towns.size()];       
-        for (int i = 0; i < adjacencyMatrix.length; i++) {
-            for (int j = 0; j < adjacencyMatrix[i].length; j++) {
-                if (i == j || !containsEdge(size_all_town[i], size_all_town[j])) {
-                    adjacencyMatrix[i][j] = 0;
-                } else {
-                    int weight = getEdge(size_all_town[i], size_all_town[j]).getWeight();
-                    adjacencyMatrix[i][j] = adjacencyMatrix[j][i] = weight;
-                }
-            }
+        int source = townId(sourceVertex);
+        if (source >= 0) {
+            pathTree(source);
+        }
+    }
+
+    /**
+     * Fills an empty graph in one pass, for GraphBuilder. Roads are linked in the
+     * order given, so roads added in order of their towns sit together in the edge store.
+     * @param newTowns the towns, each with its name already in this graph's pool
+     * @param source index in newTowns of one town of each road
+     * @param destination index in newTowns of the other town of each road
+     * @param weights weight of each road in each profile, by profile ordinal
+     * @param nameRef reference of each road's name in this graph's pool
+     * @param roads the roads to add, as positions in the columns above
+     * @throws IllegalStateException if the graph is not empty
+     */
+    void load(Town[] newTowns, IntArrayList source, IntArrayList destination,
+            IntArrayList[] weights, IntArrayList nameRef, int[] roads) {
+        if (!townsById.isEmpty()) {
+            throw new IllegalStateException("Graph is not empty");
+        }
+        townsById.ensureCapacity(newTowns.length);
+        for (Town t : newTowns) {
+            towns.add(t);
+            townIds.put(t.nameRefIn(names), townsById.size());
+            townsById.add(t);
+            place(townsById.size() - 1, t);
         }
-        
-        int startTown = 0;
-        for (Town t : size_all_town) {
-            if (!t.equals(sourceVertex)) {
-                startTown++;
-            } else {
-                break;
+        int[] ids = new int[newTowns.length];
+        double[] latitudes = new double[newTowns.length];
+        double[] longitudes = new double[newTowns.length];
+        int located = 0;
+        for (int id = 0; id < newTowns.length; id++) {
+            if (newTowns[id].hasLocation()) {
+                ids[located] = id;
+                latitudes[located] = newTowns[id].getLatitude();
+                longitudes[located++] = newTowns[id].getLongitude();
             }
         }
-        
-        endTown = 0;
-        for (Town t : size_all_town) {
-            if (!t.equals(destination)) {
-                endTown++;
-            } else {
-                break;
+        spatialIndex.addAll(ids, latitudes, longitudes, located);
+        edges.ensureTowns(newTowns.length);
+        components.ensureTowns(newTowns.length);
+        IntArrayList miles = weights[WeightProfile.DISTANCE.ordinal()];
+        edges.deferShadows();
+        for (int i : roads) {
+            int e = edges.add(source.get(i), destination.get(i), miles.get(i), nameRef.get(i));
+            for (WeightProfile p : WeightProfile.values()) {
+                edges.setWeight(e, p, weights[p.ordinal()].get(i));
             }
+            components.roadAdded(source.get(i), destination.get(i));
         }
-        
-        int numTowns = adjacencyMatrix[0].length; 
-        
-        int[] smallestWeights = new int[numTowns];
-        
-        boolean[] added = new boolean[numTowns];
-        
-        for (int townIdx = 0; townIdx < numTowns; townIdx++) {
-            smallestWeights[townIdx] = Integer.MAX_VALUE;
-            added[townIdx] = false;
-        }
-        
-        smallestWeights[startTown] = 0;
-        
-        int[] parents = new int[numTowns];
-        
-        parents[startTown] = -1;
-        
-        for (int i = 1; i < numTowns; i++) {
-            int nearestTown = -1;
-            int smallestWeight = Integer.MAX_VALUE;
-            for (int townIdx = 0; townIdx < numTowns; townIdx++) {
-                if (!added[townIdx] && 
-                        smallestWeights[townIdx] < smallestWeight) {
-                    nearestTown = townIdx;
-                    smallestWeight = smallestWeights[townIdx];
+        edges.refreshAllPairs();
+        epoch++;
+    }
+
+    /**
+     * Returns the cached shortest path tree rooted at a town, building it if needed
+     * @param source index of the root town
+     * @return the tree
+     */
+    private ShortestPathTree pathTree(int source) {
+        synchronized (pathTrees) {
+            int slot = treeSlots.get(source);
+            if (slot < 0) {
+                // a free slot, or else the one least recently used
+                slot = 0;
+                for (int s = 0; s < pathTrees.length; s++) {
+                    if (pathTrees[s] == null) {
+                        slot = s;
+                        break;
+                    }
+                    if (treeUsed[s] < treeUsed[slot]) {
+                        slot = s;
+                    }
                 }
-            }
-            added[nearestTown] = true;
-            for (int townIdx = 0; townIdx < numTowns; townIdx++) {
-                int roadDist = adjacencyMatrix[nearestTown][townIdx]; 
-                if (roadDist > 0 && 
-                        ((smallestWeight + roadDist) < smallestWeights[townIdx])) {
-                    parents[townIdx] = nearestTown;
-                    smallestWeights[townIdx] = smallestWeight + roadDist;
+                if (pathTrees[slot] != null) {
+                    treeSlots.remove(treeRoots[slot]);
                 }
-            }           
-        }
-        populatePathArrayList(endTown, parents); 
-    }
-    
-    /**
-     * Populate town with the order of towns to go from source to destination
-     * @param currentVertex index of destination
-     * @param parents indexes of towns in shortest path
-     */
-    private void populatePathArrayList(int currentVertex, int[] parents) {
-        
-        if (currentVertex == -1) { 
-            return; 
-        } 
-        populatePathArrayList(parents[currentVertex], parents); 
-        int townIdx = 0;
-        for (Town t : towns) {
-            if (townIdx == currentVertex) {
-                shortestPath.add(t.getName()); 
+                pathTrees[slot] = new ShortestPathTree(this, source);
+                treeRoots[slot] = source;
+                treeSlots.put(source, slot);
             }
-            townIdx++;
+            treeUsed[slot] = ++treeClock;
+            return pathTrees[slot];
+        }
+    }
+
+    /**
+     * Drops every cached shortest path tree
+     */
+    private void clearPathTrees() {
+        synchronized (pathTrees) {
+            Arrays.fill(pathTrees, null);
+            treeSlots.clear();
+        }
+    }
+
+    /**
+     * Returns the routing index for the current epoch, taking a new snapshot if the graph changed
+     * @return the routing index
+     */
+    synchronized RoutingIndex routingIndex() {
+        if (routingIndex == null || routingIndex.epoch != epoch) {
+            routingIndex = new RoutingIndex(this, epoch);
+        }
+        return routingIndex;
+    }
+
+    /**
+     * Returns the route overlay, building it if the graph has grown large enough
+     * to need one and has none since its towns or roads last changed
+     * @return the overlay, null if routes are searched directly
+     */
+    synchronized RouteOverlay overlay() {
+        if (overlay == null && towns.size() >= OVERLAY_MIN_TOWNS) {
+            overlay = new RouteOverlay(this, RouteOverlay.CELL_SIZE, RouteOverlay.FANOUT);
+        }
+        return overlay;
+    }
+
+    /**
+     * Routes over an overlay from now until the towns or roads next change,
+     * whatever the size of the graph
+     * @param overlay an overlay of this graph
+     */
+    synchronized void useOverlay(RouteOverlay overlay) {
+        this.overlay = overlay;
+    }
+
+    /**
+     * Tells the overlay, if there is one, that a road's weight changed
+     */
+    private void weightChanged(int e, WeightProfile profile) {
+        if (overlay != null) {
+            overlay.roadChanged(e, profile);
         }
-    } 
+    }
 
+    /**
+     * Returns the index of a town
+     * @param town the town
+     * @return its index, or -1 if it is not in the graph
+     */
+    int townId(Town town) {
+        int ref = town == null ? -1 : town.nameRefIn(names);
+        return ref < 0 ? -1 : townIds.get(ref);
+    }
+
+    /**
+     * Finds the road of this graph a Road stands for
+     * @param road a view handed out by this graph, or a road equal to one of its roads
+     * @return the road id, or -1 if the graph has no such road
+     */
+    private int edgeOf(Road road) {
+        if (road.isViewOf(this)) {
+            // a view kept after its road was removed may name an id since reused
+            return road.isCurrent() ? road.edge : -1;
+        }
+        int source = townId(road.getSource());
+        int dest = townId(road.getDestination());
+        String name = road.getName();
+        int nameRef = name == null ? -1 : names.find(name);
+        if (source < 0 || dest < 0 || (name != null && nameRef < 0)) {
+            return -1;
+        }
+        for (int e = edges.first(source); e >= 0; e = edges.next(e, source)) {
+            if (edges.other(e, source) == dest && edges.weight(e) == road.getWeight()
+                    && edges.nameRef(e) == nameRef) {
+                return e;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the store holding the graph's roads
+     * @return the edge store
+     */
+    EdgeStore edges() {
+        return edges;
+    }
+
+    /**
+     * Returns the pool holding the names of the graph's towns and roads
+     * @return the string pool
+     */
+    StringPool names() {
+        return names;
+    }
+
+    /**
+     * Returns the town with an index
+     * @param id index of the town
+     * @return the town, null if it was removed
+     */
+    Town town(int id) {
+        return townsById.get(id);
+    }
+
+    /**
+     * Returns the number of town indexes handed out so far, including removed towns
+     * @return the size needed for arrays indexed by town
+     */
+    int townCapacity() {
+        return townsById.size();
+    }
+
+    /**
+     * Live view of every road in the edge store
+     */
+    private class AllRoads extends AbstractSet<Road> {
+
+        @Override
+        public Iterator<Road> iterator() {
+            return new Iterator<Road>() {
+                private int next = advance(0);
+
+                private int advance(int from) {
+                    int e = from;
+                    while (e < edges.capacity() && !edges.isLive(e)) {
+                        e++;
+                    }
+                    return e;
+                }
+
+                @Override
+                public boolean hasNext() {
+                    return next < edges.capacity();
+                }
+
+                @Override
+                public Road next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    Road road = new Road(Graph.this, next);
+                    next = advance(next + 1);
+                    return road;
+                }
+            };
+        }
+
+        @Override
+        public Spliterator<Road> spliterator() {
+            return roadSpliterator();
+        }
+
+        @Override
+        public int size() {
+            return edges.size();
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return o instanceof Road && edgeOf((Road) o) >= 0;
+        }
+    }
+
+    /**
+     * Fixed set of roads by id, used to hand out the roads of one town
+     */
+    private class RoadSnapshot extends AbstractSet<Road> {
+        private final int[] ids;
+
+        RoadSnapshot(int[] ids) {
+            this.ids = ids;
+        }
+
+        @Override
+        public Iterator<Road> iterator() {
+            return new Iterator<Road>() {
+                private int i;
+
+                @Override
+                public boolean hasNext() {
+                    return i < ids.length;
+                }
+
+                @Override
+                public Road next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    return new Road(Graph.this, ids[i++]);
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return ids.length;
+        }
+    }
 }
@@ -0,0 +1,261 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Collects towns and roads for a new Graph and builds it in one go, for loading
+ * whole road files. Towns are numbered as they are first named and roads are kept
+ * as int columns until build, which sorts them by their lower town in parallel,
+ * drops repeats of identical roads (same towns, name and weight in every profile)
+ * and links the rest into the graph in a single pass. Roads taken from a base graph
+ * are kept as they are; only roads added to the builder are dropped as repeats. Nothing is done per road that an empty
+ * graph does not need: no lookups of Town objects, no shortest path tree
+ * repairs and no exceptions. Roads keep a weight per profile; a road added by
+ * name and miles starts each profile at its initial weight.
+ * @author Ha T Dao
+ */
+public class GraphBuilder {
+
+    /**
+     * Index of each town by name
+     */
+    private final Map<String, Integer> townIds = new HashMap<>();
+
+    /**
+     * Towns by index
+     */
+    private final ArrayList<Town> towns = new ArrayList<>();
+
+    /**
+     * Names of the towns and roads, handed on to the graphs built
+     */
+    private final StringPool names = new StringPool();
+
+    // one entry per road added
+    private final IntArrayList sources = new IntArrayList(1024);
+    private final IntArrayList destinations = new IntArrayList(1024);
+    private final IntArrayList nameRefs = new IntArrayList(1024);
+
+    /**
+     * Weight of each road in each profile, by profile ordinal
+     */
+    private final IntArrayList[] weights = new IntArrayList[WeightProfile.values().length];
+
+    /**
+     * Miles of each road, the distance column of weights
+     */
+    private final IntArrayList miles;
+
+    private int duplicates;
+
+    /**
+     * Whether build drops repeats of identical roads
+     */
+    private boolean dropRepeats = true;
+
+    /**
+     * Number of roads taken from the base graph, the first in the columns
+     */
+    private int baseRoads;
+
+    /**
+     * Creates an empty builder
+     */
+    public GraphBuilder() {
+        for (int p = 0; p < weights.length; p++) {
+            weights[p] = new IntArrayList(1024);
+        }
+        miles = weights[WeightProfile.DISTANCE.ordinal()];
+    }
+
+    /**
+     * Creates a builder holding the towns and roads of a graph, so the graph built
+     * is that graph plus whatever is added
+     * @param base the graph to start from
+     */
+    public GraphBuilder(Graph base) {
+        this();
+        base.towns().forEach(t -> {
+            if (t.hasLocation()) {
+                addTown(t.getName(), t.getLatitude(), t.getLongitude());
+            } else {
+                addTown(t.getName());
+            }
+        });
+        base.roads().forEach(r -> {
+            sources.add(townId(r.getSource().getName()));
+            destinations.add(townId(r.getDestination().getName()));
+            for (WeightProfile p : WeightProfile.values()) {
+                weights[p.ordinal()].add(r.getWeight(p));
+            }
+            nameRefs.add(r.getName() == null ? -1 : names.intern(r.getName()));
+        });
+        baseRoads = sources.size();
+    }
+
+    /**
+     * Adds a town if it is not added already
+     * @param name the town's name
+     * @return this builder
+     * @throws NullPointerException if name is null
+     */
+    public GraphBuilder addTown(String name) {
+        townId(name);
+        return this;
+    }
+
+    /**
+     * Adds a town with its location, or sets the location of a town already added
+     * @param name the town's name
+     * @param latitude degrees north, -90 to 90
+     * @param longitude degrees east, -180 to 180
+     * @return this builder
+     * @throws NullPointerException if name is null
+     * @throws IllegalArgumentException if the location is out of range
+     */
+    public GraphBuilder addTown(String name, double latitude, double longitude) {
+        Town located = new Town(name, latitude, longitude).pooled(names);
+        towns.set(townId(name), located);
+        return this;
+    }
+
+    /**
+     * Adds a road, and its towns if they are not added already
+     * @param townA name of one town
+     * @param townB name of the other town
+     * @param weight the length of the road in miles
+     * @param name the name of the road
+     * @return this builder
+     * @throws NullPointerException if a town name is null
+     * @throws IllegalArgumentException if the weight is negative
+     */
+    public GraphBuilder addRoad(String townA, String townB, int weight, String name) {
+        if (weight < 0) {
+            throw new IllegalArgumentException("Negative weight " + weight);
+        }
+        sources.add(townId(townA));
+        destinations.add(townId(townB));
+        for (WeightProfile p : WeightProfile.values()) {
+            weights[p.ordinal()].add(p.initialWeight(weight));
+        }
+        nameRefs.add(name == null ? -1 : names.intern(name));
+        return this;
+    }
+
+    /**
+     * Adds a road with its weight in every profile, and its towns if they are not
+     * added already
+     * @param townA name of one town
+     * @param townB name of the other town
+     * @param profileWeights the road's weight in each profile, by profile ordinal
+     * @param name the name of the road
+     * @return this builder
+     */
+    GraphBuilder addRoad(String townA, String townB, int[] profileWeights, String name) {
+        sources.add(townId(townA));
+        destinations.add(townId(townB));
+        for (WeightProfile p : WeightProfile.values()) {
+            weights[p.ordinal()].add(profileWeights[p.ordinal()]);
+        }
+        nameRefs.add(name == null ? -1 : names.intern(name));
+        return this;
+    }
+
+    /**
+     * Makes build keep every road added, repeats included, for restoring a graph
+     * that had identical roads added one by one
+     * @return this builder
+     */
+    GraphBuilder keepRepeats() {
+        dropRepeats = false;
+        return this;
+    }
+
+    /**
+     * Adds the road of a road file line
+     * @param line the line
+     * @return this builder
+     */
+    GraphBuilder addRoad(RoadLine line) {
+        return addRoad(line.townA, line.townB, line.weight, line.name);
+    }
+
+    /**
+     * Returns the number of roads dropped by the last build as repeats of another
+     * @return the duplicate count
+     */
+    public int getDuplicates() {
+        return duplicates;
+    }
+
+    /**
+     * Builds the graph. The builder can go on collecting and build again.
+     * @return a new graph with every town and every distinct road added
+     */
+    public Graph build() {
+        int count = sources.size();
+        // road indexes ordered by lower town, then by the order they were added
+        long[] order = new long[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = (long) Math.min(sources.get(i), destinations.get(i)) << 32 | i;
+        }
+        Arrays.parallelSort(order);
+
+        // keep the first of identical added roads; the kept roads from the current lower
+        // town to each other town are chained, found through a head stamped with it
+        int[] keep = new int[count];
+        int kept = 0;
+        int[] headFor = new int[towns.size()];
+        int[] headStamp = new int[towns.size()];
+        int[] nextKept = new int[count];
+        for (long key : order) {
+            int i = (int) key;
+            if (i < baseRoads) {
+                keep[kept++] = i; // neither dropped nor matched against
+                continue;
+            }
+            int low = (int) (key >>> 32);
+            int high = Math.max(sources.get(i), destinations.get(i));
+            int head = headStamp[high] == low + 1 ? headFor[high] : -1;
+            boolean repeat = false;
+            for (int k = head; k >= 0 && !repeat && dropRepeats; k = nextKept[k]) {
+                repeat = nameRefs.get(k) == nameRefs.get(i) && sameWeights(k, i);
+            }
+            if (!repeat) {
+                nextKept[i] = head;
+                headFor[high] = i;
+                headStamp[high] = low + 1;
+                keep[kept++] = i;
+            }
+        }
+        duplicates = count - kept;
+
+        Graph graph = new Graph(names);
+        graph.load(towns.toArray(new Town[0]), sources, destinations, weights, nameRefs,
+                Arrays.copyOf(keep, kept));
+        return graph;
+    }
+
+    private boolean sameWeights(int a, int b) {
+        for (IntArrayList column : weights) {
+            if (column.get(a) != column.get(b)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int townId(String name) {
+        if (name == null) {
+            throw new NullPointerException();
+        }
+        Integer id = townIds.get(name);
+        if (id == null) {
+            id = towns.size();
+            townIds.put(name, id);
+            towns.add(new Town(name).pooled(names));
+        }
+        return id;
+    }
+}
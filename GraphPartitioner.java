@@ -0,0 +1,592 @@
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Splits the towns of a Graph into k regions of about the same number of towns
+ * with few roads between regions, in the manner of METIS: the graph is coarsened
+ * by repeatedly merging each town with the neighbour it shares the most roads
+ * with, the small coarsest graph is split by growing regions from seeds, and the
+ * split is carried back down level by level, moving towns on region borders to
+ * the region they have the most roads into whenever that cuts roads and keeps the
+ * regions within 3% of an even share.
+ * <p>
+ * write stores the result for sharded routing: a road file per region holding the
+ * roads inside it, an overlay road file with the roads that cross regions, and the
+ * region of every town. ShardWorker serves a region and ShardCoordinator answers
+ * routes over all of them.
+ * @author Ha T Dao
+ */
+public class GraphPartitioner {
+
+    /**
+     * Largest region may hold this much more than an even share
+     */
+    private static final double IMBALANCE = 1.03;
+
+    /**
+     * Refinement passes per level
+     */
+    private static final int PASSES = 8;
+
+    private final Graph graph;
+    private final int parts;
+
+    /**
+     * Region of each town index, -1 for indexes of removed towns
+     */
+    private final int[] part;
+
+    /**
+     * Number of roads joining towns of different regions
+     */
+    private int cutRoads;
+
+    /**
+     * Partitions a graph
+     * @param graph the graph
+     * @param parts the number of regions wanted
+     * @throws IllegalArgumentException if parts is less than 1
+     */
+    public GraphPartitioner(Graph graph, int parts) {
+        if (parts < 1) {
+            throw new IllegalArgumentException();
+        }
+        this.graph = graph;
+        this.parts = parts;
+        int capacity = graph.townCapacity();
+        part = new int[capacity];
+        Arrays.fill(part, -1);
+
+        int[] townOf = new int[capacity];
+        Level finest = finest(graph, townOf);
+        int n = finest.n;
+        int[] assignment = partition(finest, parts, new Random(42));
+        for (int v = 0; v < n; v++) {
+            part[townOf[v]] = assignment[v];
+        }
+        EdgeStore edges = graph.edges();
+        for (int e = 0; e < edges.capacity(); e++) {
+            if (edges.isLive(e) && part[edges.source(e)] != part[edges.destination(e)]) {
+                cutRoads++;
+            }
+        }
+    }
+
+    /**
+     * Splits a road file into regions for sharded routing
+     * <pre>
+     * java GraphPartitioner roadFile shards outputDirectory
+     * </pre>
+     * @param args the road file, the number of regions and where to write them
+     * @throws IOException if the road file cannot be read or the regions written
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 3) {
+            System.err.println("Usage: java GraphPartitioner roadFile shards outputDirectory");
+            System.exit(2);
+        }
+        TownGraphManager manager = new TownGraphManager();
+        manager.populateTownGraph(new File(args[0]));
+        int cut = manager.writeShards(new File(args[2]), Integer.parseInt(args[1]));
+        System.out.println("Wrote " + args[1] + " regions to " + args[2] + " with " + cut + " roads between them");
+    }
+
+    /**
+     * Returns the number of regions
+     * @return the count
+     */
+    public int getParts() {
+        return parts;
+    }
+
+    /**
+     * Returns the region of a town
+     * @param town a town of the graph
+     * @return its region, from 0 to parts - 1, or -1 if the town is not in the graph
+     */
+    public int getPart(Town town) {
+        int id = graph.townId(town);
+        return id < 0 ? -1 : part[id];
+    }
+
+    /**
+     * Returns the number of roads between towns of different regions
+     * @return the cut size
+     */
+    public int getCutRoads() {
+        return cutRoads;
+    }
+
+    /**
+     * Returns the number of towns in each region
+     * @return town counts by region
+     */
+    public int[] getPartSizes() {
+        int[] sizes = new int[parts];
+        for (int p : part) {
+            if (p >= 0) {
+                sizes[p]++;
+            }
+        }
+        return sizes;
+    }
+
+    /**
+     * Writes the regions to a directory: region-i.txt with the roads inside region
+     * i (and the locations of its towns), overlay.txt with the roads between
+     * regions, both in the road file format, and partition.txt with a Town;region
+     * line per town
+     * @param directory where the files go, created if needed
+     * @throws IOException if a file cannot be written
+     */
+    public void write(File directory) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        Writer[] regions = new Writer[parts];
+        try (Writer overlay = new BufferedWriter(new FileWriter(new File(directory, "overlay.txt")));
+                Writer towns = new BufferedWriter(new FileWriter(new File(directory, "partition.txt")))) {
+            for (int p = 0; p < parts; p++) {
+                regions[p] = new BufferedWriter(new FileWriter(regionFile(directory, p)));
+            }
+            EdgeStore edges = graph.edges();
+            for (int e = 0; e < edges.capacity(); e++) {
+                if (edges.isLive(e)) {
+                    Road road = new Road(graph, e);
+                    int a = part[edges.source(e)];
+                    int b = part[edges.destination(e)];
+                    String line = road.getName() + "," + road.getWeight() + ";" + road.getSource().getName()
+                            + ";" + road.getDestination().getName() + "\n";
+                    (a == b ? regions[a] : overlay).write(line);
+                }
+            }
+            for (int p = 0; p < parts; p++) {
+                regions[p].write(RoadLine.TOWNS_SECTION + "\n");
+            }
+            for (int t = 0; t < part.length; t++) {
+                Town town = graph.town(t);
+                if (town != null) {
+                    towns.write(town.getName() + ";" + part[t] + "\n");
+                    if (town.hasLocation()) {
+                        regions[part[t]].write(town.getName() + ";" + town.getLatitude() + ";"
+                                + town.getLongitude() + "\n");
+                    }
+                }
+            }
+        } finally {
+            for (Writer region : regions) {
+                if (region != null) {
+                    region.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * Splits the towns of a graph into nested cells, for RouteOverlay: the first
+     * level has cells of about cellSize towns, each further level groups about
+     * fanout cells of the level below as long as that leaves fanout cells or more;
+     * a route never crosses a top cell holding one of its ends, so a top level
+     * of fewer cells would rarely be of use. Each
+     * level is partitioned like the regions, the levels above the first over the
+     * graph of the cells below, weighted by their towns and the roads between them.
+     * @param graph the graph
+     * @param cellSize towns wanted in a cell of the first level
+     * @param fanout cells of a level wanted in a cell of the next
+     * @return the cell of each town index on each level, [level][town]; -1 for
+     * indexes of removed towns
+     * @throws IllegalArgumentException if cellSize is less than 1 or fanout less than 2
+     */
+    static int[][] nestedCells(Graph graph, int cellSize, int fanout) {
+        if (cellSize < 1 || fanout < 2) {
+            throw new IllegalArgumentException();
+        }
+        int capacity = graph.townCapacity();
+        int[] townOf = new int[capacity];
+        Level level = finest(graph, townOf);
+        int n = level.n;
+        Random random = new Random(42);
+        // vertex of the current level each town was merged into
+        int[] vertexOf = new int[n];
+        for (int v = 0; v < n; v++) {
+            vertexOf[v] = v;
+        }
+        ArrayList<int[]> levels = new ArrayList<>();
+        int cells = Math.max(1, (n + cellSize - 1) / cellSize);
+        while (true) {
+            int[] assignment = partition(level, cells, random);
+            int[] cell = new int[capacity];
+            Arrays.fill(cell, -1);
+            for (int v = 0; v < n; v++) {
+                vertexOf[v] = assignment[vertexOf[v]];
+                cell[townOf[v]] = vertexOf[v];
+            }
+            levels.add(cell);
+            int next = (cells + fanout - 1) / fanout;
+            if (next < fanout) {
+                return levels.toArray(new int[0][]);
+            }
+            level = level.contract(assignment, cells);
+            cells = next;
+        }
+    }
+
+    /**
+     * Numbers the towns in use densely and builds the finest level, one vertex per town
+     * @param graph the graph
+     * @param townOf filled with the town index of each vertex
+     * @return the level
+     */
+    private static Level finest(Graph graph, int[] townOf) {
+        int capacity = graph.townCapacity();
+        int[] dense = new int[capacity];
+        int n = 0;
+        for (int t = 0; t < capacity; t++) {
+            dense[t] = graph.town(t) == null ? -1 : n;
+            if (dense[t] >= 0) {
+                townOf[n++] = t;
+            }
+        }
+        return Level.of(graph.edges(), dense, townOf, n);
+    }
+
+    /**
+     * Returns the road file of a region in a directory written by write
+     * @param directory the directory
+     * @param part the region
+     * @return the file
+     */
+    static File regionFile(File directory, int part) {
+        return new File(directory, "region-" + part + ".txt");
+    }
+
+    /**
+     * Partitions a level: coarsens it, splits the coarsest level and refines the
+     * split on the way back
+     */
+    private static int[] partition(Level level, int parts, Random random) {
+        int stopAt = Math.max(20 * parts, 100);
+        if (level.n <= stopAt) {
+            return initialPartition(level, parts, random);
+        }
+        Level coarse = level.coarsen(random, level.totalWeight() / (2 * parts) + 1);
+        if (coarse.n > level.n * 0.9) {
+            // matching no longer shrinks the graph, e.g. a star
+            return initialPartition(level, parts, random);
+        }
+        int[] coarsePart = partition(coarse, parts, random);
+        int[] assignment = new int[level.n];
+        for (int v = 0; v < level.n; v++) {
+            assignment[v] = coarsePart[level.coarseOf[v]];
+        }
+        refine(level, parts, assignment, random);
+        return assignment;
+    }
+
+    /**
+     * Splits a small level by growing each region breadth first from an unassigned
+     * town until it holds its share, trying a few seeds and keeping the best split
+     */
+    private static int[] initialPartition(Level level, int parts, Random random) {
+        int[] best = null;
+        long bestCut = Long.MAX_VALUE;
+        for (int attempt = 0; attempt < 8; attempt++) {
+            int[] assignment = new int[level.n];
+            Arrays.fill(assignment, -1);
+            long remaining = level.totalWeight();
+            int[] queue = new int[level.n];
+            for (int p = 0; p < parts; p++) {
+                long share = remaining / (parts - p);
+                long weight = 0;
+                int head = 0;
+                int tail = 0;
+                while (weight < share || p == parts - 1) {
+                    if (head == tail) {
+                        int seed = unassigned(assignment, random);
+                        if (seed < 0) {
+                            break;
+                        }
+                        assignment[seed] = p;
+                        weight += level.weight[seed];
+                        queue[tail++] = seed;
+                        continue;
+                    }
+                    int v = queue[head++];
+                    for (int i = level.first[v]; i < level.first[v + 1] && (weight < share || p == parts - 1); i++) {
+                        int u = level.neighbour[i];
+                        if (assignment[u] < 0) {
+                            assignment[u] = p;
+                            weight += level.weight[u];
+                            queue[tail++] = u;
+                        }
+                    }
+                }
+                remaining -= weight;
+            }
+            refine(level, parts, assignment, random);
+            long cut = level.cut(assignment);
+            if (cut < bestCut) {
+                bestCut = cut;
+                best = assignment;
+            }
+        }
+        return best;
+    }
+
+    private static int unassigned(int[] assignment, Random random) {
+        int start = assignment.length == 0 ? 0 : random.nextInt(assignment.length);
+        for (int i = 0; i < assignment.length; i++) {
+            int v = (start + i) % assignment.length;
+            if (assignment[v] < 0) {
+                return v;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Greedy k-way refinement: moves border towns to the neighbouring region they
+     * have the most road weight into when that lowers the cut (or, at no cost,
+     * evens out the regions) and the receiving region stays within the allowed
+     * weight; overweight regions give up their cheapest border towns first
+     */
+    private static void refine(Level level, int parts, int[] assignment, Random random) {
+        long[] partWeight = new long[parts];
+        for (int v = 0; v < level.n; v++) {
+            partWeight[assignment[v]] += level.weight[v];
+        }
+        long maxWeight = (long) Math.ceil(level.totalWeight() / (double) parts * IMBALANCE);
+        int[] connection = new int[parts];
+        int[] touched = new int[parts];
+        int[] order = new int[level.n];
+        for (int v = 0; v < level.n; v++) {
+            order[v] = v;
+        }
+        for (int pass = 0; pass < PASSES; pass++) {
+            for (int i = level.n - 1; i > 0; i--) {
+                int j = random.nextInt(i + 1);
+                int t = order[i];
+                order[i] = order[j];
+                order[j] = t;
+            }
+            int moves = 0;
+            for (int v : order) {
+                int own = assignment[v];
+                int count = 0;
+                for (int i = level.first[v]; i < level.first[v + 1]; i++) {
+                    int p = assignment[level.neighbour[i]];
+                    if (connection[p] == 0) {
+                        touched[count++] = p;
+                    }
+                    connection[p] += level.roads[i];
+                }
+                int target = own;
+                long bestGain = 0;
+                boolean overweight = partWeight[own] > maxWeight;
+                for (int k = 0; k < count; k++) {
+                    int p = touched[k];
+                    if (p == own || partWeight[p] + level.weight[v] > maxWeight) {
+                        continue;
+                    }
+                    long gain = connection[p] - connection[own];
+                    boolean better = target == own
+                            ? gain > 0 || overweight || (gain == 0 && partWeight[p] + level.weight[v] < partWeight[own])
+                            : gain > bestGain;
+                    if (better) {
+                        target = p;
+                        bestGain = gain;
+                    }
+                }
+                for (int k = 0; k < count; k++) {
+                    connection[touched[k]] = 0;
+                }
+                if (target != own) {
+                    assignment[v] = target;
+                    partWeight[own] -= level.weight[v];
+                    partWeight[target] += level.weight[v];
+                    moves++;
+                }
+            }
+            if (moves == 0) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * One level of the coarsening: a graph in compressed adjacency form whose
+     * vertices stand for groups of towns and whose edges count the roads between them
+     */
+    private static class Level {
+        int n;
+        int[] first;
+        int[] neighbour;
+        int[] roads;
+        int[] weight;
+
+        /**
+         * Vertex of the next coarser level each vertex was merged into
+         */
+        int[] coarseOf;
+
+        /**
+         * Builds the finest level from the roads of a graph, one vertex per town
+         */
+        static Level of(EdgeStore edges, int[] dense, int[] townOf, int n) {
+            Level level = new Level();
+            level.n = n;
+            level.weight = new int[n];
+            Arrays.fill(level.weight, 1);
+            level.first = new int[n + 1];
+            int[] neighbours = new int[2 * edges.size() + 1];
+            int[] counts = new int[neighbours.length];
+            int[] slot = new int[n];
+            Arrays.fill(slot, -1);
+            int entries = 0;
+            for (int v = 0; v < n; v++) {
+                level.first[v] = entries;
+                int t = townOf[v];
+                for (int e = edges.first(t); e >= 0; e = edges.next(e, t)) {
+                    int u = dense[edges.other(e, t)];
+                    if (u == v) {
+                        continue;
+                    }
+                    if (slot[u] >= level.first[v]) {
+                        counts[slot[u]]++; // a parallel road
+                    } else {
+                        slot[u] = entries;
+                        neighbours[entries] = u;
+                        counts[entries++] = 1;
+                    }
+                }
+            }
+            level.first[n] = entries;
+            level.neighbour = Arrays.copyOf(neighbours, entries);
+            level.roads = Arrays.copyOf(counts, entries);
+            return level;
+        }
+
+        long totalWeight() {
+            long total = 0;
+            for (int w : weight) {
+                total += w;
+            }
+            return total;
+        }
+
+        long cut(int[] assignment) {
+            long cut = 0;
+            for (int v = 0; v < n; v++) {
+                for (int i = first[v]; i < first[v + 1]; i++) {
+                    if (assignment[neighbour[i]] != assignment[v]) {
+                        cut += roads[i];
+                    }
+                }
+            }
+            return cut / 2;
+        }
+
+        /**
+         * Merges each vertex with the unmatched neighbour it shares the most roads
+         * with, visiting vertices in random order, unless the pair would outweigh
+         * maxWeight
+         */
+        Level coarsen(Random random, long maxWeight) {
+            int[] match = new int[n];
+            Arrays.fill(match, -1);
+            int[] order = new int[n];
+            for (int v = 0; v < n; v++) {
+                order[v] = v;
+            }
+            for (int i = n - 1; i > 0; i--) {
+                int j = random.nextInt(i + 1);
+                int t = order[i];
+                order[i] = order[j];
+                order[j] = t;
+            }
+            coarseOf = new int[n];
+            int coarseN = 0;
+            for (int v : order) {
+                if (match[v] >= 0) {
+                    continue;
+                }
+                int mate = v;
+                int heaviest = 0;
+                for (int i = first[v]; i < first[v + 1]; i++) {
+                    int u = neighbour[i];
+                    if (match[u] < 0 && u != v && roads[i] > heaviest
+                            && weight[u] + weight[v] <= maxWeight) {
+                        mate = u;
+                        heaviest = roads[i];
+                    }
+                }
+                match[v] = mate;
+                match[mate] = v;
+                coarseOf[v] = coarseN;
+                coarseOf[mate] = coarseN;
+                coarseN++;
+            }
+            return contract(coarseOf, coarseN);
+        }
+
+        /**
+         * Builds the level whose vertices are groups of this level's vertices,
+         * weighted by their members, with edges counting the roads between groups
+         * @param groupOf group of each vertex, from 0 to groups - 1
+         * @param groups the number of groups
+         */
+        Level contract(int[] groupOf, int groups) {
+            Level coarse = new Level();
+            coarse.n = groups;
+            coarse.weight = new int[groups];
+            coarse.first = new int[groups + 1];
+            // members of each group, grouped by counting
+            int[] memberFirst = new int[groups + 1];
+            for (int v = 0; v < n; v++) {
+                coarse.weight[groupOf[v]] += weight[v];
+                memberFirst[groupOf[v] + 1]++;
+            }
+            for (int c = 0; c < groups; c++) {
+                memberFirst[c + 1] += memberFirst[c];
+            }
+            int[] members = new int[n];
+            int[] fill = Arrays.copyOf(memberFirst, groups);
+            for (int v = 0; v < n; v++) {
+                members[fill[groupOf[v]]++] = v;
+            }
+            IntArrayList neighbours = new IntArrayList(neighbour.length / 2 + 1);
+            int[] counts = new int[neighbour.length + 1];
+            int[] slot = new int[groups];
+            Arrays.fill(slot, -1);
+            for (int c = 0; c < groups; c++) {
+                coarse.first[c] = neighbours.size();
+                for (int m = memberFirst[c]; m < memberFirst[c + 1]; m++) {
+                    int v = members[m];
+                    for (int i = first[v]; i < first[v + 1]; i++) {
+                        int d = groupOf[neighbour[i]];
+                        if (d == c) {
+                            continue;
+                        }
+                        if (slot[d] >= coarse.first[c]) {
+                            counts[slot[d]] += roads[i];
+                        } else {
+                            slot[d] = neighbours.size();
+                            counts[slot[d]] = roads[i];
+                            neighbours.add(d);
+                        }
+                    }
+                }
+            }
+            coarse.first[groups] = neighbours.size();
+            coarse.neighbour = neighbours.toArray();
+            coarse.roads = Arrays.copyOf(counts, neighbours.size());
+            return coarse;
+        }
+    }
+}
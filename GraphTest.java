@@ -5,8 +5,14 @@ import static org.junit.Assert.*;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
 import java.util.Set;
+import java.util.stream.Collectors;
 
 import org.junit.After;
 import org.junit.Before;
@@ -216,4 +222,399 @@ public class GraphTest {
 			  fail("Town names are not valid");
 
 	  }
+
+	  @Test
+	  public void testUpdateWeight() {
+		  ArrayList<String> path = graph.shortestPath(town[1], town[11]);
+		  assertEquals("Total miles: 8 miles", path.get(path.size() - 1));
+		  ((Graph) graph).updateWeight(graph.getEdge(town[1], town[2]), 10);
+		  path = graph.shortestPath(town[1], town[11]);
+		  assertEquals("Town_1 via Road_2 to Town_3 4 miles", path.get(0));
+		  assertEquals("Total miles: 11 miles", path.get(path.size() - 1));
+		  ((Graph) graph).updateWeight(graph.getEdge(town[1], town[2]), 1);
+		  path = graph.shortestPath(town[1], town[11]);
+		  assertEquals("Total miles: 7 miles", path.get(path.size() - 1));
+	  }
+
+	  @Test
+	  public void testKShortestPaths() {
+		  ArrayList<ArrayList<String>> paths = ((Graph) graph).kShortestPaths(town[1], town[11], 3);
+		  assertEquals(3, paths.size());
+		  assertEquals(graph.shortestPath(town[1], town[11]), paths.get(0));
+		  assertEquals("Total miles: 11 miles", paths.get(1).get(paths.get(1).size() - 1));
+		  assertEquals("Town_1 via Road_3 to Town_5 6 miles", paths.get(2).get(0));
+		  assertEquals("Total miles: 14 miles", paths.get(2).get(paths.get(2).size() - 1));
+	  }
+
+	  @Test
+	  public void testRoadViews() {
+		  Road road = graph.getEdge(town[2], town[11]);
+		  assertEquals(new Road(town[11], town[2], 6, "Road_12"), road);
+		  road.setDistance(1);
+		  assertEquals(1, graph.getEdge(town[11], town[2]).getWeight());
+		  ArrayList<String> path = graph.shortestPath(town[1], town[11]);
+		  assertEquals("Total miles: 3 miles", path.get(path.size() - 1));
+		  Road removed = graph.removeEdge(town[2], town[11], 1, "Road_12");
+		  assertEquals("Road_12", removed.getName());
+		  assertEquals(11, graph.edgeSet().size());
+		  assertFalse(graph.edgeSet().contains(removed));
+		  graph.addEdge(town[4], town[7], 9, "Road_13");
+		  assertEquals(12, graph.edgeSet().size());
+		  assertEquals("Road_12", removed.getName());
+		  assertTrue(graph.edgeSet().contains(new Road(town[7], town[4], 9, "Road_13")));
+	  }
+
+	  @Test
+	  public void testDistancesFrom() {
+		  Map<Town, Integer> distances = ((Graph) graph).distancesFrom(town[1]);
+		  assertEquals(11, distances.size());
+		  assertEquals(Integer.valueOf(0), distances.get(town[1]));
+		  assertEquals(Integer.valueOf(8), distances.get(town[11]));
+		  assertEquals(Integer.valueOf(15), distances.get(town[6]));
+		  graph.addVertex(new Town("Town_12"));
+		  assertNull(((Graph) graph).distancesFrom(town[1]).get(new Town("Town_12")));
+	  }
+
+	@Test
+	public void testStreams() {
+		Graph roads = (Graph) graph;
+		assertEquals(11, roads.towns().count());
+		assertEquals(12, roads.roads().count());
+		assertEquals(graph.edgeSet(), roads.roads().collect(Collectors.toSet()));
+		assertEquals(3, roads.roadsOf(town[1]).count());
+		assertEquals(graph.edgesOf(town[1]), roads.roadsOf(town[1]).collect(Collectors.toSet()));
+		roads.removeVertex(town[1]);
+		assertEquals(10, roads.towns().parallel().count());
+		assertFalse(roads.towns().anyMatch(t -> t.equals(town[1])));
+		assertEquals(0, roads.roadsOf(town[1]).count());
+		assertEquals(graph.edgeSet().size(), roads.roads().parallel().count());
+	}
+
+	@Test
+	public void testParallelRoads() {
+		Graph roads = (Graph) graph;
+		roads.addEdge(town[2], town[1], 5, "Highway_1");
+		roads.addEdge(town[1], town[2], 1, "Local_1");
+		roads.addEdge(town[1], town[2], 1, "Local_2");
+		assertEquals(4, roads.roadsBetween(town[1], town[2]).count());
+		assertEquals(new Road(town[1], town[2], 1, "Local_1"), roads.getEdge(town[2], town[1]));
+		assertArrayEquals(new int[] {7}, roads.distanceMatrix(
+				Arrays.asList(town[1]), Arrays.asList(town[11]))[0]);
+		roads.removeEdge(town[1], town[2], 1, "Local_1");
+		roads.removeEdge(town[1], town[2], 1, "Local_2");
+		assertEquals("Road_1", roads.getEdge(town[1], town[2]).getName());
+		assertArrayEquals(new int[] {8}, roads.distanceMatrix(
+				Arrays.asList(town[1]), Arrays.asList(town[11]))[0]);
+	}
+
+	@Test
+	public void testShortestPathWithAndWithoutTree() {
+		ArrayList<String> searched = graph.shortestPath(town[1], town[6]);
+		assertEquals("Total miles: 15 miles", searched.get(searched.size() - 1));
+		graph.dijkstraShortestPath(town[1]);
+		assertEquals(searched, graph.shortestPath(town[1], town[6]));
+		assertTrue(graph.shortestPath(town[1], new Town("Town_12")).isEmpty());
+	}
+
+	@Test
+	public void testGraphBuilder() {
+		GraphBuilder builder = new GraphBuilder((Graph) graph);
+		builder.addRoad("Town_11", "Town_12", 2, "Road_13")
+				.addRoad("Town_12", "Town_11", 2, "Road_13")
+				.addRoad("Town_2", "Town_1", 2, "Road_1")
+				.addRoad("Town_1", "Town_2", 3, "Road_1")
+				.addTown("Town_13");
+		Graph built = builder.build();
+		// only the added roads are matched against each other; Road_1 of the base graph stays
+		assertEquals(1, builder.getDuplicates());
+		assertEquals(13, built.vertexSet().size());
+		assertEquals(15, built.edgeSet().size());
+		assertTrue(built.containsVertex(new Town("Town_13")));
+		assertEquals(graph.shortestPath(town[1], town[6]), built.shortestPath(town[1], town[6]));
+		ArrayList<String> path = built.shortestPath(town[1], new Town("Town_12"));
+		assertEquals("Total miles: 10 miles", path.get(path.size() - 1));
+	}
+
+	@Test
+	public void testAStarWithLocations() {
+		Graph roads = (Graph) graph;
+		ArrayList<String> searched = roads.shortestPath(town[1], town[6]);
+		for (int i = 1; i < 12; i++) {
+			assertTrue(roads.setLocation(town[i], 40 + (i % 4) * 0.01, -75 - (i / 4) * 0.01));
+		}
+		assertFalse(roads.setLocation(new Town("Town_12"), 40, -75));
+		assertEquals(searched, roads.shortestPath(town[1], town[6]));
+		assertEquals(searched, roads.shortestPath(town[1], town[6], WeightProfile.TIME));
+		Town located = roads.town(roads.townId(town[5]));
+		assertEquals(40.01, located.getLatitude(), 1e-9);
+		assertEquals(-75.01, located.getLongitude(), 1e-9);
+		assertEquals(0.69, roads.greatCircleMiles(roads.townId(town[1]), roads.townId(town[2])), 0.01);
+		assertTrue(new GraphBuilder(roads).build().vertexSet().stream().allMatch(Town::hasLocation));
+	}
+
+	@Test
+	public void testRouteOverlay() {
+		Graph grid = new Graph();
+		Town[] towns = new Town[400];
+		java.util.Random random = new java.util.Random(1);
+		for (int i = 0; i < 400; i++) {
+			towns[i] = new Town("Grid_" + i);
+			grid.addVertex(towns[i]);
+			if (i % 20 > 0) {
+				grid.addEdge(towns[i - 1], towns[i], 1 + random.nextInt(9), "Row_" + i);
+			}
+			if (i >= 20) {
+				grid.addEdge(towns[i - 20], towns[i], 1 + random.nextInt(9), "Column_" + i);
+			}
+		}
+		Graph plain = new GraphBuilder(grid).build();
+		RouteOverlay overlay = new RouteOverlay(grid, 8, 3);
+		assertEquals(3, overlay.levels());
+		grid.useOverlay(overlay);
+		for (int round = 0; round < 2; round++) {
+			for (int i = 0; i < 400; i += 7) {
+				for (int j = 0; j < 400; j += 13) {
+					ArrayList<String> expected = plain.shortestPath(towns[i], towns[j]);
+					ArrayList<String> path = grid.shortestPath(towns[i], towns[j]);
+					assertEquals(expected.size() > 0, path.size() > 0);
+					assertEquals(expected.get(expected.size() - 1), path.get(path.size() - 1));
+				}
+			}
+			for (int k = 0; k < 30; k++) {
+				int t = 20 + random.nextInt(380);
+				int miles = 1 + random.nextInt(30);
+				grid.updateWeight(grid.getEdge(towns[t - 20], towns[t]), miles);
+				plain.updateWeight(plain.getEdge(towns[t - 20], towns[t]), miles);
+			}
+		}
+		grid.addEdge(towns[0], towns[399], 1, "Shortcut");
+		assertNull(grid.overlay());
+		assertEquals(Arrays.asList("Grid_0 via Shortcut to Grid_399 1 miles", "Total miles: 1 miles"),
+				grid.shortestPath(towns[0], towns[399]));
+	}
+
+	@Test
+	public void testRemovedRoadView() {
+		Graph roads = (Graph) graph;
+		Road kept = roads.getEdge(town[1], town[2]);
+		roads.removeEdge(town[1], town[2], 2, "Road_1");
+		try {
+			kept.getSource();
+			fail("a view of a removed road should not read the store");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+		Road reused = roads.addEdge(town[4], town[6], 7, "Road_13");
+		try {
+			roads.updateWeight(kept, 1);
+			fail("a view of a removed road should not change the road now using its id");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		assertEquals(7, reused.getWeight());
+		assertFalse(roads.edgeSet().contains(kept));
+	}
+
+	@Test
+	public void testReweightedRoadInHashSet() {
+		Road road = graph.getEdge(town[1], town[2]);
+		Set<Road> roads = new HashSet<>(graph.edgeSet());
+		((Graph) graph).updateWeight(road, 10);
+		assertTrue(roads.contains(road));
+		assertTrue(roads.contains(graph.getEdge(town[1], town[2])));
+		assertTrue(roads.remove(road));
+		assertFalse(roads.contains(road));
+	}
+
+	@Test
+	public void testStringPool() {
+		StringPool pool = new StringPool();
+		String[] names = {"Route 1", "\u00c4rzteweg", "\u74b0\u72b6\u9053\u8def", "\ud83d\udee3 Highway", ""};
+		int[] refs = new int[names.length];
+		for (int i = 0; i < names.length; i++) {
+			assertEquals(-1, pool.find(names[i]));
+			refs[i] = pool.intern(names[i]);
+		}
+		for (int i = 0; i < names.length; i++) {
+			assertEquals(refs[i], pool.intern(names[i]));
+			assertEquals(refs[i], pool.find(names[i]));
+			assertEquals(names[i], pool.get(refs[i]));
+			assertEquals(names[i].hashCode(), pool.hash(refs[i]));
+			assertTrue(pool.contentEquals(refs[i], names[i]));
+			assertFalse(pool.contentEquals(refs[i], names[i] + "x"));
+		}
+		assertFalse(pool.contentEquals(refs[0], "Route"));
+		assertEquals(names.length, pool.size());
+		// enough names to grow the table several times
+		for (int i = 0; i < 5000; i++) {
+			pool.intern("Road_" + i);
+		}
+		for (int i = 0; i < 5000; i++) {
+			assertEquals("Road_" + i, pool.get(pool.find("Road_" + i)));
+		}
+		for (int i = 0; i < names.length; i++) {
+			assertEquals(names[i], pool.get(pool.find(names[i])));
+		}
+	}
+
+	@Test
+	public void testGraphsKeepTheirOwnNames() {
+		Graph other = new Graph();
+		other.addVertex(new Town("Town_1"));
+		other.addVertex(new Town("Elsewhere"));
+		other.addEdge(new Town("Town_1"), new Town("Elsewhere"), 1, "Only_there");
+		assertEquals(-1, ((Graph) graph).names().find("Only_there"));
+		// towns and roads of different graphs still compare by name
+		Town mine = graph.vertexSet().stream().filter(t -> t.getName().equals("Town_1")).findFirst().get();
+		Town theirs = other.vertexSet().stream().filter(t -> t.getName().equals("Town_1")).findFirst().get();
+		assertEquals(mine, theirs);
+		assertEquals(theirs, mine);
+		assertEquals(mine.hashCode(), theirs.hashCode());
+		graph.addVertex(new Town("Elsewhere"));
+		Road road = graph.addEdge(town[1], new Town("Elsewhere"), 1, "Only_there");
+		assertEquals(road, other.getEdge(new Town("Town_1"), new Town("Elsewhere")));
+		assertEquals(road.hashCode(), other.getEdge(new Town("Town_1"), new Town("Elsewhere")).hashCode());
+	}
+
+	@Test
+	public void testIntIntHashMap() {
+		// few keys, so probe runs are long and removals shift entries back often
+		Random random = new Random(41);
+		IntIntHashMap map = new IntIntHashMap(-1);
+		Map<Integer, Integer> expected = new HashMap<>();
+		for (int i = 0; i < 200_000; i++) {
+			int key = random.nextInt(200) - 100;
+			if (random.nextInt(3) == 0) {
+				assertEquals((int) expected.getOrDefault(key, -1), map.remove(key));
+				expected.remove(key);
+			} else {
+				int value = random.nextInt(1000);
+				assertEquals((int) expected.getOrDefault(key, -1), map.put(key, value));
+				expected.put(key, value);
+			}
+			assertEquals(expected.size(), map.size());
+			int probe = random.nextInt(200) - 100;
+			assertEquals((int) expected.getOrDefault(probe, -1), map.get(probe));
+			assertEquals(expected.containsKey(probe), map.containsKey(probe));
+		}
+		for (int key = -100; key < 100; key++) {
+			assertEquals((int) expected.getOrDefault(key, -1), map.get(key));
+		}
+		map.clear();
+		assertEquals(0, map.size());
+		assertFalse(map.containsKey(0));
+	}
+
+	@Test
+	public void testLongIntHashMap() {
+		Random random = new Random(42);
+		LongIntHashMap map = new LongIntHashMap(0);
+		Map<Long, Integer> expected = new HashMap<>();
+		for (int i = 0; i < 200_000; i++) {
+			// keys differing only in their high or low halves, and key 0
+			long key = (long) random.nextInt(12) << 32 | random.nextInt(12);
+			switch (random.nextInt(4)) {
+				case 0:
+					assertEquals((int) expected.getOrDefault(key, 0), map.remove(key));
+					expected.remove(key);
+					break;
+				case 1:
+					int delta = random.nextInt(5) + 1;
+					assertEquals(expected.getOrDefault(key, 0) + delta, map.addTo(key, delta));
+					expected.merge(key, delta, Integer::sum);
+					break;
+				default:
+					int value = random.nextInt(1000) + 1;
+					assertEquals((int) expected.getOrDefault(key, 0), map.put(key, value));
+					expected.put(key, value);
+			}
+			assertEquals(expected.size(), map.size());
+			assertEquals(expected.isEmpty(), map.isEmpty());
+			assertEquals((int) expected.getOrDefault(key, 0), map.get(key));
+			assertEquals(expected.containsKey(key), map.containsKey(key));
+		}
+		for (Map.Entry<Long, Integer> entry : expected.entrySet()) {
+			assertEquals((int) entry.getValue(), map.get(entry.getKey()));
+		}
+	}
+
+	@Test
+	public void testIntMinHeap() {
+		Random random = new Random(43);
+		int items = 300;
+		IntMinHeap heap = new IntMinHeap(items);
+		// the reference queue orders key * items + item; lowering a key replaces the entry
+		PriorityQueue<Long> expected = new PriorityQueue<>();
+		long[] queuedKey = new long[items];
+		Arrays.fill(queuedKey, -1);
+		for (int round = 0; round < 3; round++) {
+			for (int i = 0; i < 100_000; i++) {
+				if (random.nextInt(3) == 0 && !expected.isEmpty()) {
+					long key = expected.peek() / items;
+					assertEquals(key, heap.peekKey());
+					int item = heap.poll();
+					assertEquals(key, queuedKey[item]);
+					assertTrue(expected.remove(key * items + item));
+					queuedKey[item] = -1;
+				} else {
+					int item = random.nextInt(items);
+					long key = random.nextInt(10_000);
+					boolean lowered = queuedKey[item] < 0 || key < queuedKey[item];
+					assertEquals(lowered, heap.offer(item, key));
+					if (lowered) {
+						if (queuedKey[item] >= 0) {
+							expected.remove(queuedKey[item] * items + item);
+						}
+						expected.add(key * items + item);
+						queuedKey[item] = key;
+					}
+				}
+				assertEquals(expected.size(), heap.size());
+			}
+			// clearing leaves the heap ready for the next search
+			heap.clear();
+			expected.clear();
+			Arrays.fill(queuedKey, -1);
+			assertTrue(heap.isEmpty());
+			assertEquals(-1, heap.poll());
+			for (int item = 0; item < items; item++) {
+				assertFalse(heap.contains(item));
+			}
+		}
+	}
+
+	@Test
+	public void testGraphBuilderComparesEveryProfile() {
+		int[] weights = new int[WeightProfile.values().length];
+		Arrays.fill(weights, 5);
+		GraphBuilder builder = new GraphBuilder()
+				.addRoad("A", "B", weights.clone(), "Twin")
+				.addRoad("B", "A", weights.clone(), "Twin");
+		weights[WeightProfile.TIME.ordinal()] = 9;
+		builder.addRoad("A", "B", weights, "Twin");
+		Graph built = builder.build();
+		// the road that differs only in time is not a repeat
+		assertEquals(1, builder.getDuplicates());
+		assertEquals(2, built.edgeSet().size());
+	}
+
+	@Test
+	public void testRoutesFollowLightestParallelRoad() {
+		Graph roads = (Graph) graph;
+		roads.addEdge(town[1], town[2], 5, "Highway_1");
+		roads.dijkstraShortestPath(town[1]);
+		Road highway = roads.roadsBetween(town[1], town[2])
+				.filter(r -> r.getName().equals("Highway_1")).findFirst().get();
+		roads.updateWeight(highway, 1);
+		assertEquals("Highway_1", roads.getEdge(town[2], town[1]).getName());
+		ArrayList<String> path = roads.shortestPath(town[1], town[11]);
+		assertEquals("Town_1 via Highway_1 to Town_2 1 miles", path.get(0));
+		assertEquals("Total miles: 7 miles", path.get(path.size() - 1));
+		assertEquals(path, roads.shortestPath(town[1], town[11], WeightProfile.DISTANCE));
+		roads.updateWeight(highway, 9);
+		assertEquals("Road_1", roads.getEdge(town[1], town[2]).getName());
+		path = roads.shortestPath(town[1], town[11]);
+		assertEquals("Total miles: 8 miles", path.get(path.size() - 1));
+		assertEquals(path, roads.shortestPath(town[1], town[11], WeightProfile.DISTANCE));
+	}
 }
\ No newline at end of file
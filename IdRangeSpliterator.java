@@ -0,0 +1,98 @@
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+import java.util.function.IntPredicate;
+
+/**
+ * Spliterator over a range of dense int ids (town indexes or road ids) that
+ * builds each element from its id on demand and skips ids no longer in use.
+ * It splits by halving the range, rounded to a multiple of a block size so each
+ * half covers whole storage chunks. While no id in the range is free it reports
+ * an exact size, otherwise the range length as an estimate.
+ * @author Ha T Dao
+ * @param <T> the element type
+ */
+class IdRangeSpliterator<T> implements Spliterator<T> {
+
+    /**
+     * Smallest range worth splitting
+     */
+    private static final int MIN_SPLIT = 1024;
+
+    private final IntPredicate live;
+    private final IntFunction<T> element;
+    private final int block;
+    private final boolean exact;
+    private int from;
+    private final int to;
+
+    /**
+     * Creates a spliterator over ids from inclusive to to exclusive
+     * @param live tells whether an id is in use
+     * @param element builds the element for an id in use
+     * @param from first id
+     * @param to one past the last id
+     * @param block split points are rounded to multiples of this
+     * @param exact true if every id in the range is in use
+     */
+    IdRangeSpliterator(IntPredicate live, IntFunction<T> element, int from, int to, int block, boolean exact) {
+        this.live = live;
+        this.element = element;
+        this.from = from;
+        this.to = to;
+        this.block = block;
+        this.exact = exact;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super T> action) {
+        while (from < to) {
+            int id = from++;
+            if (live.test(id)) {
+                action.accept(element.apply(id));
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void forEachRemaining(Consumer<? super T> action) {
+        int end = to;
+        for (int id = from; id < end; id++) {
+            if (live.test(id)) {
+                action.accept(element.apply(id));
+            }
+        }
+        from = end;
+    }
+
+    @Override
+    public Spliterator<T> trySplit() {
+        int length = to - from;
+        if (length < MIN_SPLIT) {
+            return null;
+        }
+        int middle = from + length / 2;
+        if (length >= 2 * block) {
+            middle = middle / block * block;
+        }
+        if (middle <= from || middle >= to) {
+            return null;
+        }
+        Spliterator<T> prefix = new IdRangeSpliterator<>(live, element, from, middle, block, exact);
+        from = middle;
+        return prefix;
+    }
+
+    @Override
+    public long estimateSize() {
+        return to - from;
+    }
+
+    @Override
+    public int characteristics() {
+        int c = NONNULL | DISTINCT;
+        return exact ? c | SIZED | SUBSIZED : c;
+    }
+}
@@ -0,0 +1,114 @@
+import java.util.Arrays;
+
+/**
+ * Growable list of ints, for town and road indexes on the routing paths where an
+ * ArrayList would box every element.
+ * @author Ha T Dao
+ */
+class IntArrayList {
+
+    private int[] items;
+    private int size;
+
+    /**
+     * Creates an empty list
+     */
+    IntArrayList() {
+        this(16);
+    }
+
+    /**
+     * Creates an empty list with room for some items
+     * @param capacity items held before the list has to grow
+     */
+    IntArrayList(int capacity) {
+        items = new int[Math.max(capacity, 1)];
+    }
+
+    /**
+     * Appends an item
+     * @param item the item
+     */
+    void add(int item) {
+        if (size == items.length) {
+            items = Arrays.copyOf(items, size * 2);
+        }
+        items[size++] = item;
+    }
+
+    /**
+     * Appends all items of another list
+     * @param other the list to append
+     */
+    void addAll(IntArrayList other) {
+        addAll(other.items, other.size);
+    }
+
+    /**
+     * Appends the first items of an array
+     * @param values the array
+     * @param count how many of its items to append
+     */
+    void addAll(int[] values, int count) {
+        if (size + count > items.length) {
+            items = Arrays.copyOf(items, Math.max(size + count, items.length * 2));
+        }
+        System.arraycopy(values, 0, items, size, count);
+        size += count;
+    }
+
+    /**
+     * Returns an item
+     * @param i position of the item
+     * @return the item
+     * @throws IndexOutOfBoundsException if i is not below size()
+     */
+    int get(int i) {
+        if (i >= size) {
+            throw new IndexOutOfBoundsException(i + " >= " + size);
+        }
+        return items[i];
+    }
+
+    /**
+     * Returns the number of items
+     * @return the size
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Checks whether the list holds no items
+     * @return true if empty
+     */
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Removes all items, keeping the storage
+     */
+    void clear() {
+        size = 0;
+    }
+
+    /**
+     * Reverses the order of the items in place
+     */
+    void reverse() {
+        for (int i = 0, j = size - 1; i < j; i++, j--) {
+            int swap = items[i];
+            items[i] = items[j];
+            items[j] = swap;
+        }
+    }
+
+    /**
+     * Copies the items into an array of their own
+     * @return the items
+     */
+    int[] toArray() {
+        return Arrays.copyOf(items, size);
+    }
+}
@@ -0,0 +1,177 @@
+import java.util.Arrays;
+
+/**
+ * Map from int to int with open addressing and linear probing, so lookups neither
+ * box their keys nor allocate entries. Key 0 marks a free slot in the table and is
+ * kept aside; removal shifts later entries of the probe run back instead of
+ * leaving tombstones.
+ * @author Ha T Dao
+ */
+class IntIntHashMap {
+
+    private final int noValue;
+    private int[] keys;
+    private int[] values;
+    private int mask;
+    private int size;
+    private boolean hasZeroKey;
+    private int zeroValue;
+
+    /**
+     * Creates an empty map
+     * @param noValue what get returns for a key that is not in the map
+     */
+    IntIntHashMap(int noValue) {
+        this.noValue = noValue;
+        keys = new int[16];
+        values = new int[16];
+        mask = 15;
+    }
+
+    /**
+     * Returns the value of a key
+     * @param key the key
+     * @return its value, or the map's no-value if it has none
+     */
+    int get(int key) {
+        if (key == 0) {
+            return hasZeroKey ? zeroValue : noValue;
+        }
+        for (int slot = slot(key); keys[slot] != 0; slot = (slot + 1) & mask) {
+            if (keys[slot] == key) {
+                return values[slot];
+            }
+        }
+        return noValue;
+    }
+
+    /**
+     * Checks whether a key has a value
+     * @param key the key
+     * @return true if it is in the map
+     */
+    boolean containsKey(int key) {
+        if (key == 0) {
+            return hasZeroKey;
+        }
+        for (int slot = slot(key); keys[slot] != 0; slot = (slot + 1) & mask) {
+            if (keys[slot] == key) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Sets the value of a key
+     * @param key the key
+     * @param value the value
+     * @return the previous value, or the map's no-value if there was none
+     */
+    int put(int key, int value) {
+        if (key == 0) {
+            int previous = hasZeroKey ? zeroValue : noValue;
+            if (!hasZeroKey) {
+                hasZeroKey = true;
+                size++;
+            }
+            zeroValue = value;
+            return previous;
+        }
+        int slot = slot(key);
+        for (; keys[slot] != 0; slot = (slot + 1) & mask) {
+            if (keys[slot] == key) {
+                int previous = values[slot];
+                values[slot] = value;
+                return previous;
+            }
+        }
+        keys[slot] = key;
+        values[slot] = value;
+        if (++size > keys.length / 2) {
+            grow();
+        }
+        return noValue;
+    }
+
+    /**
+     * Removes a key
+     * @param key the key
+     * @return its value, or the map's no-value if it had none
+     */
+    int remove(int key) {
+        if (key == 0) {
+            if (!hasZeroKey) {
+                return noValue;
+            }
+            hasZeroKey = false;
+            size--;
+            return zeroValue;
+        }
+        for (int slot = slot(key); keys[slot] != 0; slot = (slot + 1) & mask) {
+            if (keys[slot] == key) {
+                int previous = values[slot];
+                size--;
+                shiftBack(slot);
+                return previous;
+            }
+        }
+        return noValue;
+    }
+
+    /**
+     * Returns the number of keys
+     * @return the size
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Removes every key, keeping the table
+     */
+    void clear() {
+        Arrays.fill(keys, 0);
+        hasZeroKey = false;
+        size = 0;
+    }
+
+    /**
+     * Closes the gap left at a slot by moving back entries that probed past it
+     */
+    private void shiftBack(int gap) {
+        for (int slot = (gap + 1) & mask; keys[slot] != 0; slot = (slot + 1) & mask) {
+            int home = slot(keys[slot]);
+            // move the entry if the gap lies on its probe run from home to slot
+            if (((slot - home) & mask) >= ((slot - gap) & mask)) {
+                keys[gap] = keys[slot];
+                values[gap] = values[slot];
+                gap = slot;
+            }
+        }
+        keys[gap] = 0;
+    }
+
+    private void grow() {
+        int[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new int[oldKeys.length * 2];
+        values = new int[oldKeys.length * 2];
+        mask = keys.length - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != 0) {
+                int slot = slot(oldKeys[i]);
+                while (keys[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    private int slot(int key) {
+        int h = key * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+}
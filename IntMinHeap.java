@@ -0,0 +1,169 @@
+import java.util.Arrays;
+
+/**
+ * Binary min-heap of int items (town indexes) ordered by long keys, indexed so a
+ * queued item's key can be lowered in place. Each item is queued at most once,
+ * so searches need no stale-entry checks and the heap never grows past the
+ * number of towns. Clearing only touches the items still queued, so one heap can
+ * be reused across searches.
+ * @author Ha T Dao
+ */
+class IntMinHeap {
+
+    /**
+     * Queued items in heap order
+     */
+    private int[] heap;
+
+    /**
+     * Key of the item in each heap slot
+     */
+    private long[] keys;
+
+    /**
+     * Heap slot of each item, -1 if it is not queued
+     */
+    private int[] position;
+
+    private int size;
+
+    /**
+     * Creates an empty heap
+     * @param capacity items may range from 0 to capacity - 1
+     */
+    IntMinHeap(int capacity) {
+        heap = new int[Math.max(capacity, 1)];
+        keys = new long[heap.length];
+        position = new int[heap.length];
+        Arrays.fill(position, -1);
+    }
+
+    /**
+     * Makes room for items up to capacity - 1
+     * @param capacity the number of items
+     */
+    void ensureCapacity(int capacity) {
+        if (capacity > position.length) {
+            int old = position.length;
+            int grown = Math.max(capacity, old * 2);
+            heap = Arrays.copyOf(heap, grown);
+            keys = Arrays.copyOf(keys, grown);
+            position = Arrays.copyOf(position, grown);
+            Arrays.fill(position, old, grown, -1);
+        }
+    }
+
+    /**
+     * Queues an item, or lowers its key if it is queued with a larger one
+     * @param item the item
+     * @param key its key
+     * @return true if the item was queued or its key lowered
+     */
+    boolean offer(int item, long key) {
+        int slot = position[item];
+        if (slot < 0) {
+            slot = size++;
+        } else if (key >= keys[slot]) {
+            return false;
+        }
+        siftUp(slot, item, key);
+        return true;
+    }
+
+    /**
+     * Removes the item with the smallest key
+     * @return the item, or -1 if the heap is empty
+     */
+    int poll() {
+        if (size == 0) {
+            return -1;
+        }
+        int top = heap[0];
+        position[top] = -1;
+        if (--size > 0) {
+            siftDown(0, heap[size], keys[size]);
+        }
+        return top;
+    }
+
+    /**
+     * Returns the smallest key
+     * @return the key of the item poll would return
+     * @throws IllegalStateException if the heap is empty
+     */
+    long peekKey() {
+        if (size == 0) {
+            throw new IllegalStateException("Empty heap");
+        }
+        return keys[0];
+    }
+
+    /**
+     * Checks whether an item is queued
+     * @param item the item
+     * @return true if it is in the heap
+     */
+    boolean contains(int item) {
+        return item < position.length && position[item] >= 0;
+    }
+
+    /**
+     * Checks whether the heap is empty
+     * @return true if no item is queued
+     */
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Returns the number of queued items
+     * @return the size
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Removes every item
+     */
+    void clear() {
+        for (int i = 0; i < size; i++) {
+            position[heap[i]] = -1;
+        }
+        size = 0;
+    }
+
+    private void siftUp(int slot, int item, long key) {
+        while (slot > 0) {
+            int parent = (slot - 1) >>> 1;
+            if (keys[parent] <= key) {
+                break;
+            }
+            place(slot, heap[parent], keys[parent]);
+            slot = parent;
+        }
+        place(slot, item, key);
+    }
+
+    private void siftDown(int slot, int item, long key) {
+        int half = size >>> 1;
+        while (slot < half) {
+            int child = 2 * slot + 1;
+            if (child + 1 < size && keys[child + 1] < keys[child]) {
+                child++;
+            }
+            if (key <= keys[child]) {
+                break;
+            }
+            place(slot, heap[child], keys[child]);
+            slot = child;
+        }
+        place(slot, item, key);
+    }
+
+    private void place(int slot, int item, long key) {
+        heap[slot] = item;
+        keys[slot] = key;
+        position[item] = slot;
+    }
+}
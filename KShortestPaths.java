@@ -0,0 +1,339 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Yen's algorithm for the k shortest loopless paths between two towns of a Graph.
+ * <p>
+ * Three things keep it cheap on road maps:
+ * <ul>
+ * <li>the shortest path tree rooted at the destination gives the exact distance
+ * to the destination from every town; a spur search uses it as an A* estimate, and
+ * when the tree path from the spur town avoids every removed road and town it is
+ * the spur path and no search is needed at all,</li>
+ * <li>candidates are lazy: a deviation is queued with the lower bound root cost +
+ * tree distance and its spur path is only searched when it reaches the head of the queue,</li>
+ * <li>once enough candidates are known, a spur search gives up as soon as it cannot
+ * beat the current k-th best cost.</li>
+ * </ul>
+ * Following Lawler, a new path only branches at or after the town where it left its parent.
+ * @author Ha T Dao
+ */
+class KShortestPaths {
+
+    private final EdgeStore edges;
+    private final int source;
+    private final int destination;
+    private final int k;
+
+    /**
+     * Shortest path tree rooted at the destination; roads are bidirectional so it
+     * holds the distance from every town to the destination
+     */
+    private final ShortestPathTree toDestination;
+
+    /**
+     * Paths found so far, shortest first
+     */
+    private final ArrayList<YenPath> accepted = new ArrayList<>();
+
+    /**
+     * Accepted or queued paths, keyed by themselves (by road sequence), so none is returned twice
+     */
+    private final Map<YenPath, YenPath> seen = new HashMap<>();
+
+    /**
+     * Deviations still to be explored, by lower bound (lazy) or exact cost (resolved)
+     */
+    private final PriorityQueue<Candidate> candidates = new PriorityQueue<>();
+
+    /**
+     * Open towns of a spur search by estimated total cost, reused by every search
+     */
+    private final IntMinHeap open;
+
+    /**
+     * Sets up a search
+     * @param graph the graph to search
+     * @param source index of the first town
+     * @param destination index of the last town
+     * @param k the number of paths wanted
+     * @param toDestination shortest path tree rooted at the destination
+     */
+    KShortestPaths(Graph graph, int source, int destination, int k, ShortestPathTree toDestination) {
+        this.edges = graph.edges();
+        this.source = source;
+        this.destination = destination;
+        this.k = k;
+        this.toDestination = toDestination;
+        open = new IntMinHeap(graph.townCapacity());
+    }
+
+    /**
+     * Finds up to k shortest loopless paths, shortest first
+     * @return the road id sequences of the paths
+     */
+    List<int[]> run() {
+        List<int[]> result = new ArrayList<>();
+        if (toDestination.distanceTo(source) == ShortestPathTree.UNREACHABLE) {
+            return result;
+        }
+        YenPath first = treePath(source, 0, new int[0], new int[0], null, null);
+        first.deviation = 0;
+        seen.put(first, first);
+        accept(first);
+
+        while (accepted.size() < k && !candidates.isEmpty()) {
+            Candidate c = candidates.poll();
+            if (c.resolved != null) {
+                accept(c.resolved);
+            } else {
+                YenPath spur = resolve(c.parent, c.index);
+                if (spur != null) {
+                    YenPath queued = seen.putIfAbsent(spur, spur);
+                    if (queued == null) {
+                        candidates.add(new Candidate(spur.cost, null, 0, spur));
+                    } else {
+                        // reached again from an earlier branch point: it must branch from there too
+                        queued.deviation = Math.min(queued.deviation, spur.deviation);
+                    }
+                }
+            }
+        }
+        for (YenPath p : accepted) {
+            result.add(p.roads);
+        }
+        return result;
+    }
+
+    /**
+     * Adds a path to the result and queues its deviations
+     * @param path the next shortest path
+     */
+    private void accept(YenPath path) {
+        accepted.add(path);
+        int rootCost = 0;
+        for (int i = 0; i < path.roads.length; i++) {
+            if (i >= path.deviation) {
+                int h = toDestination.distanceTo(path.nodes[i]);
+                candidates.add(new Candidate(rootCost + h, path, i, null));
+            }
+            rootCost += edges.weight(path.roads[i]);
+        }
+    }
+
+    /**
+     * Finds the best path that follows a path up to one of its towns and then leaves
+     * it by a road no accepted path with the same beginning takes
+     * @param parent the path to branch from
+     * @param index position in the parent of the town to branch at
+     * @return the new path, or null if there is none within the current bound
+     */
+    private YenPath resolve(YenPath parent, int index) {
+        BitSet removedRoads = new BitSet();
+        for (YenPath p : accepted) {
+            if (p.roads.length > index && samePrefix(p, parent, index)) {
+                removedRoads.set(p.roads[index]);
+            }
+        }
+        BitSet removedTowns = new BitSet();
+        int rootCost = 0;
+        for (int i = 0; i < index; i++) {
+            removedTowns.set(parent.nodes[i]);
+            rootCost += edges.weight(parent.roads[i]);
+        }
+        int[] rootNodes = Arrays.copyOf(parent.nodes, index);
+        int[] rootRoads = Arrays.copyOf(parent.roads, index);
+        int spur = parent.nodes[index];
+
+        YenPath path = treePath(spur, rootCost, rootNodes, rootRoads, removedRoads, removedTowns);
+        if (path == null) {
+            path = search(spur, rootCost, rootNodes, rootRoads, removedRoads, removedTowns);
+        }
+        if (path != null) {
+            path.deviation = index;
+        }
+        return path;
+    }
+
+    /**
+     * Follows the destination tree from a town, if that route avoids the removed
+     * roads and towns it is the best spur path
+     * @return the full path, or null if the tree route is blocked
+     */
+    private YenPath treePath(int spur, int rootCost, int[] rootNodes, int[] rootRoads,
+            BitSet removedRoads, BitSet removedTowns) {
+        IntArrayList roads = new IntArrayList(rootRoads.length + 16);
+        roads.addAll(rootRoads, rootRoads.length);
+        IntArrayList nodes = new IntArrayList(rootNodes.length + 16);
+        nodes.addAll(rootNodes, rootNodes.length);
+        int at = spur;
+        while (at != destination) {
+            int r = toDestination.parentRoad(at);
+            if (removedRoads != null && removedRoads.get(r)) {
+                return null;
+            }
+            int next = edges.other(r, at);
+            if (removedTowns != null && removedTowns.get(next)) {
+                return null;
+            }
+            nodes.add(at);
+            roads.add(r);
+            at = next;
+        }
+        nodes.add(destination);
+        return new YenPath(nodes, roads, rootCost + toDestination.distanceTo(spur));
+    }
+
+    /**
+     * A* search from the spur town to the destination around the removed roads and
+     * towns, guided by the exact unrestricted distances of the destination tree
+     * @return the full path, or null if none exists within the current bound
+     */
+    private YenPath search(int spur, int rootCost, int[] rootNodes, int[] rootRoads,
+            BitSet removedRoads, BitSet removedTowns) {
+        int limit = bound() - rootCost;
+        IntIntHashMap best = new IntIntHashMap(-1);
+        IntIntHashMap via = new IntIntHashMap(-1);
+        open.clear();
+        best.put(spur, 0);
+        open.offer(spur, toDestination.distanceTo(spur));
+        while (!open.isEmpty()) {
+            if (open.peekKey() > limit) {
+                return null;
+            }
+            int at = open.poll();
+            int g = best.get(at);
+            if (at == destination) {
+                break;
+            }
+            for (int r = edges.first(at); r >= 0; r = edges.next(r, at)) {
+                int next = edges.other(r, at);
+                int h = toDestination.distanceTo(next);
+                if (removedRoads.get(r) || removedTowns.get(next) || h == ShortestPathTree.UNREACHABLE) {
+                    continue;
+                }
+                int candidate = g + edges.weight(r);
+                int known = best.get(next);
+                if (known < 0 || candidate < known) {
+                    best.put(next, candidate);
+                    via.put(next, r);
+                    open.offer(next, (long) candidate + h);
+                }
+            }
+        }
+        if (!via.containsKey(destination)) {
+            return null;
+        }
+        IntArrayList spurRoads = new IntArrayList();
+        IntArrayList spurNodes = new IntArrayList();
+        for (int at = destination; at != spur; ) {
+            int r = via.get(at);
+            spurRoads.add(r);
+            spurNodes.add(at);
+            at = edges.other(r, at);
+        }
+        spurNodes.add(spur);
+        spurRoads.reverse();
+        spurNodes.reverse();
+        IntArrayList roads = new IntArrayList(rootRoads.length + spurRoads.size());
+        roads.addAll(rootRoads, rootRoads.length);
+        roads.addAll(spurRoads);
+        IntArrayList nodes = new IntArrayList(rootNodes.length + spurNodes.size());
+        nodes.addAll(rootNodes, rootNodes.length);
+        nodes.addAll(spurNodes);
+        return new YenPath(nodes, roads, rootCost + best.get(destination));
+    }
+
+    /**
+     * Returns the cost no new path may exceed: once the queue holds enough resolved
+     * candidates to fill the result, the worst of those
+     * @return the bound, or Integer.MAX_VALUE while there is none
+     */
+    private int bound() {
+        int needed = k - accepted.size();
+        IntArrayList costs = new IntArrayList();
+        for (Candidate c : candidates) {
+            if (c.resolved != null) {
+                costs.add(c.resolved.cost);
+            }
+        }
+        if (costs.size() < needed) {
+            return Integer.MAX_VALUE;
+        }
+        int[] sorted = costs.toArray();
+        Arrays.sort(sorted);
+        return sorted[needed - 1];
+    }
+
+    /**
+     * Checks whether two paths take the same roads up to a position; with
+     * parallel roads the same towns are not enough
+     */
+    private static boolean samePrefix(YenPath a, YenPath b, int index) {
+        for (int i = 0; i < index; i++) {
+            if (a.roads[i] != b.roads[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * A loopless path: its towns, road ids and cost, and where it left its parent path.
+     * Paths are equal when they take the same roads.
+     */
+    private static class YenPath {
+        final int[] nodes;
+        final int[] roads;
+        final int cost;
+        int deviation;
+
+        YenPath(IntArrayList nodes, IntArrayList roads, int cost) {
+            this.nodes = nodes.toArray();
+            this.roads = roads.toArray();
+            this.cost = cost;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof YenPath && Arrays.equals(roads, ((YenPath) obj).roads);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(roads);
+        }
+    }
+
+    /**
+     * A queued deviation: lazy (parent and index, priority a lower bound) or
+     * resolved (the path itself, priority its cost)
+     */
+    private static class Candidate implements Comparable<Candidate> {
+        final int priority;
+        final YenPath parent;
+        final int index;
+        final YenPath resolved;
+
+        Candidate(int priority, YenPath parent, int index, YenPath resolved) {
+            this.priority = priority;
+            this.parent = parent;
+            this.index = index;
+            this.resolved = resolved;
+        }
+
+        @Override
+        public int compareTo(Candidate other) {
+            if (priority != other.priority) {
+                return Integer.compare(priority, other.priority);
+            }
+            // at equal cost resolve pending deviations after accepting known paths
+            return Boolean.compare(resolved == null, other.resolved == null);
+        }
+    }
+}
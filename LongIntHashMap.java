@@ -0,0 +1,205 @@
+import java.util.Arrays;
+
+/**
+ * Map from long to int with open addressing and linear probing, for counting
+ * 64-bit hashes without boxing them. Key 0 marks a free slot in the table and is
+ * kept aside; removal shifts later entries of the probe run back instead of
+ * leaving tombstones.
+ * @author Ha T Dao
+ */
+class LongIntHashMap {
+
+    private final int noValue;
+    private long[] keys;
+    private int[] values;
+    private int mask;
+    private int size;
+    private boolean hasZeroKey;
+    private int zeroValue;
+
+    /**
+     * Creates an empty map
+     * @param noValue what get returns for a key that is not in the map
+     */
+    LongIntHashMap(int noValue) {
+        this.noValue = noValue;
+        keys = new long[16];
+        values = new int[16];
+        mask = 15;
+    }
+
+    /**
+     * Returns the value of a key
+     * @param key the key
+     * @return its value, or the map's no-value if it has none
+     */
+    int get(long key) {
+        if (key == 0) {
+            return hasZeroKey ? zeroValue : noValue;
+        }
+        for (int slot = slot(key); keys[slot] != 0; slot = (slot + 1) & mask) {
+            if (keys[slot] == key) {
+                return values[slot];
+            }
+        }
+        return noValue;
+    }
+
+    /**
+     * Sets the value of a key
+     * @param key the key
+     * @param value the value
+     * @return the previous value, or the map's no-value if there was none
+     */
+    int put(long key, int value) {
+        if (key == 0) {
+            int previous = hasZeroKey ? zeroValue : noValue;
+            if (!hasZeroKey) {
+                hasZeroKey = true;
+                size++;
+            }
+            zeroValue = value;
+            return previous;
+        }
+        int slot = slot(key);
+        for (; keys[slot] != 0; slot = (slot + 1) & mask) {
+            if (keys[slot] == key) {
+                int previous = values[slot];
+                values[slot] = value;
+                return previous;
+            }
+        }
+        keys[slot] = key;
+        values[slot] = value;
+        if (++size > keys.length / 2) {
+            grow();
+        }
+        return noValue;
+    }
+
+    /**
+     * Adds to the value of a key, a key without one counting as 0
+     * @param key the key
+     * @param delta the amount to add
+     * @return the new value
+     */
+    int addTo(long key, int delta) {
+        if (key != 0) {
+            for (int slot = slot(key); keys[slot] != 0; slot = (slot + 1) & mask) {
+                if (keys[slot] == key) {
+                    return values[slot] += delta;
+                }
+            }
+        } else if (hasZeroKey) {
+            return zeroValue += delta;
+        }
+        put(key, delta);
+        return delta;
+    }
+
+    /**
+     * Checks whether a key has a value
+     * @param key the key
+     * @return true if it is in the map
+     */
+    boolean containsKey(long key) {
+        if (key == 0) {
+            return hasZeroKey;
+        }
+        for (int slot = slot(key); keys[slot] != 0; slot = (slot + 1) & mask) {
+            if (keys[slot] == key) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Removes a key
+     * @param key the key
+     * @return its value, or the map's no-value if it had none
+     */
+    int remove(long key) {
+        if (key == 0) {
+            if (!hasZeroKey) {
+                return noValue;
+            }
+            hasZeroKey = false;
+            size--;
+            return zeroValue;
+        }
+        for (int slot = slot(key); keys[slot] != 0; slot = (slot + 1) & mask) {
+            if (keys[slot] == key) {
+                int previous = values[slot];
+                size--;
+                shiftBack(slot);
+                return previous;
+            }
+        }
+        return noValue;
+    }
+
+    /**
+     * Returns the number of keys
+     * @return the size
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Checks whether the map holds no keys
+     * @return true if empty
+     */
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Removes every key, keeping the table
+     */
+    void clear() {
+        Arrays.fill(keys, 0);
+        hasZeroKey = false;
+        size = 0;
+    }
+
+    /**
+     * Closes the gap left at a slot by moving back entries that probed past it
+     */
+    private void shiftBack(int gap) {
+        for (int slot = (gap + 1) & mask; keys[slot] != 0; slot = (slot + 1) & mask) {
+            int home = slot(keys[slot]);
+            // move the entry if the gap lies on its probe run from home to slot
+            if (((slot - home) & mask) >= ((slot - gap) & mask)) {
+                keys[gap] = keys[slot];
+                values[gap] = values[slot];
+                gap = slot;
+            }
+        }
+        keys[gap] = 0;
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new long[oldKeys.length * 2];
+        values = new int[oldKeys.length * 2];
+        mask = keys.length - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != 0) {
+                int slot = slot(oldKeys[i]);
+                while (keys[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    private int slot(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+}
@@ -0,0 +1,503 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Write-ahead journal of the changes made through a TownGraphManager, so the graph
+ * can be recovered after a crash by loading the last checkpoint and replaying the
+ * changes made since.
+ * <p>
+ * A directory holds two files. checkpoint.bin is a snapshot of every town and
+ * road with its weight in every profile, and the location of every located town.
+ * Road names are written after a flag saying whether the road has one at all.
+ * journal.log is a header followed by one record per change, each framed as its
+ * length, a type byte with its fields, and a CRC-32, so a record torn by a crash
+ * is recognized and dropped. Both files carry a generation number: a
+ * checkpoint starts a new generation and a journal of an older generation (left
+ * behind by a crash during a checkpoint) is already in the snapshot and is ignored.
+ * <p>
+ * Appending only buffers a record. Writers then wait in awaitDurable, where one of
+ * them writes and forces everything buffered so far while the others wait for it,
+ * so a burst of changes from many threads shares one fsync (group commit).
+ * @author Ha T Dao
+ */
+class MutationJournal implements Closeable {
+
+    private static final int JOURNAL_MAGIC = 0x54474a31;
+    private static final int CHECKPOINT_MAGIC = 0x54474331;
+    private static final int HEADER_SIZE = 12;
+
+    private static final byte ADD_TOWN = 1;
+    private static final byte ADD_ROAD = 2;
+    private static final byte DELETE_ROAD = 3;
+    private static final byte DELETE_TOWN = 4;
+    private static final byte SET_WEIGHTS = 5;
+    private static final byte SET_PROFILE_WEIGHTS = 6;
+    private static final byte SET_LOCATION = 7;
+
+    private final File checkpointFile;
+    private final File journalFile;
+    private final FileChannel channel;
+
+    /**
+     * Generation of the current checkpoint and journal
+     */
+    private long generation;
+
+    /**
+     * Records appended but not yet written to the file
+     */
+    private final ByteArrayOutputStream pending = new ByteArrayOutputStream();
+
+    /**
+     * Sequence number of the last record appended
+     */
+    private long appended;
+
+    /**
+     * Sequence number of the last record known to be on disk
+     */
+    private long durable;
+
+    /**
+     * Set while a writer is writing and forcing a batch
+     */
+    private boolean flushing;
+
+    /**
+     * Bytes in the journal, including pending records
+     */
+    private long size;
+
+    /**
+     * Opens the journal in a directory, creating the directory if needed
+     * @param directory the directory holding the checkpoint and the journal
+     * @throws IOException if the files cannot be opened
+     */
+    MutationJournal(File directory) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        checkpointFile = new File(directory, "checkpoint.bin");
+        journalFile = new File(directory, "journal.log");
+        channel = FileChannel.open(journalFile.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    /**
+     * Rebuilds the journaled graph in a manager: loads the checkpoint, replays
+     * the journal records of the same generation and drops a torn last record.
+     * The manager must not be journaling yet, so the replayed changes are not
+     * journaled again.
+     * @param manager the manager to rebuild the graph in
+     * @return true if there was a checkpoint to recover, false for a new directory
+     * @throws IOException if the checkpoint cannot be read
+     */
+    synchronized boolean recover(TownGraphManager manager) throws IOException {
+        if (!checkpointFile.exists()) {
+            return false;
+        }
+        generation = loadCheckpoint(manager);
+        long end = 0;
+        if (channel.size() >= HEADER_SIZE) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(journalFile)))) {
+                if (in.readInt() == JOURNAL_MAGIC && in.readLong() == generation) {
+                    end = HEADER_SIZE;
+                    byte[] record;
+                    while ((record = readRecord(in)) != null) {
+                        replay(record, manager);
+                        end += record.length + 8;
+                    }
+                }
+            }
+        }
+        if (end == 0) {
+            // no journal for this checkpoint yet
+            startJournal();
+        } else {
+            channel.truncate(end);
+            channel.position(end);
+            size = end;
+        }
+        return true;
+    }
+
+    /**
+     * Records that a town was added
+     * @return the record's sequence number
+     */
+    long addTown(String town) throws IOException {
+        Record r = new Record(ADD_TOWN);
+        r.out.writeUTF(town);
+        return append(r);
+    }
+
+    /**
+     * Records that a road was added
+     * @return the record's sequence number
+     */
+    long addRoad(String town1, String town2, int weight, String road) throws IOException {
+        Record r = new Record(ADD_ROAD);
+        r.out.writeUTF(town1);
+        r.out.writeUTF(town2);
+        r.out.writeInt(weight);
+        writeName(r.out, road);
+        return append(r);
+    }
+
+    /**
+     * Records that a road was deleted, with its weight to tell it from other roads
+     * of the same name between the towns
+     * @return the record's sequence number
+     */
+    long deleteRoad(String town1, String town2, int weight, String road) throws IOException {
+        Record r = new Record(DELETE_ROAD);
+        r.out.writeUTF(town1);
+        r.out.writeUTF(town2);
+        r.out.writeInt(weight);
+        writeName(r.out, road);
+        return append(r);
+    }
+
+    /**
+     * Records that a town was deleted
+     * @return the record's sequence number
+     */
+    long deleteTown(String town) throws IOException {
+        Record r = new Record(DELETE_TOWN);
+        r.out.writeUTF(town);
+        return append(r);
+    }
+
+    /**
+     * Records that a batch of weight changes was applied
+     * @param changes new weight by road name
+     * @return the record's sequence number
+     */
+    long setWeights(Map<String, Integer> changes) throws IOException {
+        Record r = new Record(SET_WEIGHTS);
+        r.out.writeInt(changes.size());
+        for (Map.Entry<String, Integer> change : changes.entrySet()) {
+            r.out.writeUTF(change.getKey());
+            r.out.writeInt(change.getValue());
+        }
+        return append(r);
+    }
+
+    /**
+     * Records that a batch of weight changes was applied to a profile
+     * @param profile the profile changed
+     * @param changes new weight by road name
+     * @return the record's sequence number
+     */
+    long setWeights(WeightProfile profile, Map<String, Integer> changes) throws IOException {
+        Record r = new Record(SET_PROFILE_WEIGHTS);
+        r.out.writeByte(profile.ordinal());
+        r.out.writeInt(changes.size());
+        for (Map.Entry<String, Integer> change : changes.entrySet()) {
+            r.out.writeUTF(change.getKey());
+            r.out.writeInt(change.getValue());
+        }
+        return append(r);
+    }
+
+    /**
+     * Records that a town was given a location
+     * @return the record's sequence number
+     */
+    long setLocation(String town, double latitude, double longitude) throws IOException {
+        Record r = new Record(SET_LOCATION);
+        r.out.writeUTF(town);
+        r.out.writeDouble(latitude);
+        r.out.writeDouble(longitude);
+        return append(r);
+    }
+
+    /**
+     * Returns once a record and every record before it are on disk. If no other
+     * thread is writing, this one writes and forces everything appended so far;
+     * otherwise it waits for that thread, whose batch may already cover the record.
+     * @param sequence the record's sequence number
+     * @throws IOException if the journal cannot be written
+     */
+    void awaitDurable(long sequence) throws IOException {
+        byte[] batch;
+        long upTo;
+        synchronized (this) {
+            while (durable < sequence && flushing) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException();
+                }
+            }
+            if (durable >= sequence) {
+                return;
+            }
+            flushing = true;
+            batch = pending.toByteArray();
+            pending.reset();
+            upTo = appended;
+        }
+        boolean written = false;
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(batch);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+            written = true;
+        } finally {
+            synchronized (this) {
+                flushing = false;
+                if (written) {
+                    durable = Math.max(durable, upTo);
+                }
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Returns the size of the journal, to decide when to checkpoint
+     * @return bytes written or waiting to be written
+     */
+    synchronized long size() {
+        return size;
+    }
+
+    /**
+     * Writes a snapshot of the graph as the new checkpoint and starts an empty
+     * journal. The caller must keep the graph from changing meanwhile. The snapshot
+     * is written to a temporary file and forced before it replaces the old one, so
+     * a crash at any point leaves a checkpoint and journal that recover correctly.
+     * @param graph the graph, holding every change appended so far
+     * @throws IOException if the checkpoint cannot be written
+     */
+    synchronized void checkpoint(Graph graph) throws IOException {
+        while (flushing) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+        }
+        File temp = new File(checkpointFile.getPath() + ".tmp");
+        try (FileOutputStream file = new FileOutputStream(temp);
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file, 1 << 16))) {
+            out.writeInt(CHECKPOINT_MAGIC);
+            out.writeLong(generation + 1);
+            Map<Town, Integer> ids = new HashMap<>();
+            out.writeInt(graph.vertexSet().size());
+            for (Town t : graph.vertexSet()) {
+                ids.put(t, ids.size());
+                out.writeUTF(t.getName());
+                out.writeBoolean(t.hasLocation());
+                if (t.hasLocation()) {
+                    out.writeDouble(t.getLatitude());
+                    out.writeDouble(t.getLongitude());
+                }
+            }
+            out.writeInt(graph.edgeSet().size());
+            for (Road r : graph.edgeSet()) {
+                out.writeInt(ids.get(r.getSource()));
+                out.writeInt(ids.get(r.getDestination()));
+                for (WeightProfile p : WeightProfile.values()) {
+                    out.writeInt(r.getWeight(p));
+                }
+                writeName(out, r.getName());
+            }
+            out.flush();
+            file.getFD().sync();
+        }
+        Files.move(temp.toPath(), checkpointFile.toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        generation++;
+        // everything appended so far is in the snapshot
+        pending.reset();
+        durable = appended;
+        startJournal();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        channel.close();
+    }
+
+    private synchronized long append(Record record) throws IOException {
+        byte[] body = record.bytes.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(body);
+        DataOutputStream out = new DataOutputStream(pending);
+        out.writeInt(body.length);
+        out.write(body);
+        out.writeInt((int) crc.getValue());
+        size += body.length + 8;
+        return ++appended;
+    }
+
+    /**
+     * Empties the journal and writes the header of the current generation
+     */
+    private void startJournal() throws IOException {
+        channel.truncate(0);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(JOURNAL_MAGIC).putLong(generation).flip();
+        channel.position(0);
+        while (header.hasRemaining()) {
+            channel.write(header);
+        }
+        channel.force(false);
+        size = HEADER_SIZE;
+    }
+
+    /**
+     * Loads the checkpoint into a manager, building the whole graph with a
+     * GraphBuilder as a road file is loaded
+     * @return the checkpoint's generation
+     */
+    private long loadCheckpoint(TownGraphManager manager) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(checkpointFile), 1 << 16))) {
+            int magic = in.readInt();
+            if (magic != CHECKPOINT_MAGIC) {
+                throw new IOException("Not a checkpoint: " + checkpointFile);
+            }
+            WeightProfile[] profiles = WeightProfile.values();
+            long checkpointGeneration = in.readLong();
+            // identical roads added one by one are all in the snapshot, so keep them
+            GraphBuilder builder = new GraphBuilder().keepRepeats();
+            String[] towns = new String[in.readInt()];
+            for (int i = 0; i < towns.length; i++) {
+                towns[i] = in.readUTF();
+                if (in.readBoolean()) {
+                    builder.addTown(towns[i], in.readDouble(), in.readDouble());
+                } else {
+                    builder.addTown(towns[i]);
+                }
+            }
+            for (int roads = in.readInt(); roads > 0; roads--) {
+                String town1 = towns[in.readInt()];
+                String town2 = towns[in.readInt()];
+                int[] weights = new int[profiles.length];
+                for (WeightProfile p : profiles) {
+                    weights[p.ordinal()] = in.readInt();
+                }
+                builder.addRoad(town1, town2, weights, readName(in));
+            }
+            manager.restoreGraph(builder.build());
+            return checkpointGeneration;
+        }
+    }
+
+    /**
+     * Writes a road name that may be null, as a flag and the name if there is one
+     */
+    private static void writeName(DataOutputStream out, String name) throws IOException {
+        out.writeBoolean(name != null);
+        if (name != null) {
+            out.writeUTF(name);
+        }
+    }
+
+    /**
+     * Reads a road name written by writeName
+     * @return the name, null for a road without one
+     */
+    private static String readName(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    /**
+     * Reads the next record
+     * @return its body, or null at the end of the journal or at a torn or corrupt record
+     */
+    private static byte[] readRecord(DataInputStream in) throws IOException {
+        try {
+            int length = in.readInt();
+            if (length <= 0 || length > 1 << 24) {
+                return null;
+            }
+            byte[] body = new byte[length];
+            in.readFully(body);
+            CRC32 crc = new CRC32();
+            crc.update(body);
+            return in.readInt() == (int) crc.getValue() ? body : null;
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Applies one journaled change to a manager
+     */
+    private static void replay(byte[] record, TownGraphManager manager) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+        switch (in.readByte()) {
+            case ADD_TOWN:
+                manager.addTown(in.readUTF());
+                break;
+            case ADD_ROAD:
+                manager.addRoad(in.readUTF(), in.readUTF(), in.readInt(), readName(in));
+                break;
+            case DELETE_ROAD:
+                manager.deleteRoad(in.readUTF(), in.readUTF(), in.readInt(), readName(in));
+                break;
+            case DELETE_TOWN:
+                manager.deleteTown(in.readUTF());
+                break;
+            case SET_WEIGHTS:
+                WeightBatch batch = manager.newWeightBatch();
+                for (int n = in.readInt(); n > 0; n--) {
+                    batch.stage(in.readUTF(), in.readInt());
+                }
+                manager.applyWeightBatch(batch);
+                break;
+            case SET_LOCATION:
+                manager.setTownLocation(in.readUTF(), in.readDouble(), in.readDouble());
+                break;
+            case SET_PROFILE_WEIGHTS:
+                WeightProfile profile = WeightProfile.values()[in.readByte()];
+                WeightBatch profileBatch = manager.newWeightBatch();
+                for (int n = in.readInt(); n > 0; n--) {
+                    profileBatch.stage(in.readUTF(), in.readInt());
+                }
+                manager.applyWeightBatch(profileBatch, profile);
+                break;
+            default:
+                throw new IOException("Unknown journal record");
+        }
+    }
+
+    /**
+     * A record being encoded: its type byte followed by its fields
+     */
+    private static class Record {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+
+        Record(byte type) throws IOException {
+            out.writeByte(type);
+        }
+    }
+}
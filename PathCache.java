@@ -0,0 +1,194 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded cache of shortest routes keyed on the unordered pair of town names.
+ * Roads are bidirectional and symmetric, so the route from A to B, read backwards,
+ * is the route from B to A and both queries share one entry.
+ * <p>
+ * The cache is split into segments by key hash, each a least recently used map
+ * with its own lock, so concurrent queries rarely wait on each other. Entries can
+ * also expire after a time to live. The owner clears the cache whenever the graph changes.
+ * @author Ha T Dao
+ */
+public class PathCache {
+
+    /**
+     * Number of independently locked segments
+     */
+    private static final int SEGMENTS = 16;
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+
+    /**
+     * Milliseconds an entry stays valid, 0 for no limit
+     */
+    private final long ttlMillis;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Creates an empty cache
+     * @param maxEntries most routes kept; least recently used ones are evicted beyond that
+     * @param ttlMillis milliseconds a route stays valid, 0 for no limit
+     * @throws IllegalArgumentException if maxEntries is not positive or ttlMillis is negative
+     */
+    public PathCache(int maxEntries, long ttlMillis) {
+        if (maxEntries < 1 || ttlMillis < 0) {
+            throw new IllegalArgumentException();
+        }
+        this.ttlMillis = ttlMillis;
+        int perSegment = Math.max(1, (maxEntries + SEGMENTS - 1) / SEGMENTS);
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(perSegment);
+        }
+    }
+
+    /**
+     * Looks up the route between two towns, in either direction
+     * @param town1 name of one town
+     * @param town2 name of the other town
+     * @return the cached route, or null if there is none or it expired
+     */
+    Route get(String town1, String town2) {
+        PairKey key = new PairKey(town1, town2);
+        Segment segment = segmentFor(key);
+        Route route;
+        synchronized (segment) {
+            route = segment.get(key);
+            if (route != null && ttlMillis > 0 && System.currentTimeMillis() > route.expiresAt) {
+                segment.remove(key);
+                route = null;
+            }
+        }
+        (route == null ? misses : hits).incrementAndGet();
+        return route;
+    }
+
+    /**
+     * Stores the route found from one town to another
+     * @param from name of the town the route starts at
+     * @param to name of the town the route ends at
+     * @param roads the road ids in travel order, null if the towns are not connected
+     */
+    void put(String from, String to, int[] roads) {
+        PairKey key = new PairKey(from, to);
+        Route route = new Route(from, roads, ttlMillis > 0 ? System.currentTimeMillis() + ttlMillis : 0);
+        Segment segment = segmentFor(key);
+        synchronized (segment) {
+            segment.put(key, route);
+        }
+    }
+
+    /**
+     * Drops every entry
+     */
+    public void clear() {
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    /**
+     * Returns the number of lookups answered from the cache
+     * @return hit count
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Returns the number of lookups that were not in the cache
+     * @return miss count
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Returns the number of routes evicted to stay within the size bound
+     * @return eviction count
+     */
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    private Segment segmentFor(PairKey key) {
+        return segments[(key.hashCode() & 0x7fffffff) % SEGMENTS];
+    }
+
+    /**
+     * A cached route: the town it was found from and its road ids
+     */
+    static class Route {
+        final String from;
+        final int[] roads;
+        final long expiresAt;
+
+        Route(String from, int[] roads, long expiresAt) {
+            this.from = from;
+            this.roads = roads;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    /**
+     * Least recently used map for one segment
+     */
+    private class Segment extends LinkedHashMap<PairKey, Route> {
+        private static final long serialVersionUID = 1L;
+
+        private final int maxEntries;
+
+        Segment(int maxEntries) {
+            super(16, 0.75f, true);
+            this.maxEntries = maxEntries;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<PairKey, Route> eldest) {
+            if (size() > maxEntries) {
+                evictions.incrementAndGet();
+                return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Unordered pair of town names: (A, B) equals (B, A)
+     */
+    private static class PairKey {
+        private final String low;
+        private final String high;
+
+        PairKey(String town1, String town2) {
+            if (town1.compareTo(town2) <= 0) {
+                low = town1;
+                high = town2;
+            } else {
+                low = town2;
+                high = town1;
+            }
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof PairKey)) {
+                return false;
+            }
+            PairKey other = (PairKey) obj;
+            return low.equals(other.low) && high.equals(other.high);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * low.hashCode() + high.hashCode();
+        }
+    }
+}
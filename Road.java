@@ -1,4 +1,6 @@
 
+import java.util.Objects;
+
 /**
  * Represents a road/edge in a graph of cities. All roads are BIDIRECTIONAL and SYMMETRIC.
  * @author Ha T Dao
@@ -10,12 +12,18 @@ public class Road implements Comparable<Road>{
    
     //Weight of edge
     private int weight;
-    //Road name
+    //Name of the road
     private String name;
     //A town on the road
     private Town source;
     //Another town on the road
     private Town destination;
+    //Graph whose edge store holds the road, null for a road that is not part of a Graph
+    private final Graph graph;
+    //Id of the road in the graph's edge store
+    final int edge;
+    //Generation of the id when the view was taken, to spot ids freed and reused since
+    private final int generation;
     
     /**
      * Constructor
@@ -25,6 +33,9 @@ public class Road implements Comparable<Road>{
      * @param name Name of the road
      */
     public Road(Town source, Town destination, int weight, String name) {
+        this.graph = null;
+        this.edge = -1;
+        this.generation = 0;
         this.source = source;
         this.destination = destination;
         this.weight = weight;
@@ -38,6 +49,9 @@ public class Road implements Comparable<Road>{
      * @param name Name of the road
      */
     public Road(Town source, Town destination, String name) {
+        this.graph = null;
+        this.edge = -1;
+        this.generation = 0;
         this.source = source;
         this.destination = destination;
         this.weight = 1;
@@ -45,8 +59,26 @@ public class Road implements Comparable<Road>{
     }
     
     public Road(Road templateRoad) {
-        this(templateRoad.source, templateRoad.destination, 
-                templateRoad.weight, templateRoad.name);
+        this.graph = null;
+        this.edge = -1;
+        this.generation = 0;
+        this.source = templateRoad.getSource();
+        this.destination = templateRoad.getDestination();
+        this.weight = templateRoad.getWeight();
+        this.name = templateRoad.getName();
+    }
+    
+    /**
+     * Flyweight view of a road kept in a graph's edge store. The view holds no
+     * data of its own; every getter reads the store, and throws once the road
+     * has been removed from the graph.
+     * @param graph the graph
+     * @param edge id of the road in the graph's edge store
+     */
+    Road(Graph graph, int edge) {
+        this.graph = graph;
+        this.edge = edge;
+        this.generation = graph.edges().generation(edge);
     }
     
     /**
@@ -54,7 +86,7 @@ public class Road implements Comparable<Road>{
 	 */
 	@Override
 	public int compareTo(Road road) {
-		return this.name.compareTo(road.name);
+		return this.getName().compareTo(road.getName());
 	}
 	
 	/**
@@ -63,7 +95,75 @@ public class Road implements Comparable<Road>{
 	 * @return true only if the edge is connected to the given vertex
 	 */
 	public boolean contains(Town town) {
-		return source.getName().equals(town.getName()) || destination.getName().equals(town.getName());
+		return getSource().equals(town) || getDestination().equals(town);
+	}
+	
+	/**
+	 * Checks whether this road is a view of a road in a graph
+	 * @param g the graph
+	 * @return true if the road is stored in g
+	 */
+	boolean isViewOf(Graph g) {
+		return graph != null && graph == g;
+	}
+	
+	/**
+	 * Checks whether the road a view stands for is still in its graph; false once
+	 * it was removed, even if its id now holds another road
+	 * @return true for a view of a road still in the graph, false for any other road
+	 */
+	boolean isCurrent() {
+		return graph != null && graph.edges().isLive(edge) && graph.edges().generation(edge) == generation;
+	}
+	
+	/**
+	 * Returns the id of the road a view stands for
+	 * @throws IllegalStateException if the road was removed from the graph
+	 */
+	private int id() {
+		if (!isCurrent()) {
+			throw new IllegalStateException("Road was removed from its graph");
+		}
+		return edge;
+	}
+	
+	/**
+	 * Two roads are equal when they join the same two towns, in either order,
+	 * with the same name and length, whether they are views or not.
+	 */
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (!(obj instanceof Road)) {
+			return false;
+		}
+		Road road = (Road) obj;
+		if (getWeight() != road.getWeight() || !sameName(road)) {
+			return false;
+		}
+		Town s = getSource();
+		Town d = getDestination();
+		return (s.equals(road.getSource()) && d.equals(road.getDestination()))
+				|| (s.equals(road.getDestination()) && d.equals(road.getSource()));
+	}
+	
+	/**
+	 * Hash code consistent with equals, the same for either order of the towns.
+	 * It leaves out the weight, which changes under a road kept in a hashed
+	 * collection whenever the road is reweighted.
+	 */
+	@Override
+	public int hashCode() {
+		int nameHash;
+		if (graph != null) {
+			int ref = getNameRef();
+			nameHash = ref < 0 ? 0 : graph.names().hash(ref);
+		} else {
+			nameHash = name == null ? 0 : name.hashCode();
+		}
+		return 31 * nameHash + (getSource().hashCode() ^ getDestination().hashCode());
 	}
 	
 	/**
@@ -71,7 +171,7 @@ public class Road implements Comparable<Road>{
 	 * length in miles, and the source and destination towns.
 	 */
 	public String toString() {
-		return 	name + "," + weight + "," + source + ";" + destination;
+		return 	getName() + "," + getWeight() + "," + getSource() + ";" + getDestination();
 	}
 	
 	/**
@@ -79,7 +179,7 @@ public class Road implements Comparable<Road>{
 	 * @return first town
 	 */
 	public Town getSource() {
-        return source;
+        return graph != null ? graph.town(graph.edges().source(id())) : source;
     }
 	
 	/**
@@ -87,7 +187,7 @@ public class Road implements Comparable<Road>{
 	 * @return second Town
 	 */
 	public Town getDestination() {
-		return destination;
+		return graph != null ? graph.town(graph.edges().destination(id())) : destination;
 	}
 	
 	/**
@@ -95,28 +195,69 @@ public class Road implements Comparable<Road>{
 	 * @return weight 
 	 */
 	public int getWeight() {
-		return weight;
+		return graph != null ? graph.edges().weight(id()) : weight;
 	}
 	/**
-	 * This method sets the weight of road
+	 * This method returns the weight of road in a profile. A road that is not in a
+	 * Graph only has its distance; other profiles give the weight a new road starts with.
+	 * @param profile the weight profile
+	 * @return weight in that profile
+	 */
+	public int getWeight(WeightProfile profile) {
+		return graph != null ? graph.edges().weight(id(), profile) : profile.initialWeight(weight);
+	}
+	/**
+	 * This method sets the weight of road. For a road of a Graph this goes through
+	 * Graph.updateWeight, so cached shortest paths are repaired.
 	 * @param distance weight of road
 	 */
 	public void setDistance(int distance) {
-		this.weight = distance;
+		if (graph != null) {
+			graph.updateWeight(this, distance);
+		} else {
+			this.weight = distance;
+		}
 	}
 	/**
 	 * This method returns name of road
 	 * @return name of road
 	 */
 	public String getName() {
-		return name;
+		if (graph == null) {
+			return name;
+		}
+		int ref = getNameRef();
+		return ref < 0 ? null : graph.names().get(ref);
+	}
+	
+	/**
+	 * Returns the reference of the name of the road a view stands for in its
+	 * graph's string pool
+	 * @return the name reference, -1 for a road without a name
+	 */
+	int getNameRef() {
+		return graph.edges().nameRef(id());
+	}
+	
+	/**
+	 * Compares the names of two roads, by reference for two views of one graph
+	 */
+	private boolean sameName(Road road) {
+		if (graph != null && graph == road.graph) {
+			return getNameRef() == road.getNameRef();
+		}
+		return Objects.equals(getName(), road.getName());
 	}
 	/**
 	 * This method sets name of road
 	 * @param name name of road
 	 */
 	public void setName(String name) {
-		this.name = name;
+		if (graph != null) {
+			graph.edges().setNameRef(id(), name == null ? -1 : graph.names().intern(name));
+		} else {
+			this.name = name;
+		}
 	}
 }
     
\ No newline at end of file
@@ -0,0 +1,172 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.function.Consumer;
+
+/**
+ * One line of a road file, name,weight;TownA;TownB, and 64-bit hashes used to
+ * compare road files with a loaded graph without keeping the lines. Roads run
+ * both ways, so the hashes take the two towns in sorted order and a line hashes
+ * the same as a Road of the graph with the same name, weight and towns.
+ * <p>
+ * A road file may also locate its towns. A line [towns] starts a section of
+ * Town;latitude;longitude lines, in degrees, and a line [roads] goes back to roads.
+ * @author Ha T Dao
+ */
+class RoadLine {
+
+    static final String TOWNS_SECTION = "[towns]";
+    static final String ROADS_SECTION = "[roads]";
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    final String name;
+    final int weight;
+    final String townA;
+    final String townB;
+
+    RoadLine(String name, int weight, String townA, String townB) {
+        this.name = name;
+        this.weight = weight;
+        this.townA = townA;
+        this.townB = townB;
+    }
+
+    /**
+     * Parses a line in place, one substring per field
+     * @param line the line
+     * @return the road it describes
+     * @throws IOException if the line is malformed
+     */
+    static RoadLine parse(String line) throws IOException {
+        int semi1 = line.indexOf(';');
+        int semi2 = semi1 < 0 ? -1 : line.indexOf(';', semi1 + 1);
+        int comma = semi1 < 0 ? -1 : line.lastIndexOf(',', semi1);
+        if (comma < 0 || semi2 < 0) {
+            throw new IOException("Malformed road line: " + line);
+        }
+        int weight;
+        try {
+            weight = Integer.parseInt(line.substring(comma + 1, semi1).trim());
+        } catch (NumberFormatException e) {
+            throw new IOException("Malformed road line: " + line);
+        }
+        return new RoadLine(line.substring(0, comma), weight,
+                line.substring(semi1 + 1, semi2), line.substring(semi2 + 1));
+    }
+
+    /**
+     * Parses a line of the towns section
+     * @param line the line, Town;latitude;longitude
+     * @return the town with its location
+     * @throws IOException if the line is malformed or the location out of range
+     */
+    static Town parseTown(String line) throws IOException {
+        int semi1 = line.indexOf(';');
+        int semi2 = semi1 < 0 ? -1 : line.indexOf(';', semi1 + 1);
+        if (semi2 < 0) {
+            throw new IOException("Malformed town line: " + line);
+        }
+        try {
+            return new Town(line.substring(0, semi1), Double.parseDouble(line.substring(semi1 + 1, semi2)),
+                    Double.parseDouble(line.substring(semi2 + 1)));
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Malformed town line: " + line);
+        }
+    }
+
+    /**
+     * Reads a whole road file, skipping blank lines
+     * @param in the file
+     * @param roads told each road line in order
+     * @param towns told each line of a towns section in order
+     * @throws IOException if the file cannot be read, or a line is malformed or has a negative weight
+     */
+    static void read(BufferedReader in, Consumer<RoadLine> roads, Consumer<Town> towns) throws IOException {
+        boolean inTowns = false;
+        String line;
+        while ((line = in.readLine()) != null) {
+            String trimmed = line.trim();
+            if (trimmed.isEmpty()) {
+                continue;
+            }
+            if (trimmed.equals(TOWNS_SECTION) || trimmed.equals(ROADS_SECTION)) {
+                inTowns = trimmed.equals(TOWNS_SECTION);
+            } else if (inTowns) {
+                towns.accept(parseTown(line));
+            } else {
+                RoadLine road = parse(line);
+                if (road.weight < 0) {
+                    throw new IOException("Negative weight in road line: " + line);
+                }
+                roads.accept(road);
+            }
+        }
+    }
+
+    /**
+     * Hash of the whole line: name, weight and towns
+     * @return the hash
+     */
+    long hash() {
+        return hash(name, weight, townA, townB);
+    }
+
+    /**
+     * Hash of what identifies the road: name and towns, without the weight
+     * @return the hash
+     */
+    long keyHash() {
+        return keyHash(name, townA, townB);
+    }
+
+    /**
+     * Hash of a road of a graph, equal to the hash of its line in a road file
+     * @param road the road
+     * @return the hash
+     */
+    static long hash(Road road) {
+        return hash(road.getName(), road.getWeight(), road.getSource().getName(),
+                road.getDestination().getName());
+    }
+
+    /**
+     * Key hash of a road of a graph, equal to the key hash of its line in a road file
+     * @param road the road
+     * @return the hash
+     */
+    static long keyHash(Road road) {
+        return keyHash(road.getName(), road.getSource().getName(), road.getDestination().getName());
+    }
+
+    private static long hash(String name, int weight, String townA, String townB) {
+        long h = keyHash(name, townA, townB);
+        for (int shift = 0; shift < 32; shift += 8) {
+            h = (h ^ ((weight >>> shift) & 0xff)) * FNV_PRIME;
+        }
+        return h;
+    }
+
+    private static long keyHash(String name, String townA, String townB) {
+        boolean ordered = townA.compareTo(townB) <= 0;
+        long h = mix(FNV_OFFSET, name);
+        h = mix(h, ordered ? townA : townB);
+        return mix(h, ordered ? townB : townA);
+    }
+
+    /**
+     * FNV-1a over the characters of a field followed by a separator that cannot occur in one;
+     * a null field is a marker of its own, so it differs from an empty one
+     */
+    private static long mix(long h, String field) {
+        if (field == null) {
+            return (h ^ 0xfffe) * FNV_PRIME;
+        }
+        for (int i = 0; i < field.length(); i++) {
+            char c = field.charAt(i);
+            h = (h ^ (c & 0xff)) * FNV_PRIME;
+            h = (h ^ (c >>> 8)) * FNV_PRIME;
+        }
+        return (h ^ 0xffff) * FNV_PRIME;
+    }
+}
@@ -0,0 +1,372 @@
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Customizable route planning over a Graph. The towns are split once into nested
+ * cells by GraphPartitioner.nestedCells, using only the roads and not their
+ * weights. A town is on the border of its cell at a level if one of its roads
+ * leads into another cell of that level; for every cell the overlay keeps a table,
+ * per weight profile, of the least weight between each pair of its border towns
+ * over routes that stay inside the cell.
+ * <p>
+ * The tables are the only part that depends on weights. Customization fills them
+ * level by level from the bottom, all cells of a level in parallel: a first level
+ * table by searching the cell's roads, a higher one by searching the tables of its
+ * cells one level down and the roads between them. A weight change only marks the
+ * cell holding the road and the cells above it, and the next route in that profile
+ * refills just those, so a feed of weight changes costs a few cell searches each
+ * instead of a new preprocessing of the whole graph.
+ * <p>
+ * A route searches the roads of the first level cells of its two end towns, and
+ * elsewhere crosses each cell through its table at the highest level whose cell
+ * holds neither end, then unpacks the tables it used into roads by searching the
+ * cells again. Adding or removing towns or roads changes the cells, so the graph
+ * drops its overlay and builds a new one when next asked.
+ * @author Ha T Dao
+ */
+class RouteOverlay {
+
+    /**
+     * Towns wanted in a first level cell
+     */
+    static final int CELL_SIZE = 256;
+
+    /**
+     * Cells wanted in a cell of the next level
+     */
+    static final int FANOUT = 8;
+
+    private static final int UNREACHABLE = ShortestPathTree.UNREACHABLE;
+
+    private final Graph graph;
+    private final EdgeStore edges;
+
+    /**
+     * Cell of each town index on each level, [level][town], -1 for removed towns
+     */
+    private final int[][] cell;
+
+    /**
+     * Border towns of the cells of each level: those of cell c are entries
+     * borderFirst[level][c] to borderFirst[level][c+1]-1 of borderTown[level]
+     */
+    private final int[][] borderFirst;
+    private final int[][] borderTown;
+
+    /**
+     * Place of each town in its cell's border list on each level, -1 if not on the border
+     */
+    private final int[][] borderSlot;
+
+    /**
+     * Start of each cell's table in a level's table array: a row per border town,
+     * a column per border town
+     */
+    private final int[][] tableFirst;
+
+    /**
+     * Tables of each profile, [profile][level], null until the profile is first customized
+     */
+    private final int[][][] tables = new int[WeightProfile.values().length][][];
+
+    /**
+     * Cells whose tables are out of date, [profile][level][cell]
+     */
+    private final boolean[][][] stale = new boolean[WeightProfile.values().length][][];
+
+    private final ThreadLocal<SearchWorkspace> workspaces = ThreadLocal.withInitial(SearchWorkspace::new);
+
+    /**
+     * Partitions a graph into nested cells and finds their border towns; no
+     * tables are filled until a profile is customized
+     * @param graph the graph
+     * @param cellSize towns wanted in a first level cell
+     * @param fanout cells wanted in a cell of the next level
+     */
+    RouteOverlay(Graph graph, int cellSize, int fanout) {
+        this.graph = graph;
+        this.edges = graph.edges();
+        cell = GraphPartitioner.nestedCells(graph, cellSize, fanout);
+        int levels = cell.length;
+        int capacity = graph.townCapacity();
+        borderFirst = new int[levels][];
+        borderTown = new int[levels][];
+        borderSlot = new int[levels][];
+        tableFirst = new int[levels][];
+        for (int l = 0; l < levels; l++) {
+            int[] of = cell[l];
+            int cells = 0;
+            for (int c : of) {
+                cells = Math.max(cells, c + 1);
+            }
+            int[] first = new int[cells + 1];
+            int[] slot = new int[capacity];
+            Arrays.fill(slot, -1);
+            for (int t = 0; t < capacity; t++) {
+                if (of[t] >= 0 && onBorder(l, t)) {
+                    slot[t] = first[of[t] + 1]++;
+                }
+            }
+            for (int c = 0; c < cells; c++) {
+                first[c + 1] += first[c];
+            }
+            int[] town = new int[first[cells]];
+            for (int t = 0; t < capacity; t++) {
+                if (slot[t] >= 0) {
+                    town[first[of[t]] + slot[t]] = t;
+                }
+            }
+            int[] tableStart = new int[cells + 1];
+            for (int c = 0; c < cells; c++) {
+                int size = first[c + 1] - first[c];
+                tableStart[c + 1] = Math.addExact(tableStart[c], size * size);
+            }
+            borderFirst[l] = first;
+            borderTown[l] = town;
+            borderSlot[l] = slot;
+            tableFirst[l] = tableStart;
+        }
+    }
+
+    private boolean onBorder(int level, int t) {
+        for (int e = edges.first(t); e >= 0; e = edges.next(e, t)) {
+            if (cell[level][edges.other(e, t)] != cell[level][t]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the number of levels
+     * @return the count
+     */
+    int levels() {
+        return cell.length;
+    }
+
+    /**
+     * Returns the number of cells on a level
+     * @param level the level, 0 for the first
+     * @return the count
+     */
+    int cells(int level) {
+        return borderFirst[level].length - 1;
+    }
+
+    /**
+     * Marks the tables that depend on a road as out of date after its weight
+     * changed in a profile: those of the lowest cell holding both its towns and of
+     * every cell above. A road between cells of the top level is in no table.
+     * @param e id of the road
+     * @param profile the profile its weight changed in
+     */
+    synchronized void roadChanged(int e, WeightProfile profile) {
+        boolean[][] cells = stale[profile.ordinal()];
+        if (cells == null) {
+            return; // never customized, everything is out of date anyway
+        }
+        int a = edges.source(e);
+        int b = edges.destination(e);
+        for (int l = 0; l < cell.length; l++) {
+            if (cell[l][a] == cell[l][b]) {
+                cells[l][cell[l][a]] = true;
+            }
+        }
+    }
+
+    /**
+     * Brings the tables of a profile up to date, refilling the cells marked out
+     * of date level by level from the bottom, the cells of a level in parallel
+     * @param profile the profile
+     * @return the profile's tables, [level]
+     */
+    synchronized int[][] customize(WeightProfile profile) {
+        int p = profile.ordinal();
+        if (tables[p] == null) {
+            tables[p] = new int[cell.length][];
+            stale[p] = new boolean[cell.length][];
+            for (int l = 0; l < cell.length; l++) {
+                tables[p][l] = new int[tableFirst[l][cells(l)]];
+                stale[p][l] = new boolean[cells(l)];
+                Arrays.fill(stale[p][l], true);
+            }
+        }
+        int[][] levelTables = tables[p];
+        for (int l = 0; l < cell.length; l++) {
+            int level = l;
+            boolean[] out = stale[p][l];
+            IntStream.range(0, out.length).parallel().filter(c -> out[c])
+                    .forEach(c -> fillTable(level, c, profile, levelTables, workspaces.get()));
+            Arrays.fill(out, false);
+        }
+        return levelTables;
+    }
+
+    /**
+     * Fills the table of one cell with a search from each of its border towns
+     */
+    private void fillTable(int level, int c, WeightProfile profile, int[][] levelTables, SearchWorkspace ws) {
+        int first = borderFirst[level][c];
+        int size = borderFirst[level][c + 1] - first;
+        int[] table = levelTables[level];
+        int start = tableFirst[level][c];
+        for (int i = 0; i < size; i++) {
+            ws.begin(graph.townCapacity());
+            ws.offer(borderTown[level][first + i], 0, -1);
+            searchCell(level, c, -1, profile, levelTables, ws);
+            for (int j = 0; j < size; j++) {
+                table[start + i * size + j] = ws.distance(borderTown[level][first + j]);
+            }
+        }
+    }
+
+    /**
+     * Runs a search begun in a workspace over the inside of a cell: its roads on
+     * the first level, above that the tables of its cells one level down and the
+     * roads between them. A town reached through a table records -2 minus the
+     * town it was reached from as its road.
+     * @param level the level of the cell
+     * @param c the cell
+     * @param stopAt town to stop at once settled, -1 to search the whole cell
+     * @param profile the weights to add up
+     * @param levelTables the profile's tables
+     * @param ws the workspace, with the source offered
+     */
+    private void searchCell(int level, int c, int stopAt, WeightProfile profile, int[][] levelTables, SearchWorkspace ws) {
+        int[] of = cell[level];
+        for (int at = ws.poll(); at >= 0 && at != stopAt; at = ws.poll()) {
+            int dist = ws.distance(at);
+            if (level == 0) {
+                for (int e = edges.first(at); e >= 0; e = edges.next(e, at)) {
+                    int next = edges.other(e, at);
+                    if (of[next] == c && edges.isLightest(e, profile)) {
+                        ws.offer(next, dist + edges.weight(e, profile), e);
+                    }
+                }
+                continue;
+            }
+            int below = level - 1;
+            int inner = cell[below][at];
+            if (ws.parentRoad(at) >= -1) {
+                crossCell(below, at, dist, levelTables[below], ws);
+            }
+            for (int e = edges.first(at); e >= 0; e = edges.next(e, at)) {
+                int next = edges.other(e, at);
+                if (of[next] == c && cell[below][next] != inner && edges.isLightest(e, profile)) {
+                    ws.offer(next, dist + edges.weight(e, profile), e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Offers every border town of a town's cell at the weight its table gives.
+     * Only needed for towns entered by a road: a town reached through its cell's
+     * table was reached from a town that offered the whole table already, and a
+     * table holds least weights, so going through the second town is never shorter.
+     */
+    private void crossCell(int level, int at, int dist, int[] table, SearchWorkspace ws) {
+        int c = cell[level][at];
+        int first = borderFirst[level][c];
+        int size = borderFirst[level][c + 1] - first;
+        int row = tableFirst[level][c] + borderSlot[level][at] * size;
+        for (int j = 0; j < size; j++) {
+            int weight = table[row + j];
+            if (weight != UNREACHABLE) {
+                ws.offer(borderTown[level][first + j], dist + weight, -2 - at);
+            }
+        }
+    }
+
+    /**
+     * Finds the roads of the path with the least total weight in a profile,
+     * customizing the profile first if weights changed
+     * @param source index of the first town
+     * @param dest index of the last town
+     * @param profile the weights to add up
+     * @return the road ids in travel order, or null if there is no path
+     */
+    int[] route(int source, int dest, WeightProfile profile) {
+        int[][] levelTables = customize(profile);
+        SearchWorkspace ws = workspaces.get();
+        ws.begin(graph.townCapacity());
+        ws.offer(source, 0, -1);
+        for (int at = ws.poll(); at >= 0; at = ws.poll()) {
+            if (at == dest) {
+                IntArrayList path = new IntArrayList(16);
+                for (int[] step : steps(ws, dest)) {
+                    if (step.length == 1) {
+                        path.add(step[0]);
+                    } else {
+                        unpack(queryLevel(step[1], source, dest) - 1, step[0], step[1], profile, levelTables, ws, path);
+                    }
+                }
+                return path.toArray();
+            }
+            int dist = ws.distance(at);
+            int level = queryLevel(at, source, dest) - 1;
+            if (level >= 0 && ws.parentRoad(at) >= -1) {
+                crossCell(level, at, dist, levelTables[level], ws);
+            }
+            for (int e = edges.first(at); e >= 0; e = edges.next(e, at)) {
+                int next = edges.other(e, at);
+                if ((level < 0 || cell[level][next] != cell[level][at]) && edges.isLightest(e, profile)) {
+                    ws.offer(next, dist + edges.weight(e, profile), e);
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns how many levels up a town's cells hold neither end of a route: 0 in
+     * the first level cell of either end, where the route takes roads, otherwise
+     * one more than the level whose table it crosses the town's cell by
+     */
+    private int queryLevel(int t, int source, int dest) {
+        for (int l = cell.length - 1; l >= 0; l--) {
+            if (cell[l][t] != cell[l][source] && cell[l][t] != cell[l][dest]) {
+                return l + 1;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Reads back the steps of the search in a workspace from its source to a
+     * town, in travel order: a road as {id}, a table crossing as {from, to}
+     */
+    private int[][] steps(SearchWorkspace ws, int town) {
+        int length = 0;
+        for (int t = town, r = ws.parentRoad(t); r != -1; r = ws.parentRoad(t)) {
+            t = r >= 0 ? edges.other(r, t) : -2 - r;
+            length++;
+        }
+        int[][] steps = new int[length][];
+        for (int t = town, r = ws.parentRoad(t); r != -1; r = ws.parentRoad(t)) {
+            int from = r >= 0 ? edges.other(r, t) : -2 - r;
+            steps[--length] = r >= 0 ? new int[] {r} : new int[] {from, t};
+            t = from;
+        }
+        return steps;
+    }
+
+    /**
+     * Adds the roads behind a table crossing to a path, searching the cell again
+     * and unpacking the crossings of the level below that its route takes
+     */
+    private void unpack(int level, int from, int to, WeightProfile profile, int[][] levelTables,
+            SearchWorkspace ws, IntArrayList path) {
+        ws.begin(graph.townCapacity());
+        ws.offer(from, 0, -1);
+        searchCell(level, cell[level][from], to, profile, levelTables, ws);
+        for (int[] step : steps(ws, to)) {
+            if (step.length == 1) {
+                path.add(step[0]);
+            } else {
+                unpack(level - 1, step[0], step[1], profile, levelTables, ws, path);
+            }
+        }
+    }
+}
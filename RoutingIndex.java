@@ -0,0 +1,196 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Read-only snapshot of a Graph's roads in compressed adjacency form: the roads
+ * leaving town t are entries firstRoad[t] to firstRoad[t+1]-1 of the target and
+ * weight columns. Searches over the snapshot touch only primitive data, so many
+ * of them can run at once on different threads. Like the graph's edge store, the
+ * columns that grow with the number of roads live outside the heap. Where several
+ * roads join the same two towns only the shortest gets an entry, so searches look
+ * at one road per pair of neighbours; roads that loop back to their town get none.
+ * Every weight profile has its own weight column over the same targets, holding
+ * the lightest of the parallel roads in that profile.
+ * @author Ha T Dao
+ */
+class RoutingIndex {
+
+    /**
+     * Epoch of the graph the snapshot was taken at
+     */
+    final long epoch;
+
+    /**
+     * Number of town indexes covered
+     */
+    final int size;
+
+    /**
+     * Position of each town's first road in target and weight, plus one end marker
+     */
+    final int[] firstRoad;
+
+    /**
+     * Town at the far end of each road entry, each neighbour once per town
+     */
+    final IntBuffer target;
+
+    /**
+     * Length of each road entry, the shortest of the roads to that neighbour
+     */
+    final IntBuffer weight;
+
+    /**
+     * Weight of each road entry in each profile, by profile ordinal; the
+     * distance column is weight
+     */
+    final IntBuffer[] weights;
+
+    /**
+     * Mean length of the road entries in miles, rounded down
+     */
+    final int meanWeight;
+
+    /**
+     * Takes a snapshot of the graph's roads
+     * @param graph the graph
+     * @param epoch the graph's current epoch
+     */
+    RoutingIndex(Graph graph, long epoch) {
+        this.epoch = epoch;
+        EdgeStore edges = graph.edges();
+        size = graph.townCapacity();
+        firstRoad = new int[size + 1];
+        // seenFrom[n] is one more than the last town found next to n, entry[n] its entry there
+        int[] seenFrom = new int[size];
+        int[] entry = new int[size];
+        int entries = 0;
+        for (int t = 0; t < size; t++) {
+            firstRoad[t] = entries;
+            for (int r = edges.first(t); r >= 0; r = edges.next(r, t)) {
+                int next = edges.other(r, t);
+                if (next != t && seenFrom[next] != t + 1) {
+                    seenFrom[next] = t + 1;
+                    entries++;
+                }
+            }
+        }
+        firstRoad[size] = entries;
+        target = column(entries);
+        WeightProfile[] profiles = WeightProfile.values();
+        weights = new IntBuffer[profiles.length];
+        for (WeightProfile p : profiles) {
+            weights[p.ordinal()] = column(entries);
+        }
+        weight = weights[WeightProfile.DISTANCE.ordinal()];
+        Arrays.fill(seenFrom, 0);
+        int e = 0;
+        for (int t = 0; t < size; t++) {
+            for (int r = edges.first(t); r >= 0; r = edges.next(r, t)) {
+                int next = edges.other(r, t);
+                if (next == t) {
+                    continue;
+                }
+                if (seenFrom[next] != t + 1) {
+                    seenFrom[next] = t + 1;
+                    entry[next] = e;
+                    target.put(e, next);
+                    for (WeightProfile p : profiles) {
+                        weights[p.ordinal()].put(e, edges.weight(r, p));
+                    }
+                    e++;
+                } else {
+                    for (WeightProfile p : profiles) {
+                        IntBuffer column = weights[p.ordinal()];
+                        if (edges.weight(r, p) < column.get(entry[next])) {
+                            column.put(entry[next], edges.weight(r, p)); // a lighter parallel road
+                        }
+                    }
+                }
+            }
+        }
+        long totalWeight = 0;
+        for (int i = 0; i < entries; i++) {
+            totalWeight += weight.get(i);
+        }
+        meanWeight = entries == 0 ? 0 : (int) (totalWeight / entries);
+    }
+
+    /**
+     * Runs Dijkstra's algorithm from a town until every requested target is settled
+     * @param source index of the source town
+     * @param targets indexes of the towns whose distance is wanted
+     * @param ws the calling thread's workspace; only the returned row is allocated
+     * @return the distance to each target, in the order given, ShortestPathTree.UNREACHABLE
+     * for targets that cannot be reached
+     */
+    int[] distancesTo(int source, int[] targets, SearchWorkspace ws) {
+        return distancesTo(source, targets, WeightProfile.DISTANCE, ws);
+    }
+
+    /**
+     * Runs Dijkstra's algorithm from a town, weighing roads by a profile, until
+     * every requested target is settled
+     * @param source index of the source town
+     * @param targets indexes of the towns whose distance is wanted
+     * @param profile the weights to add up
+     * @param ws the calling thread's workspace; only the returned row is allocated
+     * @return the total weight to each target, in the order given,
+     * ShortestPathTree.UNREACHABLE for targets that cannot be reached
+     */
+    int[] distancesTo(int source, int[] targets, WeightProfile profile, SearchWorkspace ws) {
+        IntBuffer weight = weights[profile.ordinal()];
+        ws.begin(size);
+        int remaining = 0;
+        for (int t : targets) {
+            if (ws.mark(t)) {
+                remaining++;
+            }
+        }
+        ws.offer(source, 0, -1);
+        for (int at = ws.poll(); at >= 0 && remaining > 0; at = ws.poll()) {
+            if (ws.isMarked(at)) {
+                remaining--;
+            }
+            int d = ws.distance(at);
+            for (int e = firstRoad[at]; e < firstRoad[at + 1]; e++) {
+                ws.offer(target.get(e), d + weight.get(e), e);
+            }
+        }
+        int[] row = new int[targets.length];
+        for (int i = 0; i < targets.length; i++) {
+            row[i] = ws.distance(targets[i]);
+        }
+        return row;
+    }
+
+    /**
+     * Allocates an off-heap int column
+     * @param length number of entries
+     * @return the column
+     */
+    private static IntBuffer column(int length) {
+        return ByteBuffer.allocateDirect(Math.max(length, 1) * 4).order(ByteOrder.nativeOrder()).asIntBuffer();
+    }
+
+    /**
+     * Returns the indexes of a list of towns
+     * @param graph the graph the towns belong to
+     * @param towns the towns
+     * @return their indexes
+     * @throws IllegalArgumentException if a town is not in the graph
+     */
+    static int[] idsOf(Graph graph, List<Town> towns) {
+        int[] ids = new int[towns.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = graph.townId(towns.get(i));
+            if (ids[i] < 0) {
+                throw new IllegalArgumentException("No town " + towns.get(i));
+            }
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,304 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Headless HTTP front end for a TownGraphManager, answering in JSON:
+ * <ul>
+ * <li>GET /path?from=&amp;to= the shortest path, its lines in the format of getPath and its miles</li>
+ * <li>GET /towns and GET /roads all town and road names, sorted</li>
+ * <li>POST /towns?name= and DELETE /towns?name= add and remove a town</li>
+ * <li>POST /roads?from=&amp;to=&amp;weight=&amp;name= and DELETE /roads?from=&amp;to=&amp;name=
+ * add and remove a road</li>
+ * </ul>
+ * Each request runs on its own virtual thread where the runtime has them, otherwise
+ * on a cached thread pool; the manager's lock lets queries run side by side.
+ * Connections are kept alive between requests, with TCP_NODELAY unless the
+ * sun.net.httpserver.nodelay property says otherwise, and every response carries how
+ * long it took to answer in a Server-Timing header.
+ * @author Ha T Dao
+ */
+public class RoutingServer {
+
+    static {
+        // the JDK server flushes headers and body separately; with Nagle's algorithm on,
+        // each keep-alive response then waits out the client's delayed ACK (about 40 ms)
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+    }
+
+    private final TownGraphManager manager;
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    /**
+     * Creates a server; it does not accept requests until started
+     * @param manager the graph to serve
+     * @param address where to listen, port 0 for any free port
+     * @throws IOException if the address cannot be bound
+     */
+    public RoutingServer(TownGraphManager manager, InetSocketAddress address) throws IOException {
+        this.manager = manager;
+        server = HttpServer.create(address, 0);
+        executor = newRequestExecutor();
+        server.setExecutor(executor);
+        server.createContext("/path", this::path);
+        server.createContext("/towns", this::towns);
+        server.createContext("/roads", this::roads);
+    }
+
+    /**
+     * Starts accepting requests
+     */
+    public void start() {
+        server.start();
+    }
+
+    /**
+     * Stops accepting requests, waits up to a second for those under way and
+     * releases the threads
+     */
+    public void stop() {
+        server.stop(1);
+        executor.shutdown();
+        try {
+            executor.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Returns the port the server listens on, useful after binding port 0
+     * @return the port
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Serves a road file on localhost
+     * @param args the road file, and optionally the port (8080 if not given)
+     * @throws IOException if the file cannot be read or the port bound
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: java RoutingServer roadFile [port]");
+            System.exit(2);
+        }
+        TownGraphManager manager = new TownGraphManager();
+        manager.populateTownGraph(new File(args[0]));
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : 8080;
+        RoutingServer server = new RoutingServer(manager,
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+        server.start();
+        System.out.println("Serving " + manager.allTowns().size() + " towns on port " + server.getPort());
+    }
+
+    private void path(HttpExchange exchange) throws IOException {
+        long start = System.nanoTime();
+        Map<String, String> query = query(exchange);
+        if (!exchange.getRequestMethod().equals("GET")) {
+            send(exchange, 405, error("Use GET"), start);
+            return;
+        }
+        String from = query.get("from");
+        String to = query.get("to");
+        if (from == null || to == null) {
+            send(exchange, 400, error("from and to are required"), start);
+            return;
+        }
+        List<String> lines = manager.getPath(from, to);
+        StringBuilder json = new StringBuilder("{\"from\":").append(quote(from))
+                .append(",\"to\":").append(quote(to));
+        if (lines.isEmpty()) {
+            json.append(",\"found\":false}");
+        } else {
+            json.append(",\"found\":true,\"miles\":").append(TownGraphManager.totalMiles(lines))
+                    .append(",\"path\":").append(array(lines.subList(0, lines.size() - 1))).append('}');
+        }
+        send(exchange, 200, json.toString(), start);
+    }
+
+    private void towns(HttpExchange exchange) throws IOException {
+        long start = System.nanoTime();
+        Map<String, String> query = query(exchange);
+        String name = query.get("name");
+        switch (exchange.getRequestMethod()) {
+        case "GET":
+            send(exchange, 200, array(manager.allTowns()), start);
+            break;
+        case "POST":
+            if (name == null) {
+                send(exchange, 400, error("name is required"), start);
+            } else {
+                send(exchange, 200, result("added", manager.addTown(name)), start);
+            }
+            break;
+        case "DELETE":
+            if (name == null) {
+                send(exchange, 400, error("name is required"), start);
+            } else {
+                send(exchange, 200, result("deleted", manager.deleteTown(name)), start);
+            }
+            break;
+        default:
+            send(exchange, 405, error("Use GET, POST or DELETE"), start);
+        }
+    }
+
+    private void roads(HttpExchange exchange) throws IOException {
+        long start = System.nanoTime();
+        Map<String, String> query = query(exchange);
+        String from = query.get("from");
+        String to = query.get("to");
+        String name = query.get("name");
+        switch (exchange.getRequestMethod()) {
+        case "GET":
+            send(exchange, 200, array(manager.allRoads()), start);
+            break;
+        case "POST":
+            int weight;
+            try {
+                weight = Integer.parseInt(query.getOrDefault("weight", ""));
+            } catch (NumberFormatException e) {
+                send(exchange, 400, error("weight must be a whole number of miles"), start);
+                break;
+            }
+            if (from == null || to == null || name == null || weight < 0) {
+                send(exchange, 400, error("from, to, name and a weight of 0 or more are required"), start);
+            } else if (!manager.containsTown(from) || !manager.containsTown(to)) {
+                send(exchange, 404, error("No such town"), start);
+            } else {
+                send(exchange, 200, result("added", manager.addRoad(from, to, weight, name)), start);
+            }
+            break;
+        case "DELETE":
+            if (from == null || to == null || name == null) {
+                send(exchange, 400, error("from, to and name are required"), start);
+            } else if (!manager.containsTown(from) || !manager.containsTown(to)) {
+                send(exchange, 404, error("No such town"), start);
+            } else {
+                send(exchange, 200, result("deleted", manager.deleteRoadConnection(from, to, name)), start);
+            }
+            break;
+        default:
+            send(exchange, 405, error("Use GET, POST or DELETE"), start);
+        }
+    }
+
+    /**
+     * Sends a JSON response with its length, so the connection can be kept alive,
+     * and the time taken since the request arrived
+     */
+    private static void send(HttpExchange exchange, int status, String json, long start) throws IOException {
+        byte[] body = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.getResponseHeaders().set("Server-Timing",
+                String.format("app;dur=%.3f", (System.nanoTime() - start) / 1e6));
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    /**
+     * Reads the query parameters, and drains any request body so the connection
+     * can take the next request
+     */
+    private static Map<String, String> query(HttpExchange exchange) throws IOException {
+        try (InputStream in = exchange.getRequestBody()) {
+            byte[] skip = new byte[512];
+            while (in.read(skip) >= 0) {
+                // a body is not used
+            }
+        }
+        Map<String, String> params = new HashMap<>();
+        String raw = exchange.getRequestURI().getRawQuery();
+        if (raw == null) {
+            return params;
+        }
+        for (String pair : raw.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq > 0) {
+                params.put(URLDecoder.decode(pair.substring(0, eq), StandardCharsets.UTF_8),
+                        URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8));
+            }
+        }
+        return params;
+    }
+
+    private static String result(String key, boolean value) {
+        return "{\"" + key + "\":" + value + "}";
+    }
+
+    private static String error(String message) {
+        return "{\"error\":" + quote(message) + "}";
+    }
+
+    private static String array(List<String> items) {
+        StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < items.size(); i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append(quote(items.get(i)));
+        }
+        return json.append(']').toString();
+    }
+
+    /**
+     * Writes a string as a JSON string literal
+     */
+    private static String quote(String s) {
+        if (s == null) {
+            return "null";
+        }
+        StringBuilder json = new StringBuilder(s.length() + 2).append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                json.append('\\').append(c);
+            } else if (c < 0x20) {
+                json.append(String.format("\\u%04x", (int) c));
+            } else {
+                json.append(c);
+            }
+        }
+        return json.append('"').toString();
+    }
+
+    /**
+     * Returns an executor that starts a virtual thread per request, looked up by
+     * reflection so the server also runs on releases without them, where a cached
+     * pool of daemon threads is used instead
+     */
+    private static ExecutorService newRequestExecutor() {
+        try {
+            Method perTask = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) perTask.invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return Executors.newCachedThreadPool(task -> {
+                Thread thread = new Thread(task, "routing-server");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+}
@@ -0,0 +1,170 @@
+import java.util.Arrays;
+
+/**
+ * Reusable state for one search at a time: tentative distances, the road each
+ * town was reached by, marks for towns of interest and the queue, which lowers a
+ * queued town's key in place. Every entry carries the generation that wrote it and
+ * a new search just starts a new generation, so nothing is cleared between
+ * searches and a search that only explores a few towns costs nothing in proportion
+ * to the size of the graph. Once its arrays have grown to the graph, a workspace
+ * lets a search run without allocating.
+ * @author Ha T Dao
+ */
+class SearchWorkspace {
+
+    /**
+     * Tentative distance of each town, valid only if its stamp is the current generation
+     */
+    private int[] distance = new int[0];
+
+    /**
+     * Road through which each town was reached, valid with its distance
+     */
+    private int[] parentRoad = new int[0];
+
+    /**
+     * Generation that last wrote each town's distance
+     */
+    private int[] stamp = new int[0];
+
+    /**
+     * Generation in which each town was marked
+     */
+    private int[] marked = new int[0];
+
+    /**
+     * Current generation, starts a search by moving on
+     */
+    private int generation;
+
+    /**
+     * Towns reached but not settled, by tentative distance
+     */
+    private final IntMinHeap queue = new IntMinHeap(0);
+
+    /**
+     * Starts a new search
+     * @param size number of town indexes the search may touch
+     */
+    void begin(int size) {
+        if (size > distance.length) {
+            int capacity = Math.max(size, distance.length * 2);
+            distance = Arrays.copyOf(distance, capacity);
+            parentRoad = Arrays.copyOf(parentRoad, capacity);
+            stamp = Arrays.copyOf(stamp, capacity);
+            marked = Arrays.copyOf(marked, capacity);
+            queue.ensureCapacity(capacity);
+        }
+        if (++generation == 0) {
+            // wrapped around: old stamps could look current again
+            Arrays.fill(stamp, 0);
+            Arrays.fill(marked, 0);
+            generation = 1;
+        }
+        queue.clear();
+    }
+
+    /**
+     * Returns the tentative distance of a town in the current search
+     * @param town index of the town
+     * @return the distance, or ShortestPathTree.UNREACHABLE if not reached yet
+     */
+    int distance(int town) {
+        return stamp[town] == generation ? distance[town] : ShortestPathTree.UNREACHABLE;
+    }
+
+    /**
+     * Returns the road through which a town was reached in the current search
+     * @param town index of the town
+     * @return the road id, or -1 for the source and towns not reached
+     */
+    int parentRoad(int town) {
+        return stamp[town] == generation ? parentRoad[town] : -1;
+    }
+
+    /**
+     * Lowers the tentative distance of a town if the new one is shorter, and queues it
+     * @param town index of the town
+     * @param dist the new distance
+     * @param road id of the road the town is reached by, -1 for the source
+     * @return true if the distance was lowered
+     */
+    boolean offer(int town, int dist, int road) {
+        if (dist < distance(town)) {
+            distance[town] = dist;
+            parentRoad[town] = road;
+            stamp[town] = generation;
+            queue.offer(town, dist);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Lowers the tentative distance of a town if the new one is shorter, and queues
+     * it by a key of its own, such as the distance plus an A* estimate
+     * @param town index of the town
+     * @param dist the new distance
+     * @param key the town's place in the queue
+     * @param road id of the road the town is reached by, -1 for the source
+     * @return true if the distance was lowered
+     */
+    boolean offer(int town, int dist, long key, int road) {
+        if (dist < distance(town)) {
+            distance[town] = dist;
+            parentRoad[town] = road;
+            stamp[town] = generation;
+            queue.offer(town, key);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Removes the closest unsettled town from the queue and settles it
+     * @return the town's index, or -1 if the queue is empty
+     */
+    int poll() {
+        return queue.poll();
+    }
+
+    /**
+     * Marks a town for the current search
+     * @param town index of the town
+     * @return true if it was not marked yet
+     */
+    boolean mark(int town) {
+        if (marked[town] == generation) {
+            return false;
+        }
+        marked[town] = generation;
+        return true;
+    }
+
+    /**
+     * Checks whether a town is marked in the current search
+     * @param town index of the town
+     * @return true if marked
+     */
+    boolean isMarked(int town) {
+        return marked[town] == generation;
+    }
+
+    /**
+     * Returns the roads from the source of the search to a town, in travel order
+     * @param edges the roads searched
+     * @param town index of a reached town
+     * @return the road ids of the path
+     */
+    int[] pathTo(EdgeStore edges, int town) {
+        int length = 0;
+        for (int t = town, r = parentRoad(t); r >= 0; t = edges.other(r, t), r = parentRoad(t)) {
+            length++;
+        }
+        int[] path = new int[length];
+        for (int t = town, r = parentRoad(t); r >= 0; t = edges.other(r, t), r = parentRoad(t)) {
+            path[--length] = r;
+        }
+        return path;
+    }
+}
@@ -0,0 +1,436 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Answers shortest path questions over a graph split into regions by
+ * GraphPartitioner, each region served by a ShardWorker, possibly in another
+ * process. The coordinator holds only the overlay: the towns on region borders,
+ * the roads between regions, and for each region a table of the distances between
+ * its border towns, asked of its worker once at start.
+ * <p>
+ * A route from a town in region A to one in region B takes two more tables, from
+ * the first town to A's border and from B's border to the last town, and a
+ * Dijkstra search over the overlay from A's border to B's. The route found is
+ * then written out by asking the workers for the path inside each region it
+ * crosses, so the result is the same as TownGraphManager.getPath on the whole graph.
+ * <pre>
+ * java ShardCoordinator shardDirectory
+ * </pre>
+ * starts a worker process per region on this machine and routes from;to lines
+ * read from standard input.
+ * @author Ha T Dao
+ */
+public class ShardCoordinator implements Closeable {
+
+    /**
+     * Region of every town
+     */
+    private final Map<String, Integer> regionOf = new HashMap<>();
+
+    /**
+     * Border towns of each region
+     */
+    private final List<List<String>> borders = new ArrayList<>();
+
+    /**
+     * Overlay vertex of each border town
+     */
+    private final Map<String, Integer> vertexOf = new HashMap<>();
+
+    // per overlay vertex: its town, its region, and its place in the region's border list
+    private final String[] town;
+    private final int[] region;
+    private final int[] borderIndex;
+
+    // overlay edges leaving vertex v are first[v] to first[v+1]-1; road names
+    // are null for edges that stand for a path inside a region
+    private final int[] first;
+    private final int[] target;
+    private final int[] weight;
+    private final String[] roadName;
+
+    private final Shard[] shards;
+
+    /**
+     * Worker processes started by launch, stopped by close
+     */
+    private final List<Process> processes = new ArrayList<>();
+
+    /**
+     * Reads the overlay written by GraphPartitioner and connects to the workers
+     * @param directory the directory the regions were written to
+     * @param workers address of the worker of each region, in region order
+     * @throws IOException if the overlay cannot be read or a worker reached
+     * @throws IllegalArgumentException if there is not one worker per region
+     */
+    public ShardCoordinator(File directory, List<InetSocketAddress> workers) throws IOException {
+        int regions = 0;
+        try (BufferedReader in = new BufferedReader(new FileReader(new File(directory, "partition.txt")))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                int semi = line.lastIndexOf(';');
+                if (semi < 0) {
+                    continue;
+                }
+                int r = Integer.parseInt(line.substring(semi + 1).trim());
+                regionOf.put(line.substring(0, semi), r);
+                regions = Math.max(regions, r + 1);
+            }
+        }
+        if (workers.size() != regions) {
+            throw new IllegalArgumentException(regions + " regions but " + workers.size() + " workers");
+        }
+        List<LinkedHashSet<String>> borderSets = new ArrayList<>();
+        for (int r = 0; r < regions; r++) {
+            borderSets.add(new LinkedHashSet<>());
+        }
+        List<RoadLine> cut = new ArrayList<>();
+        try (BufferedReader in = new BufferedReader(new FileReader(new File(directory, "overlay.txt")))) {
+            RoadLine.read(in, road -> {
+                cut.add(road);
+                borderSets.get(regionOf.get(road.townA)).add(road.townA);
+                borderSets.get(regionOf.get(road.townB)).add(road.townB);
+            }, t -> { });
+        }
+        int vertices = 0;
+        for (LinkedHashSet<String> border : borderSets) {
+            borders.add(new ArrayList<>(border));
+            vertices += border.size();
+        }
+        town = new String[vertices];
+        region = new int[vertices];
+        borderIndex = new int[vertices];
+        for (int r = 0, v = 0; r < regions; r++) {
+            for (int i = 0; i < borders.get(r).size(); i++, v++) {
+                town[v] = borders.get(r).get(i);
+                region[v] = r;
+                borderIndex[v] = i;
+                vertexOf.put(town[v], v);
+            }
+        }
+
+        shards = new Shard[regions];
+        try {
+            for (int r = 0; r < regions; r++) {
+                shards[r] = new Shard(workers.get(r));
+            }
+            // edges: each region's border table, then the roads between regions
+            List<int[]> tables = new ArrayList<>();
+            int edges = 2 * cut.size();
+            for (int r = 0; r < regions; r++) {
+                int[][] table = shards[r].distances(borders.get(r), borders.get(r));
+                tables.add(flatten(table));
+                for (int[] row : table) {
+                    for (int d : row) {
+                        edges += d == ShardWorker.UNREACHABLE ? 0 : 1;
+                    }
+                }
+            }
+            int[] from = new int[edges];
+            int[] to = new int[edges];
+            int[] miles = new int[edges];
+            String[] names = new String[edges];
+            int e = 0;
+            for (int r = 0, base = 0; r < regions; base += borders.get(r).size(), r++) {
+                int size = borders.get(r).size();
+                int[] table = tables.get(r);
+                for (int i = 0; i < size; i++) {
+                    for (int j = 0; j < size; j++) {
+                        if (i != j && table[i * size + j] != ShardWorker.UNREACHABLE) {
+                            from[e] = base + i;
+                            to[e] = base + j;
+                            miles[e++] = table[i * size + j];
+                        }
+                    }
+                }
+            }
+            for (RoadLine road : cut) {
+                int a = vertexOf.get(road.townA);
+                int b = vertexOf.get(road.townB);
+                from[e] = a;
+                to[e] = b;
+                miles[e] = road.weight;
+                names[e++] = road.name;
+                from[e] = b;
+                to[e] = a;
+                miles[e] = road.weight;
+                names[e++] = road.name;
+            }
+            first = new int[vertices + 1];
+            for (int i = 0; i < e; i++) {
+                first[from[i] + 1]++;
+            }
+            for (int v = 0; v < vertices; v++) {
+                first[v + 1] += first[v];
+            }
+            target = new int[e];
+            weight = new int[e];
+            roadName = new String[e];
+            int[] fill = Arrays.copyOf(first, vertices);
+            for (int i = 0; i < e; i++) {
+                int slot = fill[from[i]]++;
+                target[slot] = to[i];
+                weight[slot] = miles[i];
+                roadName[slot] = names[i];
+            }
+        } catch (IOException | RuntimeException ex) {
+            close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Starts a worker process for each region of a directory on this machine,
+     * with the same Java and class path as this one, and connects to them
+     * @param directory the directory the regions were written to
+     * @return the coordinator; closing it stops the workers
+     * @throws IOException if a worker cannot be started or reached
+     */
+    public static ShardCoordinator launch(File directory) throws IOException {
+        List<Process> started = new ArrayList<>();
+        List<InetSocketAddress> addresses = new ArrayList<>();
+        String java = new File(new File(System.getProperty("java.home"), "bin"), "java").getPath();
+        try {
+            for (int r = 0; GraphPartitioner.regionFile(directory, r).exists(); r++) {
+                Process worker = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                        "ShardWorker", GraphPartitioner.regionFile(directory, r).getPath())
+                        .redirectError(ProcessBuilder.Redirect.INHERIT).start();
+                started.add(worker);
+                BufferedReader out = new BufferedReader(
+                        new InputStreamReader(worker.getInputStream(), StandardCharsets.UTF_8));
+                String line = out.readLine(); // "Listening on port N"
+                if (line == null || !line.startsWith("Listening on port ")) {
+                    throw new IOException("Worker for region " + r + " did not start");
+                }
+                addresses.add(new InetSocketAddress(InetAddress.getLoopbackAddress(),
+                        Integer.parseInt(line.substring(line.lastIndexOf(' ') + 1))));
+            }
+            ShardCoordinator coordinator = new ShardCoordinator(directory, addresses);
+            coordinator.processes.addAll(started);
+            return coordinator;
+        } catch (IOException | RuntimeException e) {
+            for (Process worker : started) {
+                worker.destroy();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Routes from;to lines from standard input over worker processes started for
+     * a shard directory
+     * @param args the shard directory
+     * @throws IOException if the workers cannot be started or reached
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.err.println("Usage: java ShardCoordinator shardDirectory");
+            System.exit(2);
+        }
+        try (ShardCoordinator coordinator = launch(new File(args[0]));
+                BufferedReader in = new BufferedReader(new InputStreamReader(System.in))) {
+            System.err.println("Routing over " + coordinator.shards.length + " shards, "
+                    + coordinator.town.length + " border towns");
+            String line;
+            while ((line = in.readLine()) != null) {
+                int semi = line.indexOf(';');
+                if (semi < 0) {
+                    continue;
+                }
+                List<String> path = coordinator.getPath(line.substring(0, semi).trim(), line.substring(semi + 1).trim());
+                System.out.println(path.isEmpty() ? "No route" : String.join("\n", path));
+                System.out.println();
+            }
+        }
+    }
+
+    /**
+     * Returns the number of regions
+     * @return the count
+     */
+    public int getShards() {
+        return shards.length;
+    }
+
+    /**
+     * Finds the shortest path between two towns across the regions
+     * @param from name of the first town
+     * @param to name of the last town
+     * @return the path in the format of TownGraphManager.getPath, empty if there is none
+     * @throws IOException if a worker cannot be reached
+     */
+    public ArrayList<String> getPath(String from, String to) throws IOException {
+        ArrayList<String> path = new ArrayList<>();
+        Integer a = regionOf.get(from);
+        Integer b = regionOf.get(to);
+        if (a == null || b == null) {
+            return path;
+        }
+        int[] fromSource = shards[a].distances(List.of(from), borders.get(a))[0];
+        int[] toTarget = shards[b].distances(List.of(to), borders.get(b))[0];
+        int direct = a.equals(b) ? shards[a].distances(List.of(from), List.of(to))[0][0] : ShardWorker.UNREACHABLE;
+
+        // Dijkstra over the overlay; vertex n stands for the last town. A parent
+        // of -1 means reached straight from the first town inside its region.
+        int n = town.length;
+        long[] dist = new long[n + 1];
+        Arrays.fill(dist, Long.MAX_VALUE);
+        int[] parent = new int[n + 1];
+        int[] parentEdge = new int[n + 1];
+        IntMinHeap queue = new IntMinHeap(n + 1);
+        for (int i = 0; i < fromSource.length; i++) {
+            if (fromSource[i] != ShardWorker.UNREACHABLE) {
+                reach(vertexOf.get(borders.get(a).get(i)), fromSource[i], -1, -1, dist, parent, parentEdge, queue);
+            }
+        }
+        if (direct != ShardWorker.UNREACHABLE) {
+            reach(n, direct, -1, -1, dist, parent, parentEdge, queue);
+        }
+        for (int v = queue.poll(); v >= 0 && v != n; v = queue.poll()) {
+            if (region[v] == b && toTarget[borderIndex[v]] != ShardWorker.UNREACHABLE) {
+                reach(n, dist[v] + toTarget[borderIndex[v]], v, -1, dist, parent, parentEdge, queue);
+            }
+            for (int e = first[v]; e < first[v + 1]; e++) {
+                reach(target[e], dist[v] + weight[e], v, e, dist, parent, parentEdge, queue);
+            }
+        }
+        if (dist[n] == Long.MAX_VALUE) {
+            return path;
+        }
+
+        // the legs of the route, last first: a road between regions, or a path
+        // inside a region between two towns
+        List<Object[]> legs = new ArrayList<>();
+        for (int v = n; ; ) {
+            int p = parent[v];
+            String end = v == n ? to : town[v];
+            if (p == -1) {
+                legs.add(new Object[] {a, from, end});
+                break;
+            }
+            int e = parentEdge[v];
+            if (e >= 0 && roadName[e] != null) {
+                legs.add(new Object[] {null, town[p], end, roadName[e], weight[e]});
+            } else {
+                legs.add(new Object[] {region[p], town[p], end});
+            }
+            v = p;
+        }
+        for (int i = legs.size() - 1; i >= 0; i--) {
+            Object[] leg = legs.get(i);
+            if (leg[0] == null) {
+                path.add(leg[1] + " via " + leg[3] + " to " + leg[2] + " " + leg[4] + " miles");
+            } else if (!leg[1].equals(leg[2])) {
+                path.addAll(shards[(Integer) leg[0]].path((String) leg[1], (String) leg[2]));
+            }
+        }
+        path.add("Total miles: " + dist[n] + " miles");
+        return path;
+    }
+
+    private static void reach(int v, long d, int from, int edge, long[] dist, int[] parent,
+            int[] parentEdge, IntMinHeap queue) {
+        if (d < dist[v]) {
+            dist[v] = d;
+            parent[v] = from;
+            parentEdge[v] = edge;
+            queue.offer(v, d);
+        }
+    }
+
+    private static int[] flatten(int[][] table) {
+        int columns = table.length == 0 ? 0 : table[0].length;
+        int[] flat = new int[table.length * columns];
+        for (int i = 0; i < table.length; i++) {
+            System.arraycopy(table[i], 0, flat, i * columns, columns);
+        }
+        return flat;
+    }
+
+    /**
+     * Disconnects from the workers and stops those started by launch
+     */
+    @Override
+    public void close() {
+        if (shards != null) {
+            for (Shard shard : shards) {
+                if (shard != null) {
+                    shard.close();
+                }
+            }
+        }
+        for (Process worker : processes) {
+            worker.destroy();
+        }
+    }
+
+    /**
+     * Connection to one worker; requests on it are sent one at a time
+     */
+    private static class Shard {
+        private final Socket socket;
+        private final DataInputStream in;
+        private final DataOutputStream out;
+
+        Shard(InetSocketAddress address) throws IOException {
+            socket = new Socket();
+            socket.setTcpNoDelay(true);
+            socket.connect(address);
+            in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        }
+
+        synchronized int[][] distances(List<String> sources, List<String> targets) throws IOException {
+            out.writeByte(ShardWorker.DISTANCES);
+            ShardWorker.writeNames(out, sources);
+            ShardWorker.writeNames(out, targets);
+            out.flush();
+            int[][] table = new int[sources.size()][targets.size()];
+            for (int[] row : table) {
+                for (int j = 0; j < row.length; j++) {
+                    row[j] = in.readInt();
+                }
+            }
+            return table;
+        }
+
+        synchronized List<String> path(String from, String to) throws IOException {
+            out.writeByte(ShardWorker.PATH);
+            out.writeUTF(from);
+            out.writeUTF(to);
+            out.flush();
+            int count = in.readInt();
+            List<String> lines = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                lines.add(in.readUTF());
+            }
+            return lines;
+        }
+
+        void close() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // closing anyway
+            }
+        }
+    }
+}
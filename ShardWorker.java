@@ -0,0 +1,218 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Serves one region written by GraphPartitioner to a ShardCoordinator over a
+ * local socket. The coordinator asks for tables of road distances between towns
+ * of the region and for the roads of single paths; every answer stays inside the
+ * region, so a worker needs only its own region's roads.
+ * <p>
+ * Each connection is a stream of requests, a type byte and its fields, answered
+ * in order:
+ * <ul>
+ * <li>DISTANCES: the source and target town names, each as a count and the names;
+ * answered with one int per source and target, ShardWorker.UNREACHABLE where the
+ * region has no path. A town is 0 from itself even if it has no road in the region.</li>
+ * <li>PATH: a from and a to town name; answered with the number of lines and the
+ * lines of the path in the format of getPath, without the total line.</li>
+ * </ul>
+ * @author Ha T Dao
+ */
+public class ShardWorker {
+
+    static final byte DISTANCES = 1;
+    static final byte PATH = 2;
+
+    /**
+     * Distance of towns the region has no path between
+     */
+    static final int UNREACHABLE = Integer.MAX_VALUE;
+
+    private final TownGraphManager manager;
+    private final ServerSocket server;
+    private volatile boolean running;
+
+    /**
+     * Loads a region and binds its socket; no requests are taken until started
+     * @param region the region's road file
+     * @param address where to listen, port 0 for any free port
+     * @throws IOException if the file cannot be read or the address bound
+     */
+    public ShardWorker(File region, InetSocketAddress address) throws IOException {
+        manager = new TownGraphManager();
+        manager.populateTownGraph(region);
+        server = new ServerSocket();
+        server.bind(address);
+    }
+
+    /**
+     * Starts taking connections, each on its own daemon thread
+     */
+    public void start() {
+        running = true;
+        Thread acceptor = new Thread(this::accept, "shard-worker");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * Stops taking connections
+     */
+    public void stop() {
+        running = false;
+        try {
+            server.close();
+        } catch (IOException e) {
+            // closing anyway
+        }
+    }
+
+    /**
+     * Returns the port the worker listens on
+     * @return the port
+     */
+    public int getPort() {
+        return server.getLocalPort();
+    }
+
+    /**
+     * Serves a region on localhost and prints the port, for a coordinator that
+     * starts its workers as processes
+     * @param args the region's road file, and optionally the port (any free port if not given)
+     * @throws IOException if the file cannot be read or the port bound
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: java ShardWorker regionFile [port]");
+            System.exit(2);
+        }
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : 0;
+        ShardWorker worker = new ShardWorker(new File(args[0]),
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+        worker.running = true;
+        System.out.println("Listening on port " + worker.getPort());
+        System.out.flush();
+        worker.accept();
+    }
+
+    private void accept() {
+        while (running) {
+            try {
+                Socket socket = server.accept();
+                socket.setTcpNoDelay(true);
+                Thread connection = new Thread(() -> serve(socket), "shard-connection");
+                connection.setDaemon(true);
+                connection.start();
+            } catch (IOException e) {
+                // the socket was closed by stop
+                return;
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try (Socket s = socket;
+                DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()))) {
+            while (true) {
+                byte type;
+                try {
+                    type = in.readByte();
+                } catch (EOFException e) {
+                    return;
+                }
+                switch (type) {
+                case DISTANCES:
+                    List<String> sources = readNames(in);
+                    List<String> targets = readNames(in);
+                    for (int[] row : distances(sources, targets)) {
+                        for (int d : row) {
+                            out.writeInt(d);
+                        }
+                    }
+                    break;
+                case PATH:
+                    List<String> lines = manager.getPath(in.readUTF(), in.readUTF());
+                    int count = Math.max(0, lines.size() - 1);
+                    out.writeInt(count);
+                    for (int i = 0; i < count; i++) {
+                        out.writeUTF(lines.get(i));
+                    }
+                    break;
+                default:
+                    throw new IOException("Unknown request " + type);
+                }
+                out.flush();
+            }
+        } catch (IOException e) {
+            // the coordinator went away; its connection is done
+        }
+    }
+
+    /**
+     * Computes a distance table in one parallel pass, allowing towns the region
+     * has no roads for
+     */
+    int[][] distances(List<String> sources, List<String> targets) {
+        List<String> knownSources = new ArrayList<>();
+        List<String> knownTargets = new ArrayList<>();
+        int[] sourceRow = known(sources, knownSources);
+        int[] targetColumn = known(targets, knownTargets);
+        int[][] known = knownSources.isEmpty() || knownTargets.isEmpty() ? new int[0][]
+                : manager.distanceMatrix(knownSources, knownTargets);
+        int[][] table = new int[sources.size()][targets.size()];
+        for (int i = 0; i < sources.size(); i++) {
+            for (int j = 0; j < targets.size(); j++) {
+                if (sources.get(i).equals(targets.get(j))) {
+                    table[i][j] = 0;
+                } else if (sourceRow[i] >= 0 && targetColumn[j] >= 0) {
+                    table[i][j] = known[sourceRow[i]][targetColumn[j]];
+                } else {
+                    table[i][j] = UNREACHABLE;
+                }
+            }
+        }
+        return table;
+    }
+
+    /**
+     * Collects the names of towns the region has, returning where each name went, -1 if dropped
+     */
+    private int[] known(List<String> names, List<String> known) {
+        int[] position = new int[names.size()];
+        for (int i = 0; i < names.size(); i++) {
+            position[i] = manager.containsTown(names.get(i)) ? known.size() : -1;
+            if (position[i] >= 0) {
+                known.add(names.get(i));
+            }
+        }
+        return position;
+    }
+
+    static List<String> readNames(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        List<String> names = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            names.add(in.readUTF());
+        }
+        return names;
+    }
+
+    static void writeNames(DataOutputStream out, List<String> names) throws IOException {
+        out.writeInt(names.size());
+        for (String name : names) {
+            out.writeUTF(name);
+        }
+    }
+}
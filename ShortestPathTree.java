@@ -0,0 +1,219 @@
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Shortest path tree rooted at one town of a Graph: the distance of every town
+ * from the root and the road used to reach it. The tree is kept correct when
+ * road weights change by repairing only the towns whose distance is affected
+ * (the dynamic shortest path algorithm of Ramalingam and Reps) instead of
+ * being recomputed from scratch.
+ * @author Ha T Dao
+ */
+class ShortestPathTree {
+
+    /**
+     * Distance of a town that cannot be reached from the root
+     */
+    static final int UNREACHABLE = Integer.MAX_VALUE;
+
+    /**
+     * Graph index of the root town
+     */
+    private final int root;
+
+    /**
+     * Distance from the root, indexed by graph index of the town
+     */
+    private int[] distance;
+
+    /**
+     * Id of the last road on the shortest path to each town, -1 for the root and unreached towns
+     */
+    private int[] parentRoad;
+
+    /**
+     * Towns whose distance improved and whose roads are still to be relaxed, kept
+     * between builds and repairs
+     */
+    private final IntMinHeap queue;
+
+    /**
+     * Builds the tree with Dijkstra's algorithm.
+     * @param graph the graph the tree is built over
+     * @param root graph index of the root town
+     */
+    ShortestPathTree(Graph graph, int root) {
+        this.root = root;
+        int size = graph.townCapacity();
+        distance = new int[size];
+        parentRoad = new int[size];
+        Arrays.fill(distance, UNREACHABLE);
+        Arrays.fill(parentRoad, -1);
+        distance[root] = 0;
+        queue = new IntMinHeap(size);
+        queue.offer(root, 0);
+        propagate(graph.edges());
+    }
+
+    /**
+     * Returns the graph index of the root town
+     * @return root index
+     */
+    int getRoot() {
+        return root;
+    }
+
+    /**
+     * Returns the distance from the root to a town
+     * @param town graph index of the town
+     * @return the distance, or UNREACHABLE
+     */
+    int distanceTo(int town) {
+        return town < distance.length ? distance[town] : UNREACHABLE;
+    }
+
+    /**
+     * Returns the road through which the shortest path from the root reaches a town
+     * @param town graph index of the town
+     * @return the road id, or -1 for the root and unreached towns
+     */
+    int parentRoad(int town) {
+        return town < parentRoad.length ? parentRoad[town] : -1;
+    }
+
+    /**
+     * Returns the roads from the root to a town, in travel order
+     * @param graph the graph the tree is built over
+     * @param town graph index of the destination
+     * @return the road ids of the path, or null if the town cannot be reached
+     */
+    int[] pathTo(Graph graph, int town) {
+        if (distanceTo(town) == UNREACHABLE) {
+            return null;
+        }
+        EdgeStore edges = graph.edges();
+        int length = 0;
+        for (int t = town; t != root; t = edges.other(parentRoad[t], t)) {
+            length++;
+        }
+        int[] path = new int[length];
+        for (int t = town; t != root; t = edges.other(parentRoad[t], t)) {
+            path[--length] = parentRoad[t];
+        }
+        return path;
+    }
+
+    /**
+     * Repairs the tree after a road became shorter or was added to the graph.
+     * Only towns whose distance improves through the road are visited.
+     * @param graph the graph, already holding the road with its new weight
+     * @param road id of the road that was added or made shorter
+     */
+    void roadShortened(Graph graph, int road) {
+        ensureCapacity(graph.townCapacity());
+        EdgeStore edges = graph.edges();
+        relax(edges, road, edges.source(road));
+        relax(edges, road, edges.destination(road));
+        propagate(edges);
+    }
+
+    /**
+     * Repairs the tree after a road became longer or was removed from the graph.
+     * If the road is not a tree road no distance changes; otherwise the subtree
+     * hanging below it is detached and re-attached through its best remaining
+     * connections to the rest of the tree.
+     * @param graph the graph, already holding the road with its new weight (or without it)
+     * @param road id of the road that was removed or made longer; a removed road's
+     * towns must still be readable from the edge store
+     */
+    void roadLengthened(Graph graph, int road) {
+        ensureCapacity(graph.townCapacity());
+        EdgeStore edges = graph.edges();
+        int child;
+        if (parentRoad[edges.source(road)] == road) {
+            child = edges.source(road);
+        } else if (parentRoad[edges.destination(road)] == road) {
+            child = edges.destination(road);
+        } else {
+            return;
+        }
+
+        // collect the subtree of child: towns whose tree road hangs off an affected town
+        BitSet affected = new BitSet();
+        IntArrayList subtree = new IntArrayList();
+        affected.set(child);
+        subtree.add(child);
+        for (int i = 0; i < subtree.size(); i++) {
+            int t = subtree.get(i);
+            for (int r = edges.first(t); r >= 0; r = edges.next(r, t)) {
+                int next = edges.other(r, t);
+                if (!affected.get(next) && parentRoad[next] == r) {
+                    affected.set(next);
+                    subtree.add(next);
+                }
+            }
+        }
+        for (int i = 0; i < subtree.size(); i++) {
+            distance[subtree.get(i)] = UNREACHABLE;
+            parentRoad[subtree.get(i)] = -1;
+        }
+
+        // seed each detached town with its best connection to the unaffected part
+        for (int i = 0; i < subtree.size(); i++) {
+            int t = subtree.get(i);
+            for (int r = edges.first(t); r >= 0; r = edges.next(r, t)) {
+                int from = edges.other(r, t);
+                if (!affected.get(from)) {
+                    relax(edges, r, from);
+                }
+            }
+        }
+        propagate(edges);
+    }
+
+    /**
+     * Grows the arrays so towns added to the graph after the tree was built can be stored
+     * @param size number of graph indexes in use
+     */
+    private void ensureCapacity(int size) {
+        if (size > distance.length) {
+            int old = distance.length;
+            distance = Arrays.copyOf(distance, size);
+            parentRoad = Arrays.copyOf(parentRoad, size);
+            Arrays.fill(distance, old, size, UNREACHABLE);
+            Arrays.fill(parentRoad, old, size, -1);
+            queue.ensureCapacity(size);
+        }
+    }
+
+    /**
+     * Offers a shorter distance to the far end of a road
+     * @param edges the graph's roads
+     * @param road id of the road to relax
+     * @param from graph index of the end the path comes from
+     */
+    private void relax(EdgeStore edges, int road, int from) {
+        if (distance[from] == UNREACHABLE || !edges.isLightest(road, WeightProfile.DISTANCE)) {
+            return;
+        }
+        int to = edges.other(road, from);
+        int candidate = distance[from] + edges.weight(road);
+        if (candidate < distance[to]) {
+            distance[to] = candidate;
+            parentRoad[to] = road;
+            queue.offer(to, candidate);
+        }
+    }
+
+    /**
+     * Runs Dijkstra's algorithm from the queued towns until no distance improves
+     * @param edges the roads to search
+     */
+    private void propagate(EdgeStore edges) {
+        for (int t = queue.poll(); t >= 0; t = queue.poll()) {
+            for (int r = edges.first(t); r >= 0; r = edges.next(r, t)) {
+                relax(edges, r, t);
+            }
+        }
+    }
+}
@@ -0,0 +1,501 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * Index of town positions for finding the town nearest a point and the towns in a
+ * latitude/longitude box. Positions live in a few packed k-d trees: each is a set
+ * of parallel arrays whose middle entry splits the rest on latitude or longitude,
+ * whichever spreads wider, and so on down each half, so a tree is built in one
+ * bulk pass and searched without any node objects. New towns collect in a small
+ * buffer; when it fills it is built into a tree together with every tree no larger,
+ * so each town is rebuilt O(log n) times however the towns arrive and there are
+ * never more than O(log n) trees to search. Removing or moving a town only retires
+ * its entry, which is dropped at the next rebuild that meets it; once retired
+ * entries outnumber live ones everything is rebuilt into a single tree.
+ * <p>
+ * Distances are great-circle distances, compared as haversines. A subtree is
+ * skipped when a lower bound on the haversine to its box already exceeds the best
+ * found, which holds on the whole sphere and across the 180th meridian.
+ * @author Ha T Dao
+ */
+class SpatialIndex {
+
+    /**
+     * Towns held in the buffer before it is built into a tree
+     */
+    private static final int BUFFER = 64;
+
+    /**
+     * Ranges this small are scanned instead of split
+     */
+    private static final int LEAF = 8;
+
+    /**
+     * Generation of each town index's current entry, 0 if it has none
+     */
+    private int[] current = new int[0];
+
+    /**
+     * Generation given to the last entry added
+     */
+    private int generations;
+
+    /**
+     * Entries whose town is indexed, and retired entries still stored
+     */
+    private int live;
+    private int retired;
+
+    /**
+     * Entries not yet in a tree
+     */
+    private Tree buffer = new Tree(BUFFER);
+
+    /**
+     * The trees, largest first
+     */
+    private final ArrayList<Tree> trees = new ArrayList<>();
+
+    /**
+     * Returns the number of towns indexed
+     * @return the count
+     */
+    int size() {
+        return live;
+    }
+
+    /**
+     * Adds a town, or moves it if it is indexed already
+     * @param id index of the town
+     * @param latitude degrees north
+     * @param longitude degrees east
+     */
+    void add(int id, double latitude, double longitude) {
+        remove(id);
+        buffer.append(id, stamp(id), latitude, longitude);
+        live++;
+        if (buffer.size == BUFFER) {
+            Tree full = buffer;
+            buffer = new Tree(BUFFER);
+            insert(full);
+        }
+    }
+
+    /**
+     * Adds many towns at once, built into a tree directly
+     * @param ids indexes of the towns
+     * @param latitudes degrees north of each
+     * @param longitudes degrees east of each
+     * @param count number of towns in the arrays
+     */
+    void addAll(int[] ids, double[] latitudes, double[] longitudes, int count) {
+        Tree bulk = new Tree(count);
+        for (int i = 0; i < count; i++) {
+            remove(ids[i]);
+            bulk.append(ids[i], stamp(ids[i]), latitudes[i], longitudes[i]);
+            live++;
+        }
+        insert(bulk);
+    }
+
+    /**
+     * Removes a town if it is indexed
+     * @param id index of the town
+     */
+    void remove(int id) {
+        if (id < current.length && current[id] != 0) {
+            current[id] = 0;
+            live--;
+            retired++;
+        }
+    }
+
+    /**
+     * Finds the indexed town nearest a point
+     * @param latitude degrees north
+     * @param longitude degrees east
+     * @return index of the town, -1 if none is indexed
+     */
+    int nearest(double latitude, double longitude) {
+        Nearest search = new Nearest(latitude, longitude);
+        for (int i = 0; i < buffer.size; i++) {
+            search.consider(buffer, i);
+        }
+        for (Tree tree : trees) {
+            search.search(tree, 0, tree.size, tree.minLat, tree.maxLat, tree.minLon, tree.maxLon);
+        }
+        return search.best;
+    }
+
+    /**
+     * Finds the indexed towns inside a box. A box whose west edge is east of its
+     * east edge crosses the 180th meridian.
+     * @param south least latitude
+     * @param west least longitude
+     * @param north greatest latitude
+     * @param east greatest longitude
+     * @param found told the index of each town inside, in no particular order
+     */
+    void inBox(double south, double west, double north, double east, IntConsumer found) {
+        if (west > east) {
+            inBox(south, west, north, 180, found);
+            inBox(south, -180, north, east, found);
+            return;
+        }
+        for (int i = 0; i < buffer.size; i++) {
+            if (isCurrent(buffer, i) && buffer.inside(i, south, west, north, east)) {
+                found.accept(buffer.id[i]);
+            }
+        }
+        for (Tree tree : trees) {
+            boxSearch(tree, 0, tree.size, south, west, north, east, found);
+        }
+    }
+
+    private void boxSearch(Tree tree, int lo, int hi, double south, double west, double north,
+            double east, IntConsumer found) {
+        if (hi - lo <= LEAF) {
+            for (int i = lo; i < hi; i++) {
+                if (isCurrent(tree, i) && tree.inside(i, south, west, north, east)) {
+                    found.accept(tree.id[i]);
+                }
+            }
+            return;
+        }
+        int mid = (lo + hi) >>> 1;
+        if (isCurrent(tree, mid) && tree.inside(mid, south, west, north, east)) {
+            found.accept(tree.id[mid]);
+        }
+        boolean byLat = tree.axis[mid] == 0;
+        double split = byLat ? tree.lat[mid] : tree.lon[mid];
+        if ((byLat ? south : west) <= split) {
+            boxSearch(tree, lo, mid, south, west, north, east, found);
+        }
+        if ((byLat ? north : east) >= split) {
+            boxSearch(tree, mid + 1, hi, south, west, north, east, found);
+        }
+    }
+
+    /**
+     * Builds a new tree from some entries and every tree no larger, dropping
+     * retired entries on the way
+     */
+    private void insert(Tree entries) {
+        Tree merged = entries;
+        while (!trees.isEmpty() && trees.get(trees.size() - 1).size <= merged.size) {
+            merged = merged.plus(trees.remove(trees.size() - 1));
+        }
+        if (retired > live) {
+            // mostly retired: gather everything into one tree
+            for (Tree tree : trees) {
+                merged = merged.plus(tree);
+            }
+            trees.clear();
+            merged = merged.plus(buffer);
+            buffer = new Tree(BUFFER);
+        }
+        Tree kept = new Tree(merged.size);
+        for (int i = 0; i < merged.size; i++) {
+            if (isCurrent(merged, i)) {
+                kept.append(merged.id[i], merged.generation[i], merged.lat[i], merged.lon[i]);
+            } else {
+                retired--;
+            }
+        }
+        if (kept.size > 0) {
+            kept.build();
+            trees.add(kept);
+        }
+    }
+
+    private boolean isCurrent(Tree tree, int i) {
+        return current[tree.id[i]] == tree.generation[i];
+    }
+
+    private int stamp(int id) {
+        if (id >= current.length) {
+            current = Arrays.copyOf(current, Math.max(id + 1, current.length * 2));
+        }
+        current[id] = ++generations;
+        return generations;
+    }
+
+    /**
+     * A nearest town search, keeping the best entry found so far
+     */
+    private class Nearest {
+        private final double lat;
+        private final double lon;
+        private final double cosLat;
+        private final double x;
+        private final double y;
+        private final double z;
+        private double bestHav = Double.POSITIVE_INFINITY;
+
+        /**
+         * Angle to the best entry in degrees; no latitude gap can be wider
+         */
+        private double bestAngle = Double.POSITIVE_INFINITY;
+        private int best = -1;
+
+        Nearest(double latitude, double longitude) {
+            lat = latitude;
+            lon = longitude;
+            cosLat = Math.cos(Math.toRadians(latitude));
+            x = cosLat * Math.cos(Math.toRadians(longitude));
+            y = cosLat * Math.sin(Math.toRadians(longitude));
+            z = Math.sin(Math.toRadians(latitude));
+        }
+
+        void consider(Tree tree, int i) {
+            if (isCurrent(tree, i)) {
+                // the haversine is a quarter of the squared chord between the unit vectors
+                double dx = x - tree.x[i];
+                double dy = y - tree.y[i];
+                double dz = z - tree.z[i];
+                double h = (dx * dx + dy * dy + dz * dz) / 4;
+                if (h < bestHav) {
+                    bestHav = h;
+                    bestAngle = Math.toDegrees(2 * Math.asin(Math.min(1, Math.sqrt(h))));
+                    best = tree.id[i];
+                }
+            }
+        }
+
+        void search(Tree tree, int lo, int hi, double minLat, double maxLat, double minLon, double maxLon) {
+            if (lo >= hi || lowerBound(minLat, maxLat, minLon, maxLon) >= bestHav) {
+                return;
+            }
+            if (hi - lo <= LEAF) {
+                for (int i = lo; i < hi; i++) {
+                    consider(tree, i);
+                }
+                return;
+            }
+            int mid = (lo + hi) >>> 1;
+            consider(tree, mid);
+            if (tree.axis[mid] == 0) {
+                double split = tree.lat[mid];
+                if (lat <= split) {
+                    search(tree, lo, mid, minLat, split, minLon, maxLon);
+                    search(tree, mid + 1, hi, split, maxLat, minLon, maxLon);
+                } else {
+                    search(tree, mid + 1, hi, split, maxLat, minLon, maxLon);
+                    search(tree, lo, mid, minLat, split, minLon, maxLon);
+                }
+            } else {
+                double split = tree.lon[mid];
+                if (lon <= split) {
+                    search(tree, lo, mid, minLat, maxLat, minLon, split);
+                    search(tree, mid + 1, hi, minLat, maxLat, split, maxLon);
+                } else {
+                    search(tree, mid + 1, hi, minLat, maxLat, split, maxLon);
+                    search(tree, lo, mid, minLat, maxLat, minLon, split);
+                }
+            }
+        }
+
+        /**
+         * Lower bound on the haversine from the query to any point of a box: the
+         * haversine formula with the least latitude gap, the least longitude gap
+         * and the smallest cosine of a latitude in the box, each term at its least
+         */
+        private double lowerBound(double minLat, double maxLat, double minLon, double maxLon) {
+            double latGap = lat < minLat ? minLat - lat : lat > maxLat ? lat - maxLat : 0;
+            if (latGap >= bestAngle) {
+                return Double.POSITIVE_INFINITY;
+            }
+            if (lon >= minLon && lon <= maxLon) {
+                return haversine(latGap, 0, 0);
+            }
+            double lonGap = Math.min(Math.abs(circular(lon - minLon)), Math.abs(circular(lon - maxLon)));
+            // the cosine is least at the latitude furthest from the equator
+            double minCos = Math.cos(Math.toRadians(Math.max(Math.abs(minLat), Math.abs(maxLat))));
+            return haversine(latGap, cosLat * Math.max(0, minCos), lonGap);
+        }
+    }
+
+    /**
+     * Haversine of the angle between two points
+     * @param dLat difference of latitude in degrees
+     * @param cosProduct product of the cosines of the two latitudes
+     * @param dLon difference of longitude in degrees
+     */
+    private static double haversine(double dLat, double cosProduct, double dLon) {
+        double sinLat = Math.sin(Math.toRadians(dLat) / 2);
+        double sinLon = Math.sin(Math.toRadians(circular(dLon)) / 2);
+        return sinLat * sinLat + cosProduct * sinLon * sinLon;
+    }
+
+    /**
+     * Folds a longitude difference into -180 to 180
+     */
+    private static double circular(double dLon) {
+        double d = dLon % 360;
+        return d > 180 ? d - 360 : d < -180 ? d + 360 : d;
+    }
+
+    /**
+     * Entries in parallel arrays, once built a packed k-d tree: the middle entry
+     * of any range splits the rest of it on axis, lower values before it
+     */
+    private static class Tree {
+        int[] id;
+        int[] generation;
+        double[] lat;
+        double[] lon;
+        double[] x;
+        double[] y;
+        double[] z;
+        byte[] axis;
+        int size;
+        double minLat;
+        double maxLat;
+        double minLon;
+        double maxLon;
+
+        Tree(int capacity) {
+            id = new int[Math.max(capacity, 1)];
+            generation = new int[id.length];
+            lat = new double[id.length];
+            lon = new double[id.length];
+            x = new double[id.length];
+            y = new double[id.length];
+            z = new double[id.length];
+        }
+
+        void append(int town, int gen, double latitude, double longitude) {
+            if (size == id.length) {
+                int capacity = size * 2;
+                id = Arrays.copyOf(id, capacity);
+                generation = Arrays.copyOf(generation, capacity);
+                lat = Arrays.copyOf(lat, capacity);
+                lon = Arrays.copyOf(lon, capacity);
+                x = Arrays.copyOf(x, capacity);
+                y = Arrays.copyOf(y, capacity);
+                z = Arrays.copyOf(z, capacity);
+            }
+            id[size] = town;
+            generation[size] = gen;
+            lat[size] = latitude;
+            lon[size] = longitude;
+            double cos = Math.cos(Math.toRadians(latitude));
+            x[size] = cos * Math.cos(Math.toRadians(longitude));
+            y[size] = cos * Math.sin(Math.toRadians(longitude));
+            z[size] = Math.sin(Math.toRadians(latitude));
+            size++;
+        }
+
+        /**
+         * Returns a tree of the entries of both, not yet built
+         */
+        Tree plus(Tree other) {
+            Tree both = new Tree(size + other.size);
+            for (int i = 0; i < size; i++) {
+                both.append(id[i], generation[i], lat[i], lon[i]);
+            }
+            for (int i = 0; i < other.size; i++) {
+                both.append(other.id[i], other.generation[i], other.lat[i], other.lon[i]);
+            }
+            return both;
+        }
+
+        boolean inside(int i, double south, double west, double north, double east) {
+            return lat[i] >= south && lat[i] <= north && lon[i] >= west && lon[i] <= east;
+        }
+
+        /**
+         * Arranges the entries into a k-d tree
+         */
+        void build() {
+            axis = new byte[size];
+            minLat = minLon = Double.POSITIVE_INFINITY;
+            maxLat = maxLon = Double.NEGATIVE_INFINITY;
+            for (int i = 0; i < size; i++) {
+                minLat = Math.min(minLat, lat[i]);
+                maxLat = Math.max(maxLat, lat[i]);
+                minLon = Math.min(minLon, lon[i]);
+                maxLon = Math.max(maxLon, lon[i]);
+            }
+            split(0, size);
+        }
+
+        private void split(int lo, int hi) {
+            if (hi - lo <= LEAF) {
+                return;
+            }
+            double south = Double.POSITIVE_INFINITY, north = Double.NEGATIVE_INFINITY;
+            double west = Double.POSITIVE_INFINITY, east = Double.NEGATIVE_INFINITY;
+            for (int i = lo; i < hi; i++) {
+                south = Math.min(south, lat[i]);
+                north = Math.max(north, lat[i]);
+                west = Math.min(west, lon[i]);
+                east = Math.max(east, lon[i]);
+            }
+            // a degree of longitude is shorter away from the equator
+            double midLat = Math.toRadians((south + north) / 2);
+            boolean byLat = north - south >= (east - west) * Math.cos(midLat);
+            double[] key = byLat ? lat : lon;
+            int mid = (lo + hi) >>> 1;
+            select(key, lo, hi - 1, mid);
+            axis[mid] = (byLat ? (byte) 0 : (byte) 1);
+            split(lo, mid);
+            split(mid + 1, hi);
+        }
+
+        /**
+         * Moves the entry of rank k by key to position k, with no greater key before
+         * it and no smaller key after it
+         */
+        private void select(double[] key, int lo, int hi, int k) {
+            while (hi > lo) {
+                double pivot = key[(lo + hi) >>> 1];
+                int i = lo;
+                int j = hi;
+                while (i <= j) {
+                    while (key[i] < pivot) {
+                        i++;
+                    }
+                    while (key[j] > pivot) {
+                        j--;
+                    }
+                    if (i <= j) {
+                        swap(i++, j--);
+                    }
+                }
+                if (k <= j) {
+                    hi = j;
+                } else if (k >= i) {
+                    lo = i;
+                } else {
+                    return;
+                }
+            }
+        }
+
+        private void swap(int a, int b) {
+            int t = id[a];
+            id[a] = id[b];
+            id[b] = t;
+            t = generation[a];
+            generation[a] = generation[b];
+            generation[b] = t;
+            double d = lat[a];
+            lat[a] = lat[b];
+            lat[b] = d;
+            d = lon[a];
+            lon[a] = lon[b];
+            lon[b] = d;
+            d = x[a];
+            x[a] = x[b];
+            x[b] = d;
+            d = y[a];
+            y[a] = y[b];
+            y[b] = d;
+            d = z[a];
+            z[a] = z[b];
+            z[b] = d;
+        }
+    }
+}
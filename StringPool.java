@@ -0,0 +1,215 @@
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Deduplicated store for town and road names. Each distinct name is kept once,
+ * as UTF-8 bytes inside large shared byte arrays, and is addressed by an int
+ * reference instead of a String object. Names are turned back into Strings
+ * only when asked for, and equality and hash codes can be answered from the bytes.
+ * <p>
+ * Names are never removed from a pool. Each Graph therefore has a pool of its
+ * own (shared only with the GraphBuilder that built it), holding the names of
+ * its towns and roads, and the names go when the graph does.
+ * <p>
+ * An entry is laid out as the String hash code (4 bytes), the byte length
+ * (2 bytes) and the UTF-8 bytes. A reference holds the chunk number in its
+ * high bits and the offset within the chunk in its low 20 bits.
+ * @author Ha T Dao
+ */
+class StringPool {
+
+    private static final int OFFSET_BITS = 20;
+    private static final int CHUNK_SIZE = 1 << OFFSET_BITS;
+    private static final int HEADER = 6;
+
+    /**
+     * Longest name, in UTF-8 bytes, that can be stored
+     */
+    static final int MAX_LENGTH = 0xffff;
+
+    /**
+     * Storage chunks; replaced, never modified in place where entries exist, when one is added
+     */
+    private volatile byte[][] chunks = new byte[][] {new byte[CHUNK_SIZE]};
+
+    /**
+     * Bytes used in the last chunk
+     */
+    private int used;
+
+    /**
+     * Open addressing table of references by hash code, -1 where empty
+     */
+    private int[] table = newTable(1024);
+
+    /**
+     * Number of distinct names stored
+     */
+    private int count;
+
+    /**
+     * Stores a name if it is not already in the pool
+     * @param s the name
+     * @return the reference of the name
+     * @throws IllegalArgumentException if the name is longer than MAX_LENGTH bytes
+     */
+    synchronized int intern(String s) {
+        int hash = s.hashCode();
+        int mask = table.length - 1;
+        int slot = hash & mask;
+        for (int ref = table[slot]; ref != -1; ref = table[slot = (slot + 1) & mask]) {
+            if (hash(ref) == hash && contentEquals(ref, s)) {
+                return ref;
+            }
+        }
+        byte[] utf8 = s.getBytes(StandardCharsets.UTF_8);
+        if (utf8.length > MAX_LENGTH) {
+            throw new IllegalArgumentException("Name too long");
+        }
+        int ref = append(hash, utf8);
+        table[slot] = ref;
+        if (++count * 2 > table.length) {
+            rehash();
+        }
+        return ref;
+    }
+
+    /**
+     * Looks a name up without storing it
+     * @param s the name
+     * @return the reference of the name, or -1 if it is not in the pool
+     */
+    synchronized int find(String s) {
+        int hash = s.hashCode();
+        int mask = table.length - 1;
+        int slot = hash & mask;
+        for (int ref = table[slot]; ref != -1; ref = table[slot = (slot + 1) & mask]) {
+            if (hash(ref) == hash && contentEquals(ref, s)) {
+                return ref;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Builds the String for a reference
+     * @param ref the reference
+     * @return the name
+     */
+    String get(int ref) {
+        byte[] chunk = chunks[ref >>> OFFSET_BITS];
+        int offset = ref & (CHUNK_SIZE - 1);
+        return new String(chunk, offset + HEADER, length(chunk, offset), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns the hash code of the String a reference stands for
+     * @param ref the reference
+     * @return the same value as get(ref).hashCode()
+     */
+    int hash(int ref) {
+        byte[] chunk = chunks[ref >>> OFFSET_BITS];
+        int offset = ref & (CHUNK_SIZE - 1);
+        return (chunk[offset] & 0xff) << 24 | (chunk[offset + 1] & 0xff) << 16
+                | (chunk[offset + 2] & 0xff) << 8 | (chunk[offset + 3] & 0xff);
+    }
+
+    /**
+     * Compares a stored name with a String by decoding the bytes in place, without creating a String
+     * @param ref the reference
+     * @param s the String to compare with
+     * @return true if the name equals s
+     */
+    boolean contentEquals(int ref, String s) {
+        byte[] chunk = chunks[ref >>> OFFSET_BITS];
+        int offset = ref & (CHUNK_SIZE - 1);
+        int pos = offset + HEADER;
+        int end = pos + length(chunk, offset);
+        int i = 0;
+        int n = s.length();
+        while (pos < end) {
+            int b = chunk[pos] & 0xff;
+            int cp;
+            if (b < 0x80) {
+                cp = b;
+                pos += 1;
+            } else if (b < 0xe0) {
+                cp = (b & 0x1f) << 6 | (chunk[pos + 1] & 0x3f);
+                pos += 2;
+            } else if (b < 0xf0) {
+                cp = (b & 0x0f) << 12 | (chunk[pos + 1] & 0x3f) << 6 | (chunk[pos + 2] & 0x3f);
+                pos += 3;
+            } else {
+                cp = (b & 0x07) << 18 | (chunk[pos + 1] & 0x3f) << 12
+                        | (chunk[pos + 2] & 0x3f) << 6 | (chunk[pos + 3] & 0x3f);
+                pos += 4;
+            }
+            if (i >= n || s.codePointAt(i) != cp) {
+                return false;
+            }
+            i += Character.charCount(cp);
+        }
+        return i == n;
+    }
+
+    /**
+     * Returns the number of distinct names stored
+     * @return the count
+     */
+    synchronized int size() {
+        return count;
+    }
+
+    private static int length(byte[] chunk, int offset) {
+        return (chunk[offset + 4] & 0xff) << 8 | (chunk[offset + 5] & 0xff);
+    }
+
+    /**
+     * Copies an entry to the end of the storage, starting a new chunk if it does not fit
+     */
+    private int append(int hash, byte[] utf8) {
+        int size = HEADER + utf8.length;
+        byte[][] current = chunks;
+        if (used + size > CHUNK_SIZE) {
+            if (current.length == 1 << (31 - OFFSET_BITS)) {
+                throw new IllegalStateException("String pool is full");
+            }
+            current = Arrays.copyOf(current, current.length + 1);
+            current[current.length - 1] = new byte[CHUNK_SIZE];
+            used = 0;
+        }
+        byte[] chunk = current[current.length - 1];
+        chunk[used] = (byte) (hash >>> 24);
+        chunk[used + 1] = (byte) (hash >>> 16);
+        chunk[used + 2] = (byte) (hash >>> 8);
+        chunk[used + 3] = (byte) hash;
+        chunk[used + 4] = (byte) (utf8.length >>> 8);
+        chunk[used + 5] = (byte) utf8.length;
+        System.arraycopy(utf8, 0, chunk, used + HEADER, utf8.length);
+        int ref = (current.length - 1) << OFFSET_BITS | used;
+        used += size;
+        chunks = current;
+        return ref;
+    }
+
+    private void rehash() {
+        int[] old = table;
+        table = newTable(old.length * 2);
+        int mask = table.length - 1;
+        for (int ref : old) {
+            if (ref != -1) {
+                int slot = hash(ref) & mask;
+                while (table[slot] != -1) {
+                    slot = (slot + 1) & mask;
+                }
+                table[slot] = ref;
+            }
+        }
+    }
+
+    private static int[] newTable(int size) {
+        int[] t = new int[size];
+        Arrays.fill(t, -1);
+        return t;
+    }
+}
@@ -1,14 +1,23 @@
-
 /**
  * /**
  * Class to represent a town, the node of the graph.
  * @author Ha T Dao
  */
 public class Town implements Comparable<Town>{
-    
-    //Town's name
+
+    //Town's name, null once the name is kept in a string pool
     private String name;
-    
+
+    //String pool of the graph holding the town, null if not pooled
+    private StringPool pool;
+
+    //Reference of the name in the pool, -1 if not pooled
+    private int nameRef = -1;
+
+    //Position in degrees, NaN if the town has no known location
+    private double latitude = Double.NaN;
+    private double longitude = Double.NaN;
+
     /**
      * Constructor - Requires town's name.
      * @param name town's name
@@ -16,32 +25,103 @@ public class Town implements Comparable<Town>{
     public Town(String name) {
         this.name = name;
     }
-    
+
+    /**
+     * Constructor for a town with a known location. The location does not take
+     * part in equality: towns are still told apart by name.
+     * @param name town's name
+     * @param latitude degrees north, -90 to 90
+     * @param longitude degrees east, -180 to 180
+     * @throws IllegalArgumentException if the location is out of range
+     */
+    public Town(String name, double latitude, double longitude) {
+        this.name = name;
+        if (!(latitude >= -90 && latitude <= 90 && longitude >= -180 && longitude <= 180)) {
+            throw new IllegalArgumentException("No such location " + latitude + "," + longitude);
+        }
+        this.latitude = latitude;
+        this.longitude = longitude;
+    }
+
     /**
      * Copy constructor
      * @param templateTown an instance of Town
      */
     public Town(Town templateTown) {
-        this(templateTown.name);
+        this.name = templateTown.name;
+        this.pool = templateTown.pool;
+        this.nameRef = templateTown.nameRef;
+        this.latitude = templateTown.latitude;
+        this.longitude = templateTown.longitude;
+    }
+
+    /**
+     * Returns a town equal to this one whose name is kept in a graph's string
+     * pool, for towns that are stored in that graph
+     * @param names the graph's string pool
+     * @return this town if its name is already in that pool, otherwise a pooled copy
+     */
+    Town pooled(StringPool names) {
+        if (pool == names) {
+            return this;
+        }
+        Town town = new Town(this);
+        town.nameRef = names.intern(getName());
+        town.pool = names;
+        town.name = null;
+        return town;
+    }
+
+    /**
+     * Returns the reference of the town's name in a string pool, without adding it
+     * @param names the pool
+     * @return the reference, or -1 if the pool does not hold the name
+     */
+    int nameRefIn(StringPool names) {
+        return pool == names ? nameRef : names.find(getName());
     }
-    
+
     /**
      * Returns the town's name
      * @return town's name
      */
     public String getName() {
-        return name;
+        return name != null ? name : pool.get(nameRef);
+    }
+
+    /**
+     * Checks whether the town's location is known
+     * @return true if it has a latitude and longitude
+     */
+    public boolean hasLocation() {
+        return !Double.isNaN(latitude);
     }
-        
+
+    /**
+     * Returns the town's latitude
+     * @return degrees north, NaN if the location is not known
+     */
+    public double getLatitude() {
+        return latitude;
+    }
+
+    /**
+     * Returns the town's longitude
+     * @return degrees east, NaN if the location is not known
+     */
+    public double getLongitude() {
+        return longitude;
+    }
+
     /**
 	 * Compare to method
 	 * @return town's name
 	 */
     @Override
     public int compareTo(Town o) {
-        return this.name.compareTo(o.name);
+        return this.getName().compareTo(o.getName());
     }
-    
+
     /**
 	 * Equivalency check
 	 * @return true if the town names are equal, false if not
@@ -49,24 +129,33 @@ public class Town implements Comparable<Town>{
     @Override
     public boolean equals(Object obj) {
         Town town = (Town) obj;
+        if (pool != null && pool == town.pool) {
+            return nameRef == town.nameRef;
+        }
+        if (pool != null) {
+            return pool.contentEquals(nameRef, town.getName());
+        }
+        if (town.pool != null) {
+            return town.pool.contentEquals(town.nameRef, name);
+        }
         return this.name.compareTo(town.name) == 0;
     }
-    
+
     /**
      * Hash code for town
      * @return the hash code for the name of the town
      */
     @Override
     public int hashCode() {
-        return name.hashCode();
+        return name != null ? name.hashCode() : pool.hash(nameRef);
     }
-    
+
     /**
      * String representation of town
      * @return the town name
      */
     @Override
     public String toString(){
-        return name;
+        return getName();
     }
-}
\ No newline at end of file
+}
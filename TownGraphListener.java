@@ -0,0 +1,33 @@
+/**
+ * Receives change notifications from a TownGraphManager, so views can apply
+ * the add/remove deltas instead of re-reading every town and road after each edit.
+ * @author Ha T Dao
+ */
+public interface TownGraphListener {
+
+    /**
+     * Called after a town that was not already in the graph has been added
+     * @param name the town's name
+     */
+    public void townAdded(String name);
+
+    /**
+     * Called after a town has been removed from the graph
+     * @param name the town's name
+     */
+    public void townRemoved(String name);
+
+    /**
+     * Called after a road has been added to the graph
+     * @param roadName the road's name
+     */
+    public default void roadAdded(String roadName) {
+    }
+
+    /**
+     * Called after a road has been removed from the graph
+     * @param roadName the road's name
+     */
+    public default void roadRemoved(String roadName) {
+    }
+}
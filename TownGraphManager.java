@@ -1,10 +1,21 @@
 
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.FileReader;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Scanner;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Collectors;
 
 /**
  * Manager class for a graph of type TownGraph. 
@@ -17,42 +28,686 @@ public class TownGraphManager implements TownGraphManagerInterface {
      */
     private Graph graph = new Graph();
 
+    /**
+     * Views that are notified of town and road deltas
+     */
+    private List<TownGraphListener> listeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * Queries hold the read lock and changes the write lock, so a query never
+     * sees a change (or a batch of weight changes) half applied
+     */
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * Routes already found, shared by both directions of a town pair; cleared on every change
+     */
+    private final PathCache pathCache;
+
+    /**
+     * Journal that changes are written to, null while not journaling
+     */
+    private MutationJournal journal;
+
+    /**
+     * Journal size that triggers a new checkpoint
+     */
+    private long checkpointBytes = 64L << 20;
+
+    /**
+     * Creates an empty manager whose route cache holds up to 10,000 town pairs
+     */
+    public TownGraphManager() {
+        this(10000, 0);
+    }
+
+    /**
+     * Creates an empty manager
+     * @param cacheSize most town pairs whose route is cached
+     * @param cacheTtlMillis milliseconds a cached route stays valid, 0 for no limit
+     */
+    public TownGraphManager(int cacheSize, long cacheTtlMillis) {
+        pathCache = new PathCache(cacheSize, cacheTtlMillis);
+    }
+
+    /**
+     * Returns the route cache, e.g. to read its hit, miss and eviction counts
+     * @return the route cache
+     */
+    public PathCache getPathCache() {
+        return pathCache;
+    }
+
+    /**
+     * Registers a listener to be notified whenever a town or road is added or removed.
+     * @param listener the listener to add
+     */
+    public void addTownGraphListener(TownGraphListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Unregisters a listener added with addTownGraphListener.
+     * @param listener the listener to remove
+     */
+    public void removeTownGraphListener(TownGraphListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Starts journaling every change to a directory. If the directory already holds
+     * a journaled graph, it is recovered first: the last checkpoint is loaded and the
+     * changes journaled after it are replayed. Otherwise the current graph is written
+     * as the first checkpoint. From then on each change returns only once it is on
+     * disk, with changes from concurrent threads sharing a single fsync, and a new
+     * checkpoint is written whenever the journal grows past 64 MiB.
+     * @param directory the directory holding the checkpoint and the journal
+     * @throws IOException if the directory cannot be read or written
+     * @throws IllegalStateException if already journaling, or if there is a graph
+     * to recover but this manager is not empty
+     */
+    public void openJournal(File directory) throws IOException {
+        lock.writeLock().lock();
+        try {
+            if (journal != null) {
+                throw new IllegalStateException("Already journaling");
+            }
+            MutationJournal opened = new MutationJournal(directory);
+            try {
+                if (new File(directory, "checkpoint.bin").exists() && !graph.vertexSet().isEmpty()) {
+                    throw new IllegalStateException("Recovery needs an empty manager");
+                }
+                if (!opened.recover(this)) {
+                    opened.checkpoint(graph);
+                }
+            } catch (IOException | RuntimeException e) {
+                opened.close();
+                throw e;
+            }
+            journal = opened;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Writes the current graph as a new checkpoint and empties the journal, so a
+     * recovery has nothing to replay
+     * @throws IOException if the checkpoint cannot be written
+     * @throws IllegalStateException if not journaling
+     */
+    public void checkpoint() throws IOException {
+        lock.writeLock().lock();
+        try {
+            if (journal == null) {
+                throw new IllegalStateException("Not journaling");
+            }
+            journal.checkpoint(graph);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Stops journaling and closes the journal; changes already returned are on disk
+     * @throws IOException if the journal cannot be closed
+     */
+    public void closeJournal() throws IOException {
+        lock.writeLock().lock();
+        try {
+            if (journal != null) {
+                journal.close();
+                journal = null;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Sets the journal size at which a new checkpoint is written
+     * @param bytes the size in bytes
+     */
+    public void setCheckpointBytes(long bytes) {
+        checkpointBytes = bytes;
+    }
+
+    /**
+     * Writes a checkpoint if the journal has grown too large; called with the write lock held
+     * @throws IOException if the checkpoint cannot be written
+     */
+    private void checkpointIfDue() throws IOException {
+        if (journal != null && journal.size() > checkpointBytes) {
+            journal.checkpoint(graph);
+        }
+    }
+
+    /**
+     * Waits until a journaled change is on disk. Called after the write lock is
+     * released, so other writers can append meanwhile and share the fsync; a change
+     * nested in a larger one (a road of a file being loaded) is left to the outer call.
+     * @param sequence the change's journal sequence number, 0 if it was not journaled
+     */
+    private void awaitDurable(long sequence) {
+        MutationJournal j = journal;
+        if (sequence > 0 && j != null && !lock.isWriteLockedByCurrentThread()) {
+            try {
+                j.awaitDurable(sequence);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
     /**
 	 * This method populates the graph with all of the towns and roads from a file.
+	 * The file is read completely and the graph rebuilt in one go with a GraphBuilder,
+	 * so a file with a bad line leaves the graph as it was. A line repeating another
+	 * line exactly adds no second road; roads already in the graph are all kept. Towns listed in a [towns] section get their location.
 	 * @param selectedFile
 	 * @throws FileNotFoundException
 	 * @throws IOException
 	 */
     public void populateTownGraph(File selectedFile) 
             throws FileNotFoundException, IOException {
-        Scanner readInput = new Scanner(selectedFile);
-        String text = "";
-        while (readInput.hasNextLine()) {
-            text += readInput.nextLine() + " ";
-        }
-        readInput.close();
-        
-        String[] roads = text.split(" ");
-        String[][] roadsInfo = new String[roads.length][];
-        
-        for (int i = 0; i < roadsInfo.length; i++) {
-            
-            roadsInfo[i] = new String[4];
-            roadsInfo[i][0] = roads[i].split(";")[0].split(",")[0];
-            roadsInfo[i][1] = roads[i].split(";")[0].split(",")[1];
-            roadsInfo[i][2] = roads[i].split(";")[1];
-            roadsInfo[i][3] = roads[i].split(";")[2];
-            
-            addTown(roadsInfo[i][2]);
-            addTown(roadsInfo[i][3]);
-            addRoad(roadsInfo[i][2], roadsInfo[i][3], 
-                    Integer.parseInt(roadsInfo[i][1]), roadsInfo[i][0]);
+        lock.writeLock().lock();
+        try (BufferedReader in = new BufferedReader(new FileReader(selectedFile))) {
+            GraphBuilder builder = new GraphBuilder(graph);
+            RoadLine.read(in, builder::addRoad,
+                    t -> builder.addTown(t.getName(), t.getLatitude(), t.getLongitude()));
+            Graph old = graph;
+            graph = builder.build();
+            pathCache.clear();
+            if (!listeners.isEmpty()) {
+                notifyAdded(old);
+            }
+            if (journal != null) {
+                journal.checkpoint(graph);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Tells the listeners about the towns and roads the graph has gained since it
+     * was a previous graph
+     * @param old the previous graph
+     */
+    private void notifyAdded(Graph old) {
+        graph.towns().filter(t -> !old.containsVertex(t)).forEach(t -> {
+            for (TownGraphListener l : listeners) {
+                l.townAdded(t.getName());
+            }
+        });
+        // roads are told apart by name only, so compare name counts
+        Map<String, Integer> oldRoads = new HashMap<>();
+        old.roads().forEach(r -> oldRoads.merge(r.getName(), 1, Integer::sum));
+        graph.roads().map(Road::getName).forEach(name -> {
+            if (oldRoads.merge(name, -1, Integer::sum) < 0) {
+                for (TownGraphListener l : listeners) {
+                    l.roadAdded(name);
+                }
+            }
+        });
+    }
+
+    /**
+     * Brings the graph in line with a new edition of its road file by applying only
+     * the differences. Every road of the graph and every line of the file is reduced
+     * to a 64-bit hash of its name, weight and towns; a line repeating an earlier
+     * one is skipped, as loading the file would, and lines whose hash matches a road
+     * are unchanged and cost nothing more. Of the rest, a road and a line with the
+     * same name and towns are a weight change, a line left over is a new road and a
+     * road left over is a removed one. Towns the file no longer mentions are removed,
+     * and towns its [towns] section places somewhere new are moved.
+     * <p>
+     * The changes are made one road at a time, so the graph's shortest path trees
+     * are repaired around them instead of being thrown away, and nothing is done at
+     * all if the file did not change. When journaling, a reload is saved as a new
+     * checkpoint rather than road by road.
+     * @param selectedFile the new road file
+     * @return what changed
+     * @throws IOException if the file cannot be read or has a malformed line; the
+     * graph is not changed then
+     */
+    public ReloadSummary reloadFrom(File selectedFile) throws IOException {
+        lock.writeLock().lock();
+        try {
+            // roads of the graph by line hash, counted down as the file matches them
+            LongIntHashMap unmatched = new LongIntHashMap(0);
+            for (Road r : graph.edgeSet()) {
+                unmatched.addTo(RoadLine.hash(r), 1);
+            }
+            Set<String> fileTowns = new HashSet<>();
+            List<RoadLine> added = new ArrayList<>();
+            Map<String, Town> located = new HashMap<>();
+            // lines already read, so repeats are dropped as GraphBuilder drops them on load
+            LongIntHashMap lines = new LongIntHashMap(0);
+            try (BufferedReader in = new BufferedReader(new FileReader(selectedFile))) {
+                RoadLine.read(in, road -> {
+                    fileTowns.add(road.townA);
+                    fileTowns.add(road.townB);
+                    long hash = road.hash();
+                    if (lines.put(hash, 1) != 0) {
+                        return;
+                    }
+                    if (unmatched.get(hash) == 0) {
+                        added.add(road);
+                    } else if (unmatched.addTo(hash, -1) == 0) {
+                        unmatched.remove(hash);
+                    }
+                }, t -> {
+                    fileTowns.add(t.getName());
+                    located.put(t.getName(), t);
+                });
+            }
+            // roads no line matched, by key, to pair with lines that only changed weight
+            Map<Long, List<Road>> removed = new HashMap<>();
+            if (!unmatched.isEmpty()) {
+                for (Road r : graph.edgeSet()) {
+                    long hash = RoadLine.hash(r);
+                    if (unmatched.get(hash) != 0) {
+                        removed.computeIfAbsent(RoadLine.keyHash(r), k -> new ArrayList<>()).add(r);
+                        if (unmatched.addTo(hash, -1) == 0) {
+                            unmatched.remove(hash);
+                        }
+                    }
+                }
+            }
+
+            ReloadSummary summary = new ReloadSummary();
+            for (String name : fileTowns) {
+                if (graph.addVertex(located.getOrDefault(name, new Town(name)))) {
+                    summary.townsAdded++;
+                    for (TownGraphListener l : listeners) {
+                        l.townAdded(name);
+                    }
+                }
+            }
+            for (Town t : located.values()) {
+                Town current = graph.town(graph.townId(t));
+                if (current.getLatitude() != t.getLatitude() || current.getLongitude() != t.getLongitude()) {
+                    graph.setLocation(t, t.getLatitude(), t.getLongitude());
+                    summary.townsMoved++;
+                }
+            }
+            List<RoadLine> newRoads = new ArrayList<>();
+            for (RoadLine road : added) {
+                List<Road> sameRoad = removed.get(road.keyHash());
+                if (sameRoad != null && !sameRoad.isEmpty()) {
+                    graph.updateWeight(sameRoad.remove(sameRoad.size() - 1), road.weight);
+                    summary.roadsReweighted++;
+                } else {
+                    newRoads.add(road);
+                }
+            }
+            for (List<Road> roads : removed.values()) {
+                for (Road r : roads) {
+                    graph.removeEdge(r);
+                    summary.roadsRemoved++;
+                    for (TownGraphListener l : listeners) {
+                        l.roadRemoved(r.getName());
+                    }
+                }
+            }
+            for (RoadLine road : newRoads) {
+                graph.addEdge(new Town(road.townA), new Town(road.townB), road.weight, road.name);
+                summary.roadsAdded++;
+                for (TownGraphListener l : listeners) {
+                    l.roadAdded(road.name);
+                }
+            }
+            for (Town t : new ArrayList<>(graph.vertexSet())) {
+                if (!fileTowns.contains(t.getName())) {
+                    graph.removeVertex(t);
+                    summary.townsRemoved++;
+                    for (TownGraphListener l : listeners) {
+                        l.townRemoved(t.getName());
+                    }
+                }
+            }
+            if (summary.changes() > 0) {
+                pathCache.clear();
+                if (journal != null) {
+                    journal.checkpoint(graph);
+                }
+            }
+            return summary;
+        } finally {
+            lock.writeLock().unlock();
         }
     }
+
     
     @Override
     public ArrayList<String> getPath(String town1, String town2) {
-        return graph.shortestPath(new Town(town1), new Town(town2));
+        lock.readLock().lock();
+        try {
+            PathCache.Route cached = pathCache.get(town1, town2);
+            if (cached == null) {
+                cached = new PathCache.Route(town1, graph.shortestRoute(new Town(town1), new Town(town2)), 0);
+                pathCache.put(town1, town2, cached.roads);
+            }
+            if (cached.roads == null || cached.from.equals(town1)) {
+                return graph.describe(new Town(town1), cached.roads);
+            }
+            // found from the other end: travel it backwards
+            int[] reversed = new int[cached.roads.length];
+            for (int i = 0; i < reversed.length; i++) {
+                reversed[i] = cached.roads[reversed.length - 1 - i];
+            }
+            return graph.describe(new Town(town1), reversed);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the path from town 1 to town 2 with the least total weight in a
+     * profile. Only distance routes are cached; other profiles are searched each time.
+     * @param town1 name of town 1
+     * @param town2 name of town 2
+     * @param profile what the path minimizes
+     * @return the path in the format of getPath, empty if there is none
+     */
+    public ArrayList<String> getPath(String town1, String town2, WeightProfile profile) {
+        if (profile == WeightProfile.DISTANCE) {
+            return getPath(town1, town2);
+        }
+        lock.readLock().lock();
+        try {
+            return graph.shortestPath(new Town(town1), new Town(town2), profile);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Reads the length of a path from the last line of what getPath returned
+     * @param path a path in the format of getPath
+     * @return its total miles, -1 for an empty path (no route)
+     */
+    public static int totalMiles(List<String> path) {
+        if (path.isEmpty()) {
+            return -1;
+        }
+        String total = path.get(path.size() - 1); // "Total miles: N miles"
+        return Integer.parseInt(total.substring(total.indexOf(':') + 2, total.lastIndexOf(' ')));
+    }
+
+    /**
+     * Checks whether any route joins two towns. Answered from the graph's
+     * connectivity index without searching, so it is cheap enough to call before
+     * every getPath.
+     * @param town1 name of one town
+     * @param town2 name of the other town
+     * @return true if both towns exist and are connected by roads
+     */
+    public boolean isReachable(String town1, String town2) {
+        lock.readLock().lock();
+        try {
+            return graph.isReachable(new Town(town1), new Town(town2));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns up to k alternative routes from town 1 to town 2, shortest first
+     * @param town1 name of town 1
+     * @param town2 name of town 2
+     * @param k the number of routes wanted
+     * @return the routes, each in the format of getPath
+     */
+    public ArrayList<ArrayList<String>> getPaths(String town1, String town2, int k) {
+        lock.readLock().lock();
+        try {
+            return graph.kShortestPaths(new Town(town1), new Town(town2), k);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Computes the road distance between every pair of a source and a target town,
+     * without building any path descriptions. The searches run in parallel.
+     * @param sources names of the towns to measure from
+     * @param targets names of the towns to measure to
+     * @return distances in miles, [source][target]; Integer.MAX_VALUE where there is no path
+     * @throws IllegalArgumentException if a town is not in the graph
+     */
+    public int[][] distanceMatrix(List<String> sources, List<String> targets) {
+        return distanceMatrix(sources, targets, WeightProfile.DISTANCE);
+    }
+
+    /**
+     * Computes the least total weight in a profile between every pair of a source
+     * and a target town
+     * @param sources names of the towns to measure from
+     * @param targets names of the towns to measure to
+     * @param profile the weights to add up
+     * @return total weights, [source][target]; Integer.MAX_VALUE where there is no path
+     * @throws IllegalArgumentException if a town is not in the graph
+     */
+    public int[][] distanceMatrix(List<String> sources, List<String> targets, WeightProfile profile) {
+        List<Town> from = new ArrayList<>();
+        for (String name : sources) {
+            from.add(new Town(name));
+        }
+        List<Town> to = new ArrayList<>();
+        for (String name : targets) {
+            to.add(new Town(name));
+        }
+        lock.readLock().lock();
+        try {
+            return graph.distanceMatrix(from, to, profile);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Computes the road distance from a town to every town it can reach. The search
+     * is spread over all cores, for one-to-all reports on large maps.
+     * @param source name of the town to measure from
+     * @return miles to each reachable town by name, the source included at 0; empty
+     * if the town is not in the graph
+     */
+    public Map<String, Integer> distancesFrom(String source) {
+        Map<String, Integer> distances = new HashMap<>();
+        lock.readLock().lock();
+        try {
+            for (Map.Entry<Town, Integer> d : graph.distancesFrom(new Town(source)).entrySet()) {
+                distances.put(d.getKey().getName(), d.getValue());
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return distances;
+    }
+
+    /**
+     * Returns the towns within a road distance of a town, closest first
+     * @param source name of the town to measure from
+     * @param maxMiles the largest distance to include
+     * @return names of the other towns within maxMiles, closest first
+     */
+    public ArrayList<String> townsWithin(String source, int maxMiles) {
+        lock.readLock().lock();
+        try {
+            return names(graph.townsWithin(new Town(source), maxMiles));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the k towns closest to a town by road
+     * @param source name of the town to measure from
+     * @param k the number of towns wanted
+     * @return names of up to k other towns, closest first
+     */
+    public ArrayList<String> nearestTowns(String source, int k) {
+        lock.readLock().lock();
+        try {
+            return names(graph.nearestTowns(new Town(source), k));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Snaps a position, such as a GPS fix, to the closest town with a location
+     * @param latitude degrees north
+     * @param longitude degrees east
+     * @return the town's name, null if no town has a location
+     */
+    public String nearestTown(double latitude, double longitude) {
+        lock.readLock().lock();
+        try {
+            Town nearest = graph.nearestTown(latitude, longitude);
+            return nearest == null ? null : nearest.getName();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the towns located inside a latitude/longitude box, edges included;
+     * a box whose west edge is east of its east edge crosses the 180th meridian
+     * @param south least latitude
+     * @param west least longitude
+     * @param north greatest latitude
+     * @param east greatest longitude
+     * @return the town names, sorted
+     */
+    public ArrayList<String> townsInBox(double south, double west, double north, double east) {
+        ArrayList<String> towns;
+        lock.readLock().lock();
+        try {
+            towns = names(graph.townsInBox(south, west, north, east));
+        } finally {
+            lock.readLock().unlock();
+        }
+        Collections.sort(towns);
+        return towns;
+    }
+
+    /**
+     * Splits the graph into regions of about equal size with few roads between
+     * them and writes them to a directory, for a ShardWorker per region and a
+     * ShardCoordinator over them
+     * @param directory where to write the region, overlay and partition files
+     * @param shards the number of regions
+     * @return the number of roads between regions
+     * @throws IOException if the files cannot be written
+     */
+    public int writeShards(File directory, int shards) throws IOException {
+        lock.readLock().lock();
+        try {
+            GraphPartitioner partitioner = new GraphPartitioner(graph, shards);
+            partitioner.write(directory);
+            return partitioner.getCutRoads();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the names of a list of towns, in the same order
+     */
+    private static ArrayList<String> names(List<Town> towns) {
+        ArrayList<String> names = new ArrayList<>(towns.size());
+        for (Town t : towns) {
+            names.add(t.getName());
+        }
+        return names;
+    }
+
+    /**
+     * Creates an empty batch of weight changes to be staged and then applied with applyWeightBatch
+     * @return the new batch
+     */
+    public WeightBatch newWeightBatch() {
+        return new WeightBatch();
+    }
+
+    /**
+     * Applies every change of a batch as one update. The changes are resolved and
+     * checked first, then applied under the write lock, so queries see either none
+     * of them or all of them, and the graph's route caches are refreshed once for
+     * the whole batch.
+     * @param batch the staged weight changes
+     * @return the number of roads whose weight was changed; names of roads that are
+     * not in the graph are skipped
+     */
+    public int applyWeightBatch(WeightBatch batch) {
+        return applyWeightBatch(batch, WeightProfile.DISTANCE);
+    }
+
+    /**
+     * Applies every change of a batch to the weights of one profile as one update,
+     * as applyWeightBatch(WeightBatch) does for distance. The staged numbers are
+     * read in that profile's unit, e.g. minutes for TIME.
+     * @param batch the staged weight changes
+     * @param profile the profile whose weights change
+     * @return the number of roads whose weight was changed; names of roads that are
+     * not in the graph are skipped
+     */
+    public int applyWeightBatch(WeightBatch batch, WeightProfile profile) {
+        long sequence = 0;
+        lock.writeLock().lock();
+        try {
+            Map<Road, Integer> changes = new HashMap<>();
+            for (Map.Entry<String, Integer> change : batch.changes().entrySet()) {
+                for (Road r : graph.roadsNamed(change.getKey())) {
+                    if (r.getWeight(profile) != change.getValue()) {
+                        changes.put(r, change.getValue());
+                    }
+                }
+            }
+            if (!changes.isEmpty()) {
+                // journaled first, so a change queries have seen is never missing from the journal
+                if (journal != null) {
+                    sequence = profile == WeightProfile.DISTANCE ? journal.setWeights(batch.changes())
+                            : journal.setWeights(profile, batch.changes());
+                }
+                graph.updateWeights(changes, profile);
+                if (profile == WeightProfile.DISTANCE) {
+                    pathCache.clear();
+                }
+                if (journal != null) {
+                    checkpointIfDue();
+                }
+            }
+            return changes.size();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            lock.writeLock().unlock();
+            awaitDurable(sequence);
+        }
+    }
+
+    /**
+     * Reads a traffic feed of name,newWeight lines and applies it as one batch
+     * @param feed the feed file
+     * @return the number of roads whose weight was changed
+     * @throws IOException if the feed cannot be read
+     * @throws IllegalArgumentException if a line is malformed; nothing is applied then
+     */
+    public int applyWeightFeed(File feed) throws IOException {
+        WeightBatch batch = newWeightBatch();
+        try (BufferedReader in = new BufferedReader(new FileReader(feed))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (!line.trim().isEmpty()) {
+                    batch.stageLine(line);
+                }
+            }
+        }
+        return applyWeightBatch(batch);
     }
     
     /**
@@ -65,18 +720,59 @@ public class TownGraphManager implements TownGraphManagerInterface {
 	@Override
 	public boolean addRoad(String town1, String town2, int weight, String roadName) {
 		
+		if (town1 == null || town2 == null) {
+			return false;
+		}
+		long sequence = 0;
+		lock.writeLock().lock();
 		try {
 			Town townA = new Town(town1);
 			Town townB = new Town(town2);
+			if (!graph.containsVertex(townA) || !graph.containsVertex(townB)) {
+				return false;
+			}
+			// journaled first, so a road in the graph is never missing from the journal
+			if (journal != null) {
+				sequence = journal.addRoad(town1, town2, weight, roadName);
+			}
 			graph.addEdge(townA, townB, weight, roadName);
-		} catch (Exception e) {
-			return false;
+			pathCache.clear();
+			for (TownGraphListener l : listeners) {
+				l.roadAdded(roadName);
+			}
+			if (journal != null) {
+				checkpointIfDue();
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		} finally {
+			lock.writeLock().unlock();
 		}
+		awaitDurable(sequence);
 		
 		return true;
 		
 	}
 
+    /**
+     * Replaces the graph with one loaded from a checkpoint in one go; nothing is
+     * journaled. Listeners hear of the towns and roads gained.
+     * @param restored the loaded graph
+     */
+    void restoreGraph(Graph restored) {
+        lock.writeLock().lock();
+        try {
+            Graph old = graph;
+            graph = restored;
+            pathCache.clear();
+            if (!listeners.isEmpty()) {
+                notifyAdded(old);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
 	/**
 	 * Returns the name of the road that both towns are connected through
 	 * @param town1 name of town 1 (lastname, firstname)
@@ -90,7 +786,12 @@ public class TownGraphManager implements TownGraphManagerInterface {
 		townA = new Town(town1);
 		townB = new Town(town2);
 
-		return graph.getEdge(townA, townB).getName();
+		lock.readLock().lock();
+		try {
+			return graph.getEdge(townA, townB).getName();
+		} finally {
+			lock.readLock().unlock();
+		}
 	}
 
     /**
@@ -101,16 +802,72 @@ public class TownGraphManager implements TownGraphManagerInterface {
 	@Override
 	public boolean addTown(String v) {
 		
-		try {
-			graph.addVertex(new Town(v));
-		} catch (Exception e) {
+		if (v == null) {
 			return false;
 		}
+		long sequence = 0;
+		lock.writeLock().lock();
+		try {
+			Town town = new Town(v);
+			if (!graph.containsVertex(town)) {
+				// journaled first, like addRoad
+				if (journal != null) {
+					sequence = journal.addTown(v);
+				}
+				graph.addVertex(town);
+				pathCache.clear();
+				for (TownGraphListener l : listeners) {
+					l.townAdded(v);
+				}
+				if (journal != null) {
+					checkpointIfDue();
+				}
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		} finally {
+			lock.writeLock().unlock();
+		}
+		awaitDurable(sequence);
 		
 		return true;
 		
 	}
 
+    /**
+     * Sets or moves the location of a town, which lets routes be found with A*
+     * once every town has one
+     * @param name the town's name
+     * @param latitude degrees north, -90 to 90
+     * @param longitude degrees east, -180 to 180
+     * @return true if the town exists
+     * @throws IllegalArgumentException if the location is out of range
+     */
+    public boolean setTownLocation(String name, double latitude, double longitude) {
+        long sequence = 0;
+        lock.writeLock().lock();
+        try {
+            // checks the location before anything is journaled
+            Town located = new Town(name, latitude, longitude);
+            if (!graph.containsVertex(located)) {
+                return false;
+            }
+            if (journal != null) {
+                sequence = journal.setLocation(name, latitude, longitude);
+            }
+            graph.setLocation(located, latitude, longitude);
+            if (journal != null) {
+                checkpointIfDue();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        awaitDurable(sequence);
+        return true;
+    }
+
 	/**
 	 * Gets a town with a given name
 	 * @param name the town's name 
@@ -121,12 +878,17 @@ public class TownGraphManager implements TownGraphManagerInterface {
 	public Town getTown(String name) {
 		Town townA;
 		townA = new Town(name);
-		for (Town t: graph.vertexSet()) {
-			if (t.equals(townA)) {
-				return t;
+		lock.readLock().lock();
+		try {
+			for (Town t: graph.vertexSet()) {
+				if (t.equals(townA)) {
+					return t;
+				}
 			}
+			return null;
+		} finally {
+			lock.readLock().unlock();
 		}
-		return null;
 	}
 
 	/**
@@ -137,7 +899,12 @@ public class TownGraphManager implements TownGraphManagerInterface {
 	
     @Override
     public boolean containsTown(String v) {
-        return graph.containsVertex(getTown(v));
+        lock.readLock().lock();
+        try {
+            return graph.containsVertex(new Town(v));
+        } finally {
+            lock.readLock().unlock();
+        }
     }
 
     /**
@@ -153,7 +920,12 @@ public class TownGraphManager implements TownGraphManagerInterface {
 		townA = new Town(town1);
 		townB = new Town(town2);
 
-		return graph.containsEdge(townA, townB);
+		lock.readLock().lock();
+		try {
+			return graph.containsEdge(townA, townB);
+		} finally {
+			lock.readLock().unlock();
+		}
     }
 
     /**
@@ -163,9 +935,13 @@ public class TownGraphManager implements TownGraphManagerInterface {
 	
     @Override
     public ArrayList<String> allRoads() {
-        ArrayList<String> roads = new ArrayList<>();
-        for (Road r : graph.edgeSet()) {
-            roads.add(r.getName());
+        ArrayList<String> roads;
+        lock.readLock().lock();
+        try {
+            roads = graph.roads().map(Road::getName)
+                    .collect(Collectors.toCollection(ArrayList::new));
+        } finally {
+            lock.readLock().unlock();
         }
         Collections.sort(roads);
         return roads;
@@ -180,14 +956,47 @@ public class TownGraphManager implements TownGraphManagerInterface {
 	 */
     @Override
     public boolean deleteRoadConnection(String town1, String town2, String road) {
-        int weight = 0;
-        for (Road r : graph.edgeSet()) {
-            if (r.getName().equals(getRoad(town1, town2))) {
-                weight = r.getWeight();
+        return deleteRoad(town1, town2, -1, road);
+    }
+
+    /**
+     * Deletes a road of a given weight from the graph; the journal replays deletes
+     * through this, so it removes the same road the original delete did
+     * @param town1 name of town 1 (lastname, firstname)
+     * @param town2 name of town 2 (lastname, firstname)
+     * @param weight the road's weight, or -1 for the first road with the name
+     * @param road the road name
+     * @return true if the road was successfully deleted, false if not
+     */
+    boolean deleteRoad(String town1, String town2, int weight, String road) {
+        long sequence = 0;
+        lock.writeLock().lock();
+        try {
+            // the towns may be joined by several roads; remove the one with this name
+            Road found = graph.roadsBetween(new Town(town1), new Town(town2))
+                    .filter(r -> Objects.equals(r.getName(), road) && (weight < 0 || r.getWeight() == weight))
+                    .findFirst().orElse(null);
+            if (found == null) {
+                return false;
+            }
+            if (journal != null) {
+                sequence = journal.deleteRoad(town1, town2, found.getWeight(), road);
+            }
+            graph.removeEdge(found);
+            pathCache.clear();
+            for (TownGraphListener l : listeners) {
+                l.roadRemoved(road);
             }
+            if (journal != null) {
+                checkpointIfDue();
+            }
+            return true;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            lock.writeLock().unlock();
+            awaitDurable(sequence);
         }
-        return graph.removeEdge(new Town(town1), 
-                new Town(town2), weight, road) != null;
     }
 
     /**
@@ -199,7 +1008,36 @@ public class TownGraphManager implements TownGraphManagerInterface {
 	public boolean deleteTown(String v) {
 		Town townA;
 		townA = new Town(v);
-		return graph.removeVertex(townA);
+		long sequence = 0;
+		lock.writeLock().lock();
+		try {
+			if (!graph.containsVertex(townA)) {
+				return false;
+			}
+			if (journal != null) {
+				sequence = journal.deleteTown(v);
+			}
+			// the town's roads go with it
+			graph.roadsOf(townA).map(Road::getName).forEach(name -> {
+				for (TownGraphListener l : listeners) {
+					l.roadRemoved(name);
+				}
+			});
+			graph.removeVertex(townA);
+			pathCache.clear();
+			for (TownGraphListener l : listeners) {
+				l.townRemoved(v);
+			}
+			if (journal != null) {
+				checkpointIfDue();
+			}
+			return true;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		} finally {
+			lock.writeLock().unlock();
+			awaitDurable(sequence);
+		}
 	}
 
 	/**
@@ -208,11 +1046,69 @@ public class TownGraphManager implements TownGraphManagerInterface {
 	 */
     @Override
     public ArrayList<String> allTowns() {
-        ArrayList<String> towns = new ArrayList<>();
-        for (Town t : graph.vertexSet()) {
-            towns.add(t.getName());
+        ArrayList<String> towns;
+        lock.readLock().lock();
+        try {
+            towns = graph.towns().map(Town::getName)
+                    .collect(Collectors.toCollection(ArrayList::new));
+        } finally {
+            lock.readLock().unlock();
         }
         Collections.sort(towns);
         return towns;
     }
-}
\ No newline at end of file
+
+    /**
+     * What a reload changed
+     */
+    public static class ReloadSummary {
+        int townsAdded;
+        int townsRemoved;
+        int roadsAdded;
+        int roadsRemoved;
+        int roadsReweighted;
+        int townsMoved;
+
+        public int getTownsAdded() {
+            return townsAdded;
+        }
+
+        public int getTownsRemoved() {
+            return townsRemoved;
+        }
+
+        public int getRoadsAdded() {
+            return roadsAdded;
+        }
+
+        public int getRoadsRemoved() {
+            return roadsRemoved;
+        }
+
+        public int getRoadsReweighted() {
+            return roadsReweighted;
+        }
+
+        /**
+         * Returns the number of towns whose location was set or changed
+         * @return the count
+         */
+        public int getTownsMoved() {
+            return townsMoved;
+        }
+
+        /**
+         * Returns the total number of towns and roads changed
+         * @return the count, 0 if the file matched the graph
+         */
+        public int changes() {
+            return townsAdded + townsRemoved + townsMoved + roadsAdded + roadsRemoved + roadsReweighted;
+        }
+
+        @Override
+        public String toString() {
+            return "towns +" + townsAdded + " -" + townsRemoved + " ~" + townsMoved + ", roads +" + roadsAdded
+                    + " -" + roadsRemoved + " ~" + roadsReweighted;
+        }
+    }
+}
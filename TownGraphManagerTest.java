@@ -2,7 +2,22 @@
 
 import static org.junit.Assert.*;
 
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
 
 import org.junit.After;
 import org.junit.Before;
@@ -160,4 +175,384 @@ public class TownGraphManagerTest {
 
 	}
 
+	@Test
+	public void testApplyWeightBatch() {
+		TownGraphManager manager = (TownGraphManager) graph;
+		WeightBatch batch = manager.newWeightBatch();
+		batch.stage("Road_1", 8);
+		batch.stageLine("Road_12,1");
+		batch.stage("No_Such_Road", 3);
+		assertEquals(2, manager.applyWeightBatch(batch));
+		ArrayList<String> path = graph.getPath(town[1], town[11]);
+		assertEquals("Town_1 via Road_1 to Town_2 8 miles", path.get(0));
+		assertEquals("Total miles: 9 miles", path.get(path.size() - 1));
+	}
+
+	@Test
+	public void testDistanceMatrix() {
+		graph.addTown("Town_12");
+		int[][] matrix = ((TownGraphManager) graph).distanceMatrix(
+				Arrays.asList(town[1], town[4]), Arrays.asList(town[11], town[10], "Town_12"));
+		assertArrayEquals(new int[] {8, 8, Integer.MAX_VALUE}, matrix[0]);
+		assertArrayEquals(new int[] {8, 5, Integer.MAX_VALUE}, matrix[1]);
+	}
+
+	@Test
+	public void testTownsWithinAndNearestTowns() {
+		TownGraphManager manager = (TownGraphManager) graph;
+		assertEquals(Arrays.asList("Town_2", "Town_3"), manager.townsWithin(town[1], 4));
+		assertEquals(Arrays.asList("Town_2", "Town_3", "Town_7"), manager.nearestTowns(town[1], 3));
+		assertEquals(10, manager.nearestTowns(town[1], 20).size());
+	}
+
+	@Test
+	public void testPathCacheIsSymmetric() {
+		PathCache cache = ((TownGraphManager) graph).getPathCache();
+		graph.getPath(town[1], town[11]);
+		ArrayList<String> path = graph.getPath(town[11], town[1]);
+		assertEquals(1, cache.getHits());
+		assertEquals(1, cache.getMisses());
+		assertEquals("Town_11 via Road_12 to Town_2 6 miles", path.get(0));
+		assertEquals("Town_2 via Road_1 to Town_1 2 miles", path.get(1));
+		graph.addRoad(town[1], town[11], 1, "Road_13");
+		path = graph.getPath(town[11], town[1]);
+		assertEquals(2, cache.getMisses());
+		assertEquals("Town_11 via Road_13 to Town_1 1 miles", path.get(0));
+	}
+
+	@Test
+	public void testIsReachable() {
+		TownGraphManager manager = (TownGraphManager) graph;
+		assertTrue(manager.isReachable(town[1], town[11]));
+		manager.addTown("Town_12");
+		assertFalse(manager.isReachable(town[1], "Town_12"));
+		assertFalse(manager.isReachable(town[1], "No_Such_Town"));
+		manager.addRoad(town[6], "Town_12", 2, "Road_13");
+		assertTrue(manager.isReachable("Town_12", town[1]));
+		manager.deleteRoadConnection(town[6], "Town_12", "Road_13");
+		assertFalse(manager.isReachable(town[1], "Town_12"));
+		assertTrue(manager.getPath(town[1], "Town_12").isEmpty());
+	}
+
+	@Test
+	public void testJournalRecovery() throws Exception {
+		File dir = Files.createTempDirectory("journal").toFile();
+		TownGraphManager manager = (TownGraphManager) graph;
+		manager.openJournal(dir);
+		manager.addTown("Town_12");
+		manager.addRoad(town[11], "Town_12", 2, "Road_13");
+		manager.deleteRoadConnection(town[1], town[2], "Road_1");
+		manager.deleteTown(town[6]);
+		ArrayList<String> path = manager.getPath(town[1], "Town_12");
+
+		TownGraphManager recovered = new TownGraphManager();
+		recovered.openJournal(dir);
+		assertEquals(manager.allTowns(), recovered.allTowns());
+		assertEquals(manager.allRoads(), recovered.allRoads());
+		assertEquals(path, recovered.getPath(town[1], "Town_12"));
+		recovered.checkpoint();
+		recovered.closeJournal();
+		manager.closeJournal();
+
+		TownGraphManager fromCheckpoint = new TownGraphManager();
+		fromCheckpoint.openJournal(dir);
+		assertEquals(manager.allRoads(), fromCheckpoint.allRoads());
+		fromCheckpoint.closeJournal();
+	}
+
+	@Test
+	public void testReloadFrom() throws Exception {
+		File file = File.createTempFile("roads", ".txt");
+		Files.write(file.toPath(), Arrays.asList(
+				"Road_1,2;Town_1;Town_2", "Road_2,4;Town_1;Town_3", "Road_3,6;Town_1;Town_5",
+				"Road_4,1;Town_3;Town_7", "Road_5,2;Town_3;Town_8", "Road_6,3;Town_4;Town_8",
+				"Road_8,4;Town_9;Town_10", "Road_9,2;Town_8;Town_10", "Road_10,5;Town_5;Town_10",
+				"Road_11,3;Town_10;Town_11", "Road_12,1;Town_11;Town_2", "Road_13,2;Town_11;Town_12"));
+		TownGraphManager manager = (TownGraphManager) graph;
+		manager.getPath(town[1], town[11]);
+		TownGraphManager.ReloadSummary summary = manager.reloadFrom(file);
+		assertEquals(1, summary.getTownsAdded());
+		assertEquals(1, summary.getTownsRemoved());
+		assertEquals(1, summary.getRoadsAdded());
+		assertEquals(1, summary.getRoadsRemoved());
+		assertEquals(1, summary.getRoadsReweighted());
+		assertFalse(manager.containsTown(town[6]));
+		ArrayList<String> path = manager.getPath(town[1], "Town_12");
+		assertEquals("Total miles: 5 miles", path.get(path.size() - 1));
+		assertEquals(0, manager.reloadFrom(file).changes());
+	}
+
+	@Test
+	public void testParallelRoads() {
+		graph.addRoad(town[1], town[2], 1, "Road_13");
+		assertEquals("Road_13", graph.getRoad(town[1], town[2]));
+		assertTrue(graph.deleteRoadConnection(town[2], town[1], "Road_1"));
+		assertTrue(graph.containsRoadConnection(town[1], town[2]));
+		assertEquals("Town_1 via Road_13 to Town_2 1 miles", graph.getPath(town[1], town[11]).get(0));
+	}
+
+	@Test
+	public void testRoutingServer() throws Exception {
+		RoutingServer server = new RoutingServer((TownGraphManager) graph,
+				new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+		server.start();
+		try {
+			String base = "http://localhost:" + server.getPort();
+			assertEquals("{\"from\":\"Town_1\",\"to\":\"Town_11\",\"found\":true,\"miles\":8,\"path\":"
+					+ "[\"Town_1 via Road_1 to Town_2 2 miles\",\"Town_2 via Road_12 to Town_11 6 miles\"]}",
+					request("GET", base + "/path?from=Town_1&to=Town_11"));
+			assertEquals("{\"added\":true}",
+					request("POST", base + "/roads?from=Town_1&to=Town_11&weight=1&name=Road_13"));
+			assertTrue(request("GET", base + "/path?from=Town_11&to=Town_1").contains("\"miles\":1,"));
+			assertTrue(request("GET", base + "/roads").startsWith("[\"Road_1\",\"Road_10\""));
+			assertEquals("{\"deleted\":true}", request("DELETE", base + "/towns?name=Town_11"));
+			assertTrue(request("GET", base + "/path?from=Town_1&to=Town_11").contains("\"found\":false"));
+		} finally {
+			server.stop();
+		}
+	}
+
+	private static String request(String method, String url) throws Exception {
+		HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+		connection.setRequestMethod(method);
+		assertEquals(200, connection.getResponseCode());
+		assertNotNull(connection.getHeaderField("Server-Timing"));
+		try (InputStream in = connection.getInputStream()) {
+			return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+		}
+	}
+
+	@Test
+	public void testBatchRouter() throws Exception {
+		BatchRouter router = new BatchRouter((TownGraphManager) graph, true, ForkJoinPool.commonPool());
+		StringWriter out = new StringWriter();
+		router.run(new BufferedReader(new StringReader("Town_1;Town_11\n\nTown_6;Town_1\nTown_1;Town_12\n")), out);
+		assertEquals("from,to,miles,route\n"
+				+ "Town_1,Town_11,8,Town_1 via Road_1 to Town_2 2 miles | Town_2 via Road_12 to Town_11 6 miles\n"
+				+ "Town_6,Town_1,15,Town_6 via Road_7 to Town_9 3 miles | Town_9 via Road_8 to Town_10 4 miles"
+				+ " | Town_10 via Road_9 to Town_8 2 miles | Town_8 via Road_5 to Town_3 2 miles"
+				+ " | Town_3 via Road_2 to Town_1 4 miles\n"
+				+ "Town_1,Town_12,,\n", out.toString());
+		assertTrue(router.report(1000000).startsWith("3 routes"));
+	}
+
+	@Test
+	public void testWeightProfiles() throws Exception {
+		TownGraphManager manager = (TownGraphManager) graph;
+		assertEquals(manager.getPath(town[1], town[11]), manager.getPath(town[1], town[11], WeightProfile.TIME));
+		File dir = Files.createTempDirectory("profiles").toFile();
+		manager.openJournal(dir);
+		WeightBatch batch = manager.newWeightBatch();
+		batch.stage("Road_12", 20);
+		assertEquals(1, manager.applyWeightBatch(batch, WeightProfile.TIME));
+		ArrayList<String> fastest = manager.getPath(town[1], town[11], WeightProfile.TIME);
+		assertEquals("Town_1 via Road_2 to Town_3 4 miles", fastest.get(0));
+		assertEquals("Total miles: 11 miles", fastest.get(fastest.size() - 1));
+		assertEquals("Total miles: 8 miles", manager.getPath(town[1], town[11]).get(2));
+		assertEquals(0, manager.distanceMatrix(Arrays.asList(town[1]), Arrays.asList(town[11]), WeightProfile.TOLL)[0][0]);
+
+		TownGraphManager recovered = new TownGraphManager();
+		recovered.openJournal(dir);
+		assertEquals(fastest, recovered.getPath(town[1], town[11], WeightProfile.TIME));
+		recovered.checkpoint();
+		recovered.closeJournal();
+		manager.closeJournal();
+		TownGraphManager fromCheckpoint = new TownGraphManager();
+		fromCheckpoint.openJournal(dir);
+		assertEquals(fastest, fromCheckpoint.getPath(town[1], town[11], WeightProfile.TIME));
+		fromCheckpoint.closeJournal();
+	}
+
+	@Test
+	public void testTownLocations() throws Exception {
+		File file = File.createTempFile("located", ".txt");
+		Files.write(file.toPath(), Arrays.asList("Road_13,60;Town_11;Town_12",
+				"[towns]", "Town_11;40.0;-75.0", "Town_12;40.5;-75.5", "[roads]", "Road_14,1;Town_12;Town_12"));
+		TownGraphManager manager = (TownGraphManager) graph;
+		manager.populateTownGraph(file);
+		assertEquals(-75.5, manager.getTown("Town_12").getLongitude(), 1e-9);
+		assertFalse(manager.getTown(town[1]).hasLocation());
+		File dir = Files.createTempDirectory("locations").toFile();
+		manager.openJournal(dir);
+		assertTrue(manager.setTownLocation(town[1], 39.9, -75.1));
+		assertFalse(manager.setTownLocation("Town_13", 39.9, -75.1));
+		TownGraphManager recovered = new TownGraphManager();
+		recovered.openJournal(dir);
+		assertEquals(39.9, recovered.getTown(town[1]).getLatitude(), 1e-9);
+		assertEquals(40.5, recovered.getTown("Town_12").getLatitude(), 1e-9);
+		recovered.closeJournal();
+		manager.closeJournal();
+		Files.write(file.toPath(), Arrays.asList("[towns]", "Town_12;41;-75.5"), StandardOpenOption.APPEND);
+		assertEquals(1, manager.reloadFrom(file).getTownsMoved());
+	}
+
+	@Test
+	public void testNearestTownAndBox() {
+		TownGraphManager manager = (TownGraphManager) graph;
+		assertNull(manager.nearestTown(40, -75));
+		for (int i = 1; i < 12; i++) {
+			manager.setTownLocation(town[i], 40 + i * 0.1, -75 - i * 0.1);
+		}
+		assertEquals(town[3], manager.nearestTown(40.31, -75.29));
+		assertEquals(town[11], manager.nearestTown(60, -60));
+		assertEquals(Arrays.asList(town[2], town[3], town[4]), manager.townsInBox(40.15, -75.45, 40.45, -75.15));
+		manager.setTownLocation(town[3], 10, 10);
+		manager.deleteTown(town[4]);
+		assertEquals(Arrays.asList(town[2]), manager.townsInBox(40.15, -75.45, 40.45, -75.15));
+		assertEquals(town[2], manager.nearestTown(40.31, -75.29));
+		manager.addTown("Town_12");
+		manager.setTownLocation("Town_12", 0, 179.9);
+		assertEquals("Town_12", manager.nearestTown(0, -179.9));
+		assertEquals(Arrays.asList("Town_12"), manager.townsInBox(-1, 179, 1, -179));
+	}
+
+	@Test
+	public void testShardedRouting() throws Exception {
+		TownGraphManager manager = (TownGraphManager) graph;
+		File dir = Files.createTempDirectory("shards").toFile();
+		assertTrue(manager.writeShards(dir, 3) > 0);
+		ArrayList<InetSocketAddress> addresses = new ArrayList<>();
+		ArrayList<ShardWorker> workers = new ArrayList<>();
+		for (int r = 0; r < 3; r++) {
+			ShardWorker worker = new ShardWorker(GraphPartitioner.regionFile(dir, r),
+					new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+			worker.start();
+			workers.add(worker);
+			addresses.add(new InetSocketAddress(InetAddress.getLoopbackAddress(), worker.getPort()));
+		}
+		try (ShardCoordinator coordinator = new ShardCoordinator(dir, addresses)) {
+			for (int i = 1; i < 12; i++) {
+				for (int j = 1; j < 12; j++) {
+					ArrayList<String> expected = manager.getPath(town[i], town[j]);
+					ArrayList<String> path = coordinator.getPath(town[i], town[j]);
+					assertEquals(expected.size() > 0, path.size() > 0);
+					if (!expected.isEmpty()) {
+						assertEquals(TownGraphManager.totalMiles(expected), TownGraphManager.totalMiles(path));
+					}
+				}
+			}
+			assertEquals(manager.getPath(town[4], town[11]), coordinator.getPath(town[4], town[11]));
+			assertTrue(coordinator.getPath(town[1], "Town_12").isEmpty());
+		} finally {
+			for (ShardWorker worker : workers) {
+				worker.stop();
+			}
+		}
+	}
+
+	@Test
+	public void testReloadRepeatedLine() throws Exception {
+		File file = File.createTempFile("repeated", ".txt");
+		Files.write(file.toPath(), Arrays.asList("R1,3;A;B", "R2,4;B;C", "R1,3;A;B"));
+		TownGraphManager manager = new TownGraphManager();
+		manager.populateTownGraph(file);
+		assertEquals(Arrays.asList("R1", "R2"), manager.allRoads());
+		assertEquals(0, manager.reloadFrom(file).changes());
+		assertEquals(Arrays.asList("R1", "R2"), manager.allRoads());
+	}
+
+	@Test
+	public void testJournalUnnamedRoads() throws Exception {
+		File dir = Files.createTempDirectory("unnamed").toFile();
+		TownGraphManager manager = (TownGraphManager) graph;
+		manager.openJournal(dir);
+		assertTrue(manager.addRoad(town[1], town[4], 1, null));
+		manager.checkpoint();
+		assertTrue(manager.addRoad(town[4], town[11], 1, null));
+		manager.closeJournal();
+		TownGraphManager recovered = new TownGraphManager();
+		recovered.openJournal(dir);
+		assertTrue(recovered.containsRoadConnection(town[1], town[4]));
+		assertNull(recovered.getRoad(town[4], town[11]));
+		assertEquals(manager.getPath(town[1], town[11]), recovered.getPath(town[1], town[11]));
+		recovered.closeJournal();
+	}
+
+	@Test
+	public void testCheckpointKeepsRepeatedRoads() throws Exception {
+		File dir = Files.createTempDirectory("repeats").toFile();
+		TownGraphManager manager = (TownGraphManager) graph;
+		manager.openJournal(dir);
+		assertTrue(manager.addRoad(town[1], town[4], 7, "Twin"));
+		assertTrue(manager.addRoad(town[1], town[4], 7, "Twin"));
+		manager.checkpoint();
+		manager.closeJournal();
+		TownGraphManager recovered = new TownGraphManager();
+		recovered.openJournal(dir);
+		assertEquals(manager.allRoads(), recovered.allRoads());
+		assertEquals(manager.getPath(town[1], town[11]), recovered.getPath(town[1], town[11]));
+		recovered.closeJournal();
+	}
+
+	@Test
+	public void testJournalDeletesWeighedRoad() throws Exception {
+		File dir = Files.createTempDirectory("weighed").toFile();
+		TownGraphManager manager = (TownGraphManager) graph;
+		manager.openJournal(dir);
+		assertTrue(manager.addRoad(town[1], town[11], 1, "Twin"));
+		assertTrue(manager.addRoad(town[1], town[11], 5, "Twin"));
+		manager.checkpoint();
+		// replay must delete this road, not whichever road named Twin it finds first
+		assertTrue(manager.deleteRoad(town[1], town[11], 1, "Twin"));
+		manager.closeJournal();
+		TownGraphManager recovered = new TownGraphManager();
+		recovered.openJournal(dir);
+		assertEquals(manager.getRoad(town[1], town[11]), recovered.getRoad(town[1], town[11]));
+		assertEquals(manager.getPath(town[1], town[11]), recovered.getPath(town[1], town[11]));
+		recovered.closeJournal();
+	}
+
+	@Test
+	public void testLatencyHistogram() {
+		BatchRouter.LatencyHistogram histogram = new BatchRouter.LatencyHistogram();
+		assertEquals(-1, histogram.percentile(50));
+		Random random = new Random(45);
+		long[] values = new long[100_000];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = (long) Math.exp(random.nextDouble() * 20);
+			histogram.record(values[i]);
+		}
+		Arrays.sort(values);
+		for (int p : new int[] {1, 50, 90, 99, 100}) {
+			long exact = values[(int) Math.ceil(values.length * p / 100.0) - 1];
+			assertTrue(p + ": " + histogram.percentile(p) + " vs " + exact,
+					Math.abs(histogram.percentile(p) - exact) <= exact / 32);
+		}
+		assertEquals(values[values.length - 1], histogram.percentile(100));
+	}
+
+	@Test
+	public void testReloadUnnamedRoad() throws Exception {
+		File file = File.createTempFile("unnamed", ".txt");
+		Files.write(file.toPath(), Arrays.asList("R1,3;A;B", "R2,4;B;C"));
+		TownGraphManager manager = new TownGraphManager();
+		manager.populateTownGraph(file);
+		assertTrue(manager.addRoad("A", "C", 5, null));
+		// the unnamed road is not in the file, so it goes
+		TownGraphManager.ReloadSummary summary = manager.reloadFrom(file);
+		assertEquals(1, summary.getRoadsRemoved());
+		assertEquals(1, summary.changes());
+		assertFalse(manager.containsRoadConnection("A", "C"));
+		// a line with an empty name is a different road from one without a name
+		assertTrue(manager.addRoad("A", "C", 5, null));
+		Files.write(file.toPath(), Arrays.asList("R1,3;A;B", "R2,4;B;C", ",5;A;C"));
+		summary = manager.reloadFrom(file);
+		assertEquals(1, summary.getRoadsRemoved());
+		assertEquals(1, summary.getRoadsAdded());
+		assertEquals("", manager.getRoad("A", "C"));
+	}
+
+	@Test
+	public void testPopulateKeepsRepeatedRoads() throws Exception {
+		File file = File.createTempFile("populate", ".txt");
+		Files.write(file.toPath(), Arrays.asList("R1,3;A;B", "R1,3;B;A"));
+		TownGraphManager manager = new TownGraphManager();
+		assertTrue(manager.addTown("A"));
+		assertTrue(manager.addTown("B"));
+		assertTrue(manager.addRoad("A", "B", 7, "Twin"));
+		assertTrue(manager.addRoad("A", "B", 7, "Twin"));
+		manager.populateTownGraph(file);
+		// the file's repeated line is dropped, the roads already in the graph are not
+		assertEquals(Arrays.asList("R1", "Twin", "Twin"), manager.allRoads());
+	}
 }
\ No newline at end of file
@@ -0,0 +1,66 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Weight changes staged for a TownGraphManager and applied together by
+ * TownGraphManager.applyWeightBatch, so a traffic feed is seen by queries
+ * either completely or not at all.
+ * @author Ha T Dao
+ */
+public class WeightBatch {
+
+    /**
+     * New weight by road name, in the order they were staged; a later change to
+     * the same road replaces the earlier one
+     */
+    private Map<String, Integer> changes = new LinkedHashMap<>();
+
+    /**
+     * Stages a new weight for every road with the given name
+     * @param roadName name of the road
+     * @param newWeight the new length of the road in miles
+     * @throws IllegalArgumentException if the weight is negative
+     */
+    public void stage(String roadName, int newWeight) {
+        if (roadName == null) {
+            throw new NullPointerException();
+        }
+        if (newWeight < 0) {
+            throw new IllegalArgumentException();
+        }
+        changes.put(roadName, newWeight);
+    }
+
+    /**
+     * Stages a change written as a feed line, name,newWeight
+     * @param line the feed line
+     * @throws IllegalArgumentException if the line is not in that format
+     */
+    public void stageLine(String line) {
+        int comma = line.lastIndexOf(',');
+        if (comma < 0) {
+            throw new IllegalArgumentException(line);
+        }
+        try {
+            stage(line.substring(0, comma).trim(), Integer.parseInt(line.substring(comma + 1).trim()));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(line);
+        }
+    }
+
+    /**
+     * Returns the number of staged changes
+     * @return the number of roads names with a staged weight
+     */
+    public int size() {
+        return changes.size();
+    }
+
+    /**
+     * Returns the staged changes
+     * @return new weight by road name
+     */
+    Map<String, Integer> changes() {
+        return changes;
+    }
+}
@@ -0,0 +1,37 @@
+/**
+ * What a route minimizes. Every road carries one weight per profile, stored side
+ * by side in the graph's edge store, so all profiles share the same towns, roads
+ * and indexes and a route can be asked for by any of them.
+ * @author Ha T Dao
+ */
+public enum WeightProfile {
+
+    /**
+     * Length in miles, the weight a road is added with
+     */
+    DISTANCE,
+
+    /**
+     * Travel time in minutes; a new road starts at one minute per mile
+     */
+    TIME,
+
+    /**
+     * Toll in cents; a new road starts toll free
+     */
+    TOLL;
+
+    /**
+     * Returns the weight a road of some length starts with in this profile
+     * @param miles the road's length
+     * @return the initial weight
+     */
+    int initialWeight(int miles) {
+        switch (this) {
+        case TOLL:
+            return 0;
+        default:
+            return miles;
+        }
+    }
+}